@@ -2,4 +2,6 @@
 
 javac -d classes -classpath lib -sourcepath src src/QueryMain.java
 javac -d classes -classpath lib -sourcepath src src/ConvertTxtToTbl.java 
-javac -d classes -classpath lib -sourcepath src src/RandomDB.java
\ No newline at end of file
+javac -d classes -classpath lib -sourcepath src src/RandomDB.java
+javac -d classes -classpath lib -sourcepath src src/Analyze.java
+javac -d classes -classpath lib -sourcepath src src/Calibrate.java
\ No newline at end of file
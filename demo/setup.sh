@@ -3,7 +3,4 @@ java RandomDB CART 100
 java RandomDB CARTDETAILS 100
 java RandomDB CUSTOMER 100
 
-java ConvertTxtToTbl BILL
-java ConvertTxtToTbl CART
-java ConvertTxtToTbl CARTDETAILS
-java ConvertTxtToTbl CUSTOMER
\ No newline at end of file
+java ConvertTxtToTbl BILL CART CARTDETAILS CUSTOMER
\ No newline at end of file
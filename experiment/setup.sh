@@ -4,8 +4,4 @@ java RandomDB FLIGHTS 15000
 java RandomDB SCHEDULE 15000
 java RandomDB CERTIFIED 15000
 
-java ConvertTxtToTbl AIRCRAFTS
-java ConvertTxtToTbl EMPLOYEES
-java ConvertTxtToTbl FLIGHTS
-java ConvertTxtToTbl SCHEDULE
-java ConvertTxtToTbl CERTIFIED
\ No newline at end of file
+java ConvertTxtToTbl AIRCRAFTS EMPLOYEES FLIGHTS SCHEDULE CERTIFIED
\ No newline at end of file
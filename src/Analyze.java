@@ -0,0 +1,199 @@
+/*
+  Recomputes the statistics of tables from their data. Each <tablename>.tbl
+  is read once, in chunks of CHUNKSIZE tuples, and the columns are split
+  into groups that gather their ColumnStatistics in parallel, on
+  -Dqp.analyzethreads threads (the number of processors by default). The
+  memory taken does not depend on the size of the table.
+
+  Writes <tablename>.stat with the number of tuples and the estimated
+  distinct values of each column, followed by lines with the smallest
+  value, the largest value and the number of nulls of each column (- for
+  a column without values), and <tablename>.hist with an equi-depth
+  histogram of each column, and <tablename>.sample with a random sample
+  of its rows, on which the optimizer can evaluate the predicates of a
+  query when it is run with -Dqp.sampling.
+
+  Run it after a table has been loaded or changed, so that the optimizer
+  works from its actual contents rather than from the ranges the
+  generator was given.
+*/
+
+import qp.utils.Batch;
+import qp.utils.ColumnStatistics;
+import qp.utils.Histogram;
+import qp.utils.Schema;
+import qp.utils.TableFile;
+import qp.utils.TableSample;
+import qp.utils.Tuple;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public class Analyze {
+
+    static final int CHUNKSIZE = 10000;  // Tuples read before they are handed to the column groups
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: java Analyze <tablename> [<tablename> ...] \n writes <tablename>.stat and <tablename>.hist files");
+            System.exit(1);
+        }
+        int threads = Integer.getInteger("qp.analyzethreads", Runtime.getRuntime().availableProcessors());
+        if (threads < 1) {
+            System.err.println("qp.analyzethreads must be at least 1");
+            System.exit(1);
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        for (String tblname : args) {
+            analyze(tblname, pool, threads);
+        }
+        pool.shutdown();
+    }
+
+    private static void analyze(String tblname, ForkJoinPool pool, int threads) throws IOException {
+        long start = System.nanoTime();
+        Schema schema = readSchema(tblname);
+        int numCols = schema.getNumCols();
+        ColumnStatistics[] columns = new ColumnStatistics[numCols];
+        for (int i = 0; i < numCols; ++i) {
+            columns[i] = new ColumnStatistics(schema.typeOf(i), i);
+        }
+        /** group g gathers the columns g, g + numGroups, ... **/
+        int numGroups = Math.max(1, Math.min(threads, numCols));
+
+        TableSample sample = new TableSample(numCols);
+        long numTuples = 0;
+        TupleSource in = new TupleSource(tblname + ".tbl");
+        ArrayList<Tuple> chunk = new ArrayList<>(CHUNKSIZE);
+        Tuple tuple;
+        while ((tuple = in.next()) != null) {
+            chunk.add(tuple);
+            sample.add(tuple);
+            if (chunk.size() == CHUNKSIZE) {
+                gather(chunk, columns, numGroups, pool);
+                numTuples += chunk.size();
+                chunk.clear();
+            }
+        }
+        gather(chunk, columns, numGroups, pool);
+        numTuples += chunk.size();
+        in.close();
+
+        PrintWriter stat = new PrintWriter(tblname + ".stat");
+        stat.println(numTuples);
+        for (int i = 0; i < numCols; ++i) {
+            stat.print((i == 0 ? "" : "\t") + columns[i].getDistinct());
+        }
+        stat.println();
+        stat.print("min");
+        for (ColumnStatistics column : columns) {
+            stat.print("\t" + (column.getMin() == null ? "-" : column.getMin()));
+        }
+        stat.println();
+        stat.print("max");
+        for (ColumnStatistics column : columns) {
+            stat.print("\t" + (column.getMax() == null ? "-" : column.getMax()));
+        }
+        stat.println();
+        stat.print("nulls");
+        for (ColumnStatistics column : columns) {
+            stat.print("\t" + column.getNulls());
+        }
+        stat.println();
+        stat.close();
+
+        Histogram[] histograms = new Histogram[numCols];
+        for (int i = 0; i < numCols; ++i) {
+            histograms[i] = columns[i].getHistogram(Histogram.NUMBUCKETS);
+        }
+        Histogram.writeTable(tblname, schema, histograms);
+        sample.write(tblname);
+        System.out.println(tblname + ": " + numTuples + " tuples in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Adds the values of the chunk to the statistics of their columns, one group of columns per task
+     **/
+    private static void gather(ArrayList<Tuple> chunk, ColumnStatistics[] columns, int numGroups, ForkJoinPool pool) {
+        try {
+            pool.submit(() -> IntStream.range(0, numGroups).parallel().forEach(g -> {
+                for (Tuple tuple : chunk) {
+                    for (int i = g; i < columns.length; i += numGroups) {
+                        columns[i].add(i < tuple.getNumCols() ? tuple.dataAt(i) : null);
+                    }
+                }
+            })).get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println("Analyze: Error in gathering statistics " + e);
+            System.exit(1);
+        }
+    }
+
+    private static Schema readSchema(String tblname) throws IOException {
+        Schema schema = null;
+        try (ObjectInputStream ins = new ObjectInputStream(new FileInputStream(tblname + ".md"))) {
+            schema = (Schema) ins.readObject();
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in schema object file");
+            System.exit(1);
+        }
+        return schema;
+    }
+
+    /**
+     * Reads the tuples of a table file one at a time, in the paged layout
+     * * a page at a time, or from the old stream of tuples
+     **/
+    static class TupleSource {
+        final String tblfile;
+        TableFile table;        // Paged table, null for the old layout
+        ObjectInputStream in;   // Old layout
+        Batch page;
+        int pageNum;
+        int pos;
+
+        TupleSource(String tblfile) throws IOException {
+            this.tblfile = tblfile;
+            if (TableFile.isPaged(tblfile)) {
+                table = new TableFile(tblfile);
+            } else {
+                in = new ObjectInputStream(new FileInputStream(tblfile));
+            }
+        }
+
+        Tuple next() throws IOException {
+            if (table == null) {
+                try {
+                    return (Tuple) in.readObject();
+                } catch (EOFException eof) {
+                    return null;
+                } catch (ClassNotFoundException cnf) {
+                    System.out.println("class not found exception --- error in table file " + tblfile);
+                    System.exit(1);
+                    return null;
+                }
+            }
+            while (page == null || pos == page.size()) {
+                if (pageNum == table.getNumPages()) {
+                    return null;
+                }
+                page = new Batch(table.getTuplesPerPage());
+                table.readPage(pageNum++, page);
+                pos = 0;
+            }
+            return page.get(pos++);
+        }
+
+        void close() throws IOException {
+            if (table != null) {
+                table.close();
+            } else {
+                in.close();
+            }
+        }
+    }
+}
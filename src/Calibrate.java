@@ -0,0 +1,224 @@
+/*
+  Measures the weights of the CPU work of the cost model on this machine and
+  writes them to a file for -Dqp.costweights. The operators run on a loaded
+  table. Each is first run untimed for WARMUPMS milliseconds, then timed
+  REPEATS times over as many runs as fill MINMS milliseconds, and the median
+  time of one run is taken:
+
+    read    the bytes of <tablename>.tbl, with no tuples built
+    scan    a Scan of the table
+    memory  the tuples of the table, served in batches from memory
+    select  a Select on the first column of every tuple served from memory
+    hash    a HashJoin of the tuples in memory with themselves on the primary
+            key of the table, or its first column if it has none
+
+  A page I/O is the time read takes per page of the given size, as PlanCost
+  counts the pages of the table. Deserializing a tuple is what scan takes
+  over read, a comparison what select takes over memory, and hashing a tuple
+  what hash takes over serving its two inputs, all per tuple and divided by
+  the time of a page I/O. A weight that does not come out above 0 means the
+  timings are too noisy to use, and nothing is written. The table file is
+  read from the cache of the operating system after the first run, so the
+  weights are those of a machine whose storage keeps up with its CPU; on a
+  slow disk they are too high.
+
+  usage: java Calibrate <tablename> <pagesize> <weightsfile>
+*/
+
+import qp.operators.*;
+import qp.optimizer.CostWeights;
+import qp.utils.*;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+public class Calibrate {
+
+    static final int WARMUPMS = 500;  // Milliseconds each operator runs before it is timed
+    static final int MINMS = 200;     // Milliseconds of runs in one timing
+    static final int REPEATS = 5;     // Timings of each operator
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("usage: java Calibrate <tablename> <pagesize> <weightsfile> \n writes the weights of the CPU work of the cost model");
+            System.exit(1);
+        }
+        String tabname = args[0];
+        Batch.setPageSize(Integer.parseInt(args[1]));
+        Schema schema = readSchema(tabname);
+
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        Operator scanned = scan(tabname, schema);
+        scanned.pushTo(tuples::add);
+        long numtuples = tuples.size();
+        if (numtuples == 0) {
+            System.out.println("Calibrate: " + tabname + " has no tuples");
+            System.exit(1);
+        }
+
+        double read = time(() -> readBytes(tabname + ".tbl"));
+        double scan = time(() -> drain(scan(tabname, schema)));
+        double memory = time(() -> drain(new Memory(tuples, schema)));
+        double select = time(() -> drain(select(new Memory(tuples, schema))));
+        double hash = time(() -> drain(hashJoin(tuples, schema)));
+
+        long tuplesPerPage = Math.max(1, Batch.getPageSize() / schema.getTupleSize());
+        long numpages = (long) Math.ceil((double) numtuples / tuplesPerPage);
+        double page = read / numpages;
+        double tuple = (scan - read) / numtuples;
+        double comparison = (select - memory) / numtuples;
+        double hashing = (hash - 2 * memory) / (2 * numtuples);
+        System.out.printf("read %.1f ms, scan %.1f ms, memory %.1f ms, select %.1f ms, hash %.1f ms over %d tuples, %d pages\n",
+                read / 1e6, scan / 1e6, memory / 1e6, select / 1e6, hash / 1e6, numtuples, numpages);
+        System.out.printf("page I/O %.0f ns, tuple %.1f ns, comparison %.1f ns, hash %.1f ns\n",
+                page, tuple, comparison, hashing);
+        if (page <= 0 || tuple <= 0 || comparison <= 0 || hashing <= 0) {
+            System.out.println("Calibrate: a weight is not above 0, the timings are too noisy; try a larger table");
+            System.exit(1);
+        }
+
+        CostWeights weights = new CostWeights(tuple / page, comparison / page, hashing / page);
+        weights.write(args[2], "weights in page I/Os of " + Batch.getPageSize() + " bytes, measured on " + tabname);
+        System.out.println("tuple=" + weights.getTuple() + " comparison=" + weights.getComparison()
+                + " hash=" + weights.getHash() + " written to " + args[2]);
+    }
+
+    /**
+     * Median time in nanoseconds of one run, over REPEATS timings of at least
+     * * MINMS milliseconds each, after WARMUPMS milliseconds that are not timed
+     **/
+    static double time(Supplier<Long> run) {
+        long warmup = System.nanoTime() + WARMUPMS * 1000000L;
+        while (System.nanoTime() < warmup) {
+            run.get();
+        }
+        double[] times = new double[REPEATS];
+        for (int i = 0; i < REPEATS; ++i) {
+            long start = System.nanoTime();
+            long end = start + MINMS * 1000000L;
+            int runs = 0;
+            long now;
+            do {
+                run.get();
+                ++runs;
+            } while ((now = System.nanoTime()) < end);
+            times[i] = (double) (now - start) / runs;
+        }
+        Arrays.sort(times);
+        return times[REPEATS / 2];
+    }
+
+    static long readBytes(String filename) {
+        long total = 0;
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(filename)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                total += n;
+            }
+        } catch (IOException io) {
+            System.out.println("Calibrate: error in reading " + filename);
+            System.exit(1);
+        }
+        return total;
+    }
+
+    /**
+     * Runs the operator to the end, returns the number of tuples it produced
+     **/
+    static long drain(Operator root) {
+        root.setContext(new QueryContext(new BatchPool()));
+        if (!root.open()) {
+            System.out.println("Calibrate: error in opening the operator");
+            System.exit(1);
+        }
+        long numtuples = 0;
+        Batch batch;
+        while ((batch = root.next()) != null) {
+            numtuples += batch.size();
+            root.release(batch);
+        }
+        root.close();
+        return numtuples;
+    }
+
+    static Scan scan(String tabname, Schema schema) {
+        Scan scan = new Scan(tabname, OpType.SCAN);
+        scan.setSchema(schema);
+        return scan;
+    }
+
+    static Select select(Operator base) {
+        Schema schema = base.getSchema();
+        Attribute attr = schema.getAttribute(0);
+        String constant = attr.getType() == Attribute.STRING ? "" : "-1";
+        Condition con = new Condition(attr, Condition.NOTEQUAL, constant);
+        con.setOpType(Condition.SELECT);
+        Select select = new Select(base, con, OpType.SELECT);
+        select.setSchema(schema);
+        return select;
+    }
+
+    static HashJoin hashJoin(ArrayList<Tuple> tuples, Schema schema) {
+        Attribute key = schema.getAttribute(0);
+        for (Attribute attr : schema.getAttList()) {
+            if (attr.isPrimaryKey()) {
+                key = attr;
+                break;
+            }
+        }
+        Condition con = new Condition(key, Condition.EQUAL, key);
+        con.setOpType(Condition.JOIN);
+        Join join = new Join(new Memory(tuples, schema), new Memory(tuples, schema), con, OpType.JOIN);
+        join.setSchema(schema.joinWith(schema));
+        join.setJoinType(JoinType.HASHJOIN);
+        join.setNumBuff(Integer.MAX_VALUE);
+        return new HashJoin(join);
+    }
+
+    /**
+     * Serves tuples held in memory, in batches of the execution batch size
+     **/
+    static class Memory extends Operator {
+        final ArrayList<Tuple> tuples;
+        int pos;
+
+        Memory(ArrayList<Tuple> tuples, Schema schema) {
+            super(OpType.SCAN);
+            this.tuples = tuples;
+            setSchema(schema);
+        }
+
+        public boolean open() {
+            pos = 0;
+            return true;
+        }
+
+        public Batch next() {
+            if (pos == tuples.size()) {
+                return null;
+            }
+            Batch batch = new Batch(Batch.getExecBatchSize());
+            while (pos < tuples.size() && !batch.isFull()) {
+                batch.add(tuples.get(pos++));
+            }
+            return batch;
+        }
+    }
+
+    static Schema readSchema(String tabname) throws IOException {
+        Schema schema = null;
+        try (ObjectInputStream ins = new ObjectInputStream(new FileInputStream(tabname + ".md"))) {
+            schema = (Schema) ins.readObject();
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in schema object file");
+            System.exit(1);
+        }
+        return schema;
+    }
+}
@@ -3,48 +3,96 @@
   attributes of the relation. each subsequent line represents 1
   tuple of the relation. also assume that the fields of each line
   is delimited by tabs ("\t")
+
+  STRING columns are dictionary encoded. All the tables given in one
+  run share a single dictionary, so that their string columns can be
+  compared on codes.
+
+  The .tbl files are written in the paged layout of TableFile, with
+  pages of TableFile.PAGE_BYTES bytes. An equi-depth histogram of each
+  column is written to <tablename>.hist for the optimizer.
 */
 
 import qp.utils.Attribute;
+import qp.utils.ColumnStatistics;
+import qp.utils.Histogram;
 import qp.utils.Schema;
+import qp.utils.StringDictionary;
+import qp.utils.TableFile;
 import qp.utils.Tuple;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.StringTokenizer;
 
 public class ConvertTxtToTbl {
 
     public static void main(String[] args) throws IOException {
         // check the arguments
-        if (args.length != 1) {
-            System.out.println("usage: java ConvertTxtToTbl <tablename> \n creats <tablename>.tbl files");
+        if (args.length < 1) {
+            System.out.println("usage: java ConvertTxtToTbl <tablename> [<tablename> ...] \n creats <tablename>.tbl files");
             System.exit(1);
         }
-        String tblname = args[0];
-        String mdfile = tblname + ".md";
-        String tblfile = tblname + ".tbl";
 
-        /** open the input and output streams **/
-        BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
-        ObjectOutputStream outtbl = new ObjectOutputStream(new FileOutputStream(tblfile));
+        /** First pass collects the strings of all tables into the shared dictionary **/
+        HashSet<String> strings = new HashSet<>();
+        for (String tblname : args) {
+            collectStrings(tblname, readSchema(tblname), strings);
+        }
+        StringDictionary dictionary = new StringDictionary(strings);
 
-        /** First Line is METADATA **/
-        int linenum = 0;
-        String line;
+        for (String tblname : args) {
+            convert(tblname, readSchema(tblname), dictionary);
+        }
+    }
+
+    private static Schema readSchema(String tblname) throws IOException {
+        String mdfile = tblname + ".md";
         Schema schema = null;
         try {
             ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
             schema = (Schema) ins.readObject();
+            ins.close();
         } catch (ClassNotFoundException ce) {
             System.out.println("class not found exception --- error in schema object file");
             System.exit(1);
         }
+        return schema;
+    }
 
-        boolean flag = false;
+    private static void collectStrings(String tblname, Schema schema, HashSet<String> strings) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
+        String line;
+        while ((line = in.readLine()) != null) {
+            StringTokenizer tokenizer = new StringTokenizer(line);
+            int attrIndex = 0;
+            while (tokenizer.hasMoreElements()) {
+                String dataElement = tokenizer.nextToken();
+                if (schema.typeOf(attrIndex) == Attribute.STRING) {
+                    strings.add(dataElement);
+                }
+                attrIndex++;
+            }
+        }
+        in.close();
+    }
+
+    private static void convert(String tblname, Schema schema, StringDictionary dictionary) throws IOException {
+        String tblfile = tblname + ".tbl";
+
+        /** open the input and output streams **/
+        BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
+        int tuplesPerPage = Math.max(1, TableFile.PAGE_BYTES / schema.getTupleSize());
+        TableFile.Writer outtbl = new TableFile.Writer(tblfile, tuplesPerPage);
+        ColumnStatistics[] columns = new ColumnStatistics[schema.getNumCols()];
+        for (int i = 0; i < columns.length; ++i) {
+            columns[i] = new ColumnStatistics(schema.typeOf(i), i);
+        }
+
+        String line;
         StringTokenizer tokenizer;
         while ((line = in.readLine()) != null) {
-            linenum++;
             tokenizer = new StringTokenizer(line);
 
             ArrayList<Object> data = new ArrayList<>();
@@ -58,7 +106,7 @@ public class ConvertTxtToTbl {
                 } else if (datatype == Attribute.REAL) {
                     data.add(Float.valueOf(dataElement));
                 } else if (datatype == Attribute.STRING) {
-                    data.add(dataElement);
+                    data.add(dictionary.encode(dataElement));
                 } else {
                     System.err.println("Invalid data type");
                     System.exit(1);
@@ -66,10 +114,18 @@ public class ConvertTxtToTbl {
                 attrIndex++;
             }
             Tuple tuple = new Tuple(data);
-            outtbl.writeObject(tuple);
+            outtbl.add(tuple);
+            for (int i = 0; i < data.size(); ++i) {
+                columns[i].add(data.get(i));
+            }
         }
         outtbl.close();
         in.close();
+        Histogram[] histograms = new Histogram[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+            histograms[i] = columns[i].getHistogram(Histogram.NUMBUCKETS);
+        }
+        Histogram.writeTable(tblname, schema, histograms);
     }
 
 }
@@ -0,0 +1,110 @@
+/**
+ * Compares the iterator (pull) engine with the push engine. Each query is
+ * optimized once, then the same plan is run alternately on both engines and
+ * the median execution time of each is reported.
+ *
+ * usage: java EngineBenchmark <pagesize> <numbuffer> <repeats> <queryfile> [<queryfile> ...]
+ *
+ * The results are discarded. The -Dqp.* options of QueryMain apply, except qp.engine
+ **/
+
+import qp.operators.MorselDispatcher;
+import qp.operators.Operator;
+import qp.operators.Pipeline;
+import qp.optimizer.BufferManager;
+import qp.optimizer.RandomOptimizer;
+import qp.utils.Batch;
+import qp.utils.BatchPool;
+import qp.utils.QueryContext;
+import qp.utils.SQLQuery;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+public class EngineBenchmark {
+
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.out.println("usage: java EngineBenchmark <pagesize> <numbuffer> <repeats> <queryfile> [<queryfile> ...]");
+            System.exit(1);
+        }
+        Batch.setPageSize(Integer.parseInt(args[0]));
+        Batch.setExecBatchSize(QueryMain.getExecBatchSize());
+        MorselDispatcher.setMorselPages(QueryMain.getMorselPages());
+        Pipeline.setCodegen(QueryMain.isCodegen());
+        QueryMain.configureOptimizer();
+        int numBuff = Integer.parseInt(args[1]);
+        int repeats = Integer.parseInt(args[2]);
+        if (repeats < 1) {
+            System.out.println("repeats must be at least 1");
+            System.exit(1);
+        }
+
+        PrintStream report = System.out;
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        report.printf("%-16s %10s %10s %8s %8s\n", "query", "pull ms", "push ms", "speedup", "tuples");
+        double totalPull = 0;
+        double totalPush = 0;
+        for (String queryfile : Arrays.copyOfRange(args, 3, args.length)) {
+            /** the optimizer reports its progress on System.out **/
+            System.setOut(quiet);
+            SQLQuery sqlquery = QueryMain.getSQLQuery(queryfile);
+            BufferManager bufferManager = QueryMain.newBufferManager(numBuff, QueryMain.getNumJoinAndSort(sqlquery));
+            Operator plan = QueryMain.optimize(sqlquery, bufferManager);
+
+            double[] pull = new double[repeats];
+            double[] push = new double[repeats];
+            long pullTuples = 0;
+            long pushTuples = 0;
+            for (int r = 0; r < repeats; ++r) {
+                long start = System.nanoTime();
+                pullTuples = run(plan, false);
+                pull[r] = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                pushTuples = run(plan, true);
+                push[r] = (System.nanoTime() - start) / 1e6;
+            }
+            System.setOut(report);
+            if (pullTuples != pushTuples) {
+                System.out.println(queryfile + ": the engines returned " + pullTuples + " and " + pushTuples + " tuples");
+                System.exit(1);
+            }
+            double pullTime = median(pull);
+            double pushTime = median(push);
+            totalPull += pullTime;
+            totalPush += pushTime;
+            System.out.printf("%-16s %10.1f %10.1f %7.2fx %8d\n", new File(queryfile).getName(),
+                    pullTime, pushTime, pullTime / pushTime, pullTuples);
+        }
+        System.out.printf("%-16s %10.1f %10.1f %7.2fx\n", "total", totalPull, totalPush, totalPull / totalPush);
+    }
+
+    /**
+     * Runs a fresh execution plan of the optimized plan, returns the number of result tuples
+     **/
+    static long run(Operator plan, boolean push) {
+        int dop = QueryMain.getDegreeOfParallelism();
+        Operator root = RandomOptimizer.makeExecPlan((Operator) plan.clone(), dop);
+        if (dop == 1 && QueryMain.getAdaptiveFactor() > 0) {
+            root = RandomOptimizer.adapt(root, QueryMain.getAdaptiveFactor());
+        }
+        if (dop == 1 && QueryMain.isRuntimeFilters()) {
+            root = RandomOptimizer.addRuntimeFilters(root);
+        }
+        if (QueryMain.isAsync()) {
+            root = RandomOptimizer.prefetch(root);
+        }
+        PrintWriter out = new PrintWriter(Writer.nullWriter());
+        return QueryMain.runQuery(root, new QueryContext(new BatchPool()), out, push);
+    }
+
+    static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Load benchmark: runs many queries at the same time, each on a thread of
+ * its own, and reports throughput and latency. The threads are virtual
+ * threads where the JVM has them (see qp.utils.Workers).
+ *
+ * usage: java LoadBenchmark <numqueries> <concurrency> <pagesize> <numbuffer> <queryfile> [<queryfile> ...]
+ *
+ * numqueries queries are run in total, taking the query files in turn, with
+ * concurrency of them in flight at any time. The results are discarded.
+ * The -Dqp.* options of QueryMain apply to every query
+ **/
+
+import qp.operators.MorselDispatcher;
+import qp.operators.Operator;
+import qp.operators.Pipeline;
+import qp.optimizer.BufferManager;
+import qp.utils.Batch;
+import qp.utils.BatchPool;
+import qp.utils.QueryContext;
+import qp.utils.SQLQuery;
+import qp.utils.Workers;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoadBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 5) {
+            System.out.println("usage: java LoadBenchmark <numqueries> <concurrency> <pagesize> <numbuffer> <queryfile> [<queryfile> ...]");
+            System.exit(1);
+        }
+        int numQueries = Integer.parseInt(args[0]);
+        int concurrency = Integer.parseInt(args[1]);
+        int numBuff = Integer.parseInt(args[3]);
+        String[] queryfiles = Arrays.copyOfRange(args, 4, args.length);
+        if (numQueries < 1 || concurrency < 1) {
+            System.out.println("numqueries and concurrency must be at least 1");
+            System.exit(1);
+        }
+        Batch.setPageSize(Integer.parseInt(args[2]));
+        Batch.setExecBatchSize(QueryMain.getExecBatchSize());
+        MorselDispatcher.setMorselPages(QueryMain.getMorselPages());
+        Pipeline.setCodegen(QueryMain.isCodegen());
+        QueryMain.configureOptimizer();
+
+        /** the optimizer reports its progress on System.out, which would drown the results **/
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        long[] latencies = new long[numQueries];
+        long[] numTuples = new long[numQueries];
+        AtomicInteger nextQuery = new AtomicInteger();
+        ArrayList<Thread> threads = new ArrayList<>(concurrency);
+        long starttime = System.nanoTime();
+        for (int t = 0; t < concurrency; ++t) {
+            threads.add(Workers.start("query-" + t, () -> {
+                int q;
+                while ((q = nextQuery.getAndIncrement()) < numQueries) {
+                    long start = System.nanoTime();
+                    numTuples[q] = runQuery(queryfiles[q % queryfiles.length], numBuff);
+                    latencies[q] = System.nanoTime() - start;
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - starttime) / 1e9;
+        System.setOut(report);
+
+        long totalTuples = 0;
+        for (long n : numTuples) {
+            totalTuples += n;
+        }
+        Arrays.sort(latencies);
+        System.out.println("Threads = " + (Workers.isVirtual() ? "virtual" : "platform"));
+        System.out.printf("Queries = %d, concurrency = %d, result tuples = %d\n", numQueries, concurrency, totalTuples);
+        System.out.printf("Elapsed time = %.3f s, throughput = %.1f queries/s\n", elapsed, numQueries / elapsed);
+        System.out.printf("Latency ms: mean = %.1f, p50 = %.1f, p95 = %.1f, p99 = %.1f, max = %.1f\n",
+                mean(latencies) / 1e6, percentile(latencies, 50) / 1e6, percentile(latencies, 95) / 1e6,
+                percentile(latencies, 99) / 1e6, latencies[numQueries - 1] / 1e6);
+    }
+
+    /**
+     * Parses, optimizes and runs one query with its own buffer manager and
+     * * query context. Returns the number of result tuples
+     **/
+    static long runQuery(String queryfile, int numBuff) {
+        SQLQuery sqlquery = QueryMain.getSQLQuery(queryfile);
+        BufferManager bufferManager = QueryMain.newBufferManager(numBuff, QueryMain.getNumJoinAndSort(sqlquery));
+        QueryContext context = new QueryContext(new BatchPool());
+        Operator root = QueryMain.getQueryPlan(sqlquery, bufferManager, context);
+        PrintWriter out = new PrintWriter(Writer.nullWriter());
+        long numTuples = QueryMain.runQuery(root, context, out, QueryMain.isPushEngine());
+        context.close();
+        return numTuples;
+    }
+
+    static double mean(long[] values) {
+        double sum = 0;
+        for (long v : values) {
+            sum += v;
+        }
+        return sum / values.length;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values
+     **/
+    static long percentile(long[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
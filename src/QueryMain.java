@@ -3,21 +3,27 @@
  **/
 
 import qp.operators.Debug;
+import qp.operators.MorselDispatcher;
 import qp.operators.Operator;
+import qp.operators.Pipeline;
 import qp.optimizer.BufferManager;
+import qp.optimizer.CardinalityFeedback;
+import qp.optimizer.CostWeights;
+import qp.optimizer.DPOptimizer;
 import qp.optimizer.PlanCost;
 import qp.optimizer.RandomOptimizer;
+import qp.optimizer.Reoptimizer;
+import qp.optimizer.SampleEstimator;
+import qp.optimizer.TwoPhaseOptimizer;
 import qp.parser.Scaner;
 import qp.parser.parser;
 import qp.utils.*;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 
 public class QueryMain {
 
-    static PrintWriter out;
-    static int numAtts;
-
     public static void main(String[] args) {
         if (args.length < 2) {
             System.out.println("usage: java QueryMain <queryfilename> <resultfile> <pagesize> <numbuffer>");
@@ -26,17 +32,278 @@ public class QueryMain {
 
         BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
         Batch.setPageSize(getPageSize(args, in));
+        Batch.setExecBatchSize(getExecBatchSize());
+        MorselDispatcher.setMorselPages(getMorselPages());
+        Pipeline.setCodegen(isCodegen());
+        configureOptimizer();
 
         SQLQuery sqlquery = getSQLQuery(args[0]);
-        // 1 sort required for each of ORDERBY, GROUPBY and DISTINCT clauses
-        int numSort = (sqlquery.getOrderByList().isEmpty() ? 0 : 1) 
-                    + (sqlquery.isDistinct() ? 1 : 0)
-                    + (sqlquery.getGroupByList().isEmpty() ? 0 : 1);
-        configureBufferManager(sqlquery.getNumJoin(), numSort, args, in);
+        BufferManager bufferManager = configureBufferManager(getNumJoinAndSort(sqlquery), args, in);
 
-        Operator root = getQueryPlan(sqlquery);
+        QueryContext context = new QueryContext(new BatchPool());
+        Operator root = getQueryPlan(sqlquery, bufferManager, context);
         printFinalPlan(root, args, in);
-        executeQuery(root, args[1]);
+        CardinalityFeedback feedback = getFeedback();
+        if (feedback != null) {
+            root = feedback.instrument(root);
+        }
+        executeQuery(root, args[1], context);
+        if (feedback != null) {
+            feedback.record();
+        }
+        context.close();
+    }
+
+    /**
+     * Number of tuples per batch passed between operators, set with -Dqp.batchsize
+     **/
+    static int getExecBatchSize() {
+        int batchsize = Integer.getInteger("qp.batchsize", Batch.getExecBatchSize());
+        if (batchsize < 1) {
+            System.err.println("qp.batchsize must be at least 1");
+            System.exit(1);
+        }
+        return batchsize;
+    }
+
+    /**
+     * Number of copies each fragment of the plan runs in, set with -Dqp.dop
+     **/
+    static int getDegreeOfParallelism() {
+        int dop = Integer.getInteger("qp.dop", 1);
+        if (dop < 1) {
+            System.err.println("qp.dop must be at least 1");
+            System.exit(1);
+        }
+        return dop;
+    }
+
+    /**
+     * Number of table pages handed out at a time to the copies of a parallel scan, set with -Dqp.morselpages
+     **/
+    static int getMorselPages() {
+        int pages = Integer.getInteger("qp.morselpages", MorselDispatcher.getMorselPages());
+        if (pages < 1) {
+            System.err.println("qp.morselpages must be at least 1");
+            System.exit(1);
+        }
+        return pages;
+    }
+
+    /**
+     * Whether the inputs of joins, sorts and distincts are prefetched on threads of their own, set with -Dqp.async
+     **/
+    static boolean isAsync() {
+        return Boolean.getBoolean("qp.async");
+    }
+
+    /**
+     * Whether queries run on the push engine, set with -Dqp.engine=push (the default is pull)
+     **/
+    static boolean isPushEngine() {
+        String engine = System.getProperty("qp.engine", "pull");
+        if (!engine.equals("pull") && !engine.equals("push")) {
+            System.err.println("qp.engine must be pull or push");
+            System.exit(1);
+        }
+        return engine.equals("push");
+    }
+
+    /**
+     * Whether the pipelines of the push engine run as generated code, set with -Dqp.codegen
+     **/
+    static boolean isCodegen() {
+        return Boolean.getBoolean("qp.codegen");
+    }
+
+    /**
+     * Factor by which the size of the right input of a join may differ from the
+     * * estimate before the join chooses its method again, set with -Dqp.adaptive.
+     * * 0, the default, runs the joins with the methods the optimizer chose
+     **/
+    static int getAdaptiveFactor() {
+        int factor = Integer.getInteger("qp.adaptive", 0);
+        if (factor < 0) {
+            System.err.println("qp.adaptive must not be negative");
+            System.exit(1);
+        }
+        return factor;
+    }
+
+    /**
+     * Factor by which the size of an intermediate result may differ from the
+     * * estimate before the rest of the query is optimized again, set with
+     * * -Dqp.reoptimize. 0, the default, runs the plan as first optimized
+     **/
+    static int getReoptimizeFactor() {
+        int factor = Integer.getInteger("qp.reoptimize", 0);
+        if (factor < 0) {
+            System.err.println("qp.reoptimize must not be negative");
+            System.exit(1);
+        }
+        return factor;
+    }
+
+    /**
+     * Counts the tuples of the selects and joins of the query for the store
+     * * set with -Dqp.feedback, null if there is none. Runtime filters drop
+     * * tuples below their joins and re-optimization reads temporary tables,
+     * * so neither run is recorded
+     **/
+    static CardinalityFeedback getFeedback() {
+        if (!CardinalityFeedback.isEnabled()) {
+            return null;
+        }
+        if (isRuntimeFilters() || getReoptimizeFactor() > 0) {
+            System.out.println("CardinalityFeedback: runs with runtime filters or re-optimization are not recorded");
+            return null;
+        }
+        return new CardinalityFeedback();
+    }
+
+    /**
+     * Whether joins filter the scans of their left input with Bloom filters
+     * * built from their right input, set with -Dqp.runtimefilters
+     **/
+    static boolean isRuntimeFilters() {
+        return Boolean.getBoolean("qp.runtimefilters");
+    }
+
+    /**
+     * Join optimizer, random (the default), 2po or dp, set with -Dqp.optimizer
+     **/
+    static String getOptimizerName() {
+        String optimizer = System.getProperty("qp.optimizer", "random");
+        if (!optimizer.equals("random") && !optimizer.equals("2po") && !optimizer.equals("dp")) {
+            System.err.println("qp.optimizer must be random, 2po or dp");
+            System.exit(1);
+        }
+        return optimizer;
+    }
+
+    /**
+     * Most tables the dynamic programming optimizer plans, set with -Dqp.dptables.
+     * * Queries over more tables are optimized by the RandomOptimizer
+     **/
+    static int getDPTables() {
+        int tables = Integer.getInteger("qp.dptables", 10);
+        if (tables < 1) {
+            System.err.println("qp.dptables must be at least 1");
+            System.exit(1);
+        }
+        return tables;
+    }
+
+    /**
+     * Number of threads running the restarts of the RandomOptimizer, set with
+     * * -Dqp.optthreads. The default is the number of processors
+     **/
+    static int getOptimizerThreads() {
+        int threads = Integer.getInteger("qp.optthreads", Runtime.getRuntime().availableProcessors());
+        if (threads < 1) {
+            System.err.println("qp.optthreads must be at least 1");
+            System.exit(1);
+        }
+        return threads;
+    }
+
+    /**
+     * Milliseconds after which the RandomOptimizer begins no more restarts, set
+     * * with -Dqp.optbudget. 0, the default, runs them all
+     **/
+    static long getOptimizerBudget() {
+        long millis = Long.getLong("qp.optbudget", 0);
+        if (millis < 0) {
+            System.err.println("qp.optbudget must not be negative");
+            System.exit(1);
+        }
+        return millis;
+    }
+
+    /**
+     * Configures the RandomOptimizer: its threads, its budget, the seed of its
+     * * restarts, set with -Dqp.optseed to get the same plan every run, and
+     * * whether it prints every plan it considers, set with -Dqp.optverbose.
+     * * With -Dqp.sampling the plans are costed with tuple counts estimated
+     * * on the samples of the tables written by Analyze. With -Dqp.feedback
+     * * set to a file, with the selectivities earlier runs observed. With
+     * * -Dqp.costweights set to a file written by Calibrate, with the CPU
+     * * work of the plans added to their I/O
+     **/
+    static void configureOptimizer() {
+        RandomOptimizer.setParallelism(getOptimizerThreads());
+        RandomOptimizer.setTimeBudget(getOptimizerBudget());
+        RandomOptimizer.setSeed(Long.getLong("qp.optseed"));
+        RandomOptimizer.setVerbose(Boolean.getBoolean("qp.optverbose"));
+        SampleEstimator.setEnabled(Boolean.getBoolean("qp.sampling"));
+        CardinalityFeedback.setFile(System.getProperty("qp.feedback"));
+        if (System.getProperty("qp.costweights") != null) {
+            PlanCost.setWeights(CostWeights.read(System.getProperty("qp.costweights")));
+        }
+        TwoPhaseOptimizer.setSchedule(getAnnealingTemperature(), getAnnealingCooling(), getAnnealingEquilibrium());
+    }
+
+    /**
+     * Starting temperature of the annealing of the 2po optimizer, as a fraction
+     * * of the cost of the plan it starts from, set with -Dqp.satemp
+     **/
+    static double getAnnealingTemperature() {
+        double temperature = getDouble("qp.satemp", 0.1);
+        if (temperature <= 0) {
+            System.err.println("qp.satemp must be positive");
+            System.exit(1);
+        }
+        return temperature;
+    }
+
+    /**
+     * Factor by which the temperature of the annealing falls after each stage, set with -Dqp.sacooling
+     **/
+    static double getAnnealingCooling() {
+        double cooling = getDouble("qp.sacooling", 0.95);
+        if (cooling <= 0 || cooling >= 1) {
+            System.err.println("qp.sacooling must be between 0 and 1");
+            System.exit(1);
+        }
+        return cooling;
+    }
+
+    /**
+     * Moves per stage of the annealing, per join of the query, set with -Dqp.saequilibrium
+     **/
+    static int getAnnealingEquilibrium() {
+        int moves = Integer.getInteger("qp.saequilibrium", 16);
+        if (moves < 1) {
+            System.err.println("qp.saequilibrium must be at least 1");
+            System.exit(1);
+        }
+        return moves;
+    }
+
+    private static double getDouble(String property, double def) {
+        String value = System.getProperty(property);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.err.println(property + " must be a number");
+            System.exit(1);
+            return def;
+        }
+    }
+
+    /**
+     * Optimizes the query with the optimizer chosen by -Dqp.optimizer
+     **/
+    static Operator optimize(SQLQuery sqlquery, BufferManager bufferManager) {
+        if (getOptimizerName().equals("dp")) {
+            return new DPOptimizer(sqlquery, bufferManager, getDPTables()).getOptimizedPlan();
+        } else if (getOptimizerName().equals("2po")) {
+            return new TwoPhaseOptimizer(sqlquery, bufferManager).getOptimizedPlan();
+        }
+        return new RandomOptimizer(sqlquery, bufferManager).getOptimizedPlan();
     }
 
     /**
@@ -86,14 +353,24 @@ public class QueryMain {
         return p.getSQLQuery();
     }
 
+    /**
+     * Number of operators the buffers are divided among: the joins, plus
+     * * 1 sort for each of ORDERBY, GROUPBY and DISTINCT clauses
+     **/
+    static int getNumJoinAndSort(SQLQuery sqlquery) {
+        int numSort = (sqlquery.getOrderByList().isEmpty() ? 0 : 1)
+                    + (sqlquery.isDistinct() ? 1 : 0)
+                    + (sqlquery.getGroupByList().isEmpty() ? 0 : 1);
+        return sqlquery.getNumJoin() + numSort;
+    }
+
     /**
      * If there are joins then assigns buffers to each join operator while preparing the plan.
      * As buffer manager is not implemented, just input the number of buffers available.
      **/
-    private static void configureBufferManager(int numJoin, int numSort, String[] args, BufferedReader in) {
-        int splitBuff = numJoin + numSort;
+    private static BufferManager configureBufferManager(int splitBuff, String[] args, BufferedReader in) {
+        int numBuff = 1000;
         if (splitBuff != 0) {
-            int numBuff = 1000;
             if (args.length < 4) {
                 System.out.println("enter the number of buffers available");
                 try {
@@ -103,32 +380,55 @@ public class QueryMain {
                     e.printStackTrace();
                 }
             } else numBuff = Integer.parseInt(args[3]);
-            BufferManager bm = new BufferManager(numBuff, splitBuff);
         }
+        return newBufferManager(numBuff, splitBuff);
+    }
+
+    /**
+     * Buffer manager of one query, exits if the buffers are not enough
+     **/
+    static BufferManager newBufferManager(int numBuff, int splitBuff) {
+        BufferManager bm = new BufferManager(numBuff, splitBuff);
 
         /** Check the number of buffers available is enough or not **/
-        int numBuff = BufferManager.getBuffersPerJoinAndSort();
-        if (splitBuff > 0 && numBuff < 3) {
+        if (splitBuff > 0 && bm.getBuffersPerJoinAndSort() < 3) {
             System.out.println("Minimum 3 buffers are required per join/sort operation ");
             System.exit(1);
         }
+        return bm;
     }
 
     /**
-     * Run optimiser and get the final query plan as an Operator
+     * Run optimiser and get the final query plan as an Operator. With
+     * * re-optimization, the stages run before the plan is returned, in the given context
      **/
-    public static Operator getQueryPlan(SQLQuery sqlquery) {
+    public static Operator getQueryPlan(SQLQuery sqlquery, BufferManager bufferManager, QueryContext context) {
         Operator root = null;
 
-        RandomOptimizer optimizer = new RandomOptimizer(sqlquery);
-        Operator planroot = optimizer.getOptimizedPlan();
+        Operator planroot;
+        if (getReoptimizeFactor() > 0) {
+            planroot = new Reoptimizer(sqlquery, bufferManager, getReoptimizeFactor(), context,
+                    query -> optimize(query, bufferManager)).getOptimizedPlan();
+        } else {
+            planroot = optimize(sqlquery, bufferManager);
+        }
 
         if (planroot == null) {
             System.out.println("DPOptimizer: query plan is null");
             System.exit(1);
         }
 
-        root = RandomOptimizer.makeExecPlan(planroot);
+        int dop = getDegreeOfParallelism();
+        root = RandomOptimizer.makeExecPlan(planroot, dop);
+        if (dop == 1 && getAdaptiveFactor() > 0) {
+            root = RandomOptimizer.adapt(root, getAdaptiveFactor());
+        }
+        if (dop == 1 && isRuntimeFilters()) {
+            root = RandomOptimizer.addRuntimeFilters(root);
+        }
+        if (isAsync()) {
+            root = RandomOptimizer.prefetch(root);
+        }
 
         return root;
     }
@@ -141,6 +441,9 @@ public class QueryMain {
         Debug.PPrint(root);
         PlanCost pc = new PlanCost();
         System.out.printf("\nExpected cost: %d\n", pc.getCost(root));
+        if (pc.getCPUCost() > 0) {
+            System.out.printf("of which CPU: %d\n", pc.getCPUCost());
+        }
         if (args.length < 5) {
             /** Ask user whether to continue execution of the program **/
             System.out.println("enter 1 to continue, 0 to abort ");
@@ -159,43 +462,101 @@ public class QueryMain {
     /**
      * Execute query and print run statistics
      **/
-    public static double executeQuery(Operator root, String resultfile) {
+    public static double executeQuery(Operator root, String resultfile, QueryContext context) {
+        BatchPool pool = context.getBatchPool();
+        long startbytes = getAllocatedBytes();
         long starttime = System.currentTimeMillis();
-        if (root.open() == false) {
-            System.out.println("Root: Error in opening of root");
-            System.exit(1);
-        }
+        PrintWriter out = null;
         try {
             out = new PrintWriter(new BufferedWriter(new FileWriter(resultfile)));
         } catch (IOException io) {
             System.out.println("QueryMain:error in opening result file: " + resultfile);
             System.exit(1);
         }
+        runQuery(root, context, out, isPushEngine());
+        out.close();
 
+        long endtime = System.currentTimeMillis();
+        long allocatedbytes = getAllocatedBytes() - startbytes;
+        double executiontime = (endtime - starttime) / 1000.0;
+        System.out.println("Execution time = " + executiontime);
+        printAllocationStats(pool, allocatedbytes, executiontime);
+        return executiontime;
+    }
+
+    /**
+     * Runs the plan in the given query context and prints the result to out,
+     * * on the push engine if push is set. Returns the number of result tuples
+     **/
+    static long runQuery(Operator root, QueryContext context, PrintWriter out, boolean push) {
         /** Print the schema of the result **/
         Schema schema = root.getSchema();
-        numAtts = schema.getNumCols();
-        printSchema(schema);
+        int numAtts = schema.getNumCols();
+        printSchema(out, schema);
+
+        if (push) {
+            root = Pipeline.compile(root);
+            root.setContext(context);
+            long[] numTuples = new long[1];
+            boolean opened = root.pushTo(tuple -> {
+                printTuple(out, tuple, numAtts);
+                numTuples[0]++;
+            });
+            if (!opened) {
+                System.out.println("Root: Error in opening of root");
+                System.exit(1);
+            }
+            return numTuples[0];
+        }
+
+        root.setContext(context);
+        if (root.open() == false) {
+            System.out.println("Root: Error in opening of root");
+            System.exit(1);
+        }
 
         /** Print each tuple in the result **/
+        long numTuples = 0;
         Batch resultbatch;
         while ((resultbatch = root.next()) != null) {
             for (int i = 0; i < resultbatch.size(); ++i) {
-                printTuple(resultbatch.get(i));
+                printTuple(out, resultbatch.get(i), numAtts);
             }
+            numTuples += resultbatch.size();
+            root.release(resultbatch);
         }
         root.close();
-        out.close();
+        return numTuples;
+    }
 
-        long endtime = System.currentTimeMillis();
-        double executiontime = (endtime - starttime) / 1000.0;
-        System.out.println("Execution time = " + executiontime);
-        return executiontime;
+    /**
+     * Bytes allocated so far by the executing thread, or -1 if the JVM cannot tell
+     **/
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Print how many pages were served from the batch pool and the allocation rate of the query
+     **/
+    private static void printAllocationStats(BatchPool pool, long allocatedbytes, double executiontime) {
+        long acquired = pool.getNumAcquired();
+        long allocated = pool.getNumAllocated();
+        double reuse = acquired == 0 ? 0 : 100.0 * (acquired - allocated) / acquired;
+        System.out.printf("Batches acquired = %d, newly allocated = %d (%.1f%% reused)\n", acquired, allocated, reuse);
+        if (allocatedbytes >= 0) {
+            double rate = executiontime > 0 ? allocatedbytes / executiontime / (1024 * 1024) : 0;
+            System.out.printf("Bytes allocated = %d (%.1f MB/s)\n", allocatedbytes, rate);
+        }
     }
 
-    protected static void printSchema(Schema schema) {
+    protected static void printSchema(PrintWriter out, Schema schema) {
         String[] aggregates = new String[]{"", "MAX", "MIN", "SUM", "COUNT", "AVG"};
-        for (int i = 0; i < numAtts; ++i) {
+        for (int i = 0; i < schema.getNumCols(); ++i) {
             Attribute attr = schema.getAttribute(i);
             int aggregate = attr.getAggType();
             String tabname = attr.getTabName();
@@ -209,7 +570,7 @@ public class QueryMain {
         out.println();
     }
 
-    protected static void printTuple(Tuple t) {
+    protected static void printTuple(PrintWriter out, Tuple t, int numAtts) {
         for (int i = 0; i < numAtts; ++i) {
             Object data = t.dataAt(i);
             if (data instanceof Integer) {
@@ -219,7 +580,7 @@ public class QueryMain {
             } else if (data == null) {
                 out.print("-NULL-\t");
             } else {
-                out.print(((String) data) + "\t");
+                out.print(data + "\t");  // String or DictString
             }
         }
         out.println();
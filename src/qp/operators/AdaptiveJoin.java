@@ -0,0 +1,252 @@
+/**
+ * Adaptive join: picks its join method again once the size of its right
+ * (build) input is known.
+ *
+ * The optimizer chooses the method from estimated cardinalities, which can
+ * be far off. This join first materializes the right input into a file,
+ * counting its tuples. If the count differs from the estimate by more than
+ * the given factor, the method is chosen again with the cost formulas of
+ * PlanCost, using the observed size of the right input and the estimated
+ * size of the left input. The join then runs with that method before any
+ * of the left input has been read. The decision is logged on System.out.
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
+
+import java.io.File;
+import java.util.ArrayList;
+
+public class AdaptiveJoin extends Join {
+
+    long leftEstimate;   // Number of left tuples estimated by the optimizer
+    long rightEstimate;  // Number of right tuples estimated by the optimizer
+    int factor;          // How far off the estimate has to be to reconsider the method
+
+    String rfname;       // File the right input is materialized in
+    int method;          // Join method chosen at open
+    Join delegate;       // Join running with that method
+
+    public AdaptiveJoin(Join jn, long leftEstimate, long rightEstimate, int factor) {
+        super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+        this.leftEstimate = leftEstimate;
+        this.rightEstimate = rightEstimate;
+        this.factor = factor;
+    }
+
+    /**
+     * Join method the join runs with, known once it is open
+     **/
+    public int getMethod() {
+        return method;
+    }
+
+    /**
+     * Materializes the right input, chooses the method and opens the join that uses it
+     **/
+    public boolean open() {
+        rfname = newTempFileName("AJtemp");
+        TupleWriter out = new TupleWriter(rfname, Batch.getPageCapacity(right.getSchema().getTupleSize()));
+        if (!out.open()) {
+            System.out.println("AdaptiveJoin: Error writing to temporary file");
+            return false;
+        }
+        boolean materialized = right.pushTo(buildingFilters(out::next));
+        out.close();
+        if (!materialized) {
+            return false;
+        }
+        publishFilters();
+
+        long observed = out.getNumTuple();
+        method = jointype;
+        if (observed > rightEstimate * factor || observed * factor < rightEstimate) {
+            method = chooseMethod(observed);
+            System.out.println("AdaptiveJoin [" + describeConditions() + "]: estimated " + rightEstimate
+                    + " right tuples, observed " + observed + "; "
+                    + (method == jointype ? "keeping " + name(method)
+                    : "switching from " + name(jointype) + " to " + name(method)));
+        }
+
+        delegate = newJoin(method, new Materialized(rfname, right.getSchema()));
+        delegate.setContext(getContext());
+        return delegate.open();
+    }
+
+    /**
+     * Cheapest method for the observed number of right tuples
+     **/
+    int chooseMethod(long righttuples) {
+        long leftpages = pages(leftEstimate, left);
+        long rightpages = pages(righttuples, right);
+        long best = Long.MAX_VALUE;
+        int bestMethod = jointype;
+        for (int type = 0; type < JoinType.numJoinTypes(); ++type) {
+            long cost;
+            switch (type) {
+                case JoinType.NESTEDJOIN:
+                    cost = leftpages + leftpages * rightpages;
+                    break;
+                case JoinType.BLOCKNESTED:
+                    long blocksize = Math.max(1, numBuff - 2);
+                    cost = leftpages + (long) Math.ceil((double) leftpages / blocksize) * rightpages;
+                    break;
+                case JoinType.SORTMERGE:
+                    cost = sortCost(leftpages) + sortCost(rightpages) + leftpages + rightpages;
+                    break;
+                case JoinType.HASHJOIN:
+                    // the right input has to fit in memory next to the probe and output buffers
+                    cost = rightpages > numBuff - 2 ? Long.MAX_VALUE : leftpages + rightpages;
+                    break;
+                default:
+                    cost = Long.MAX_VALUE;
+            }
+            if (cost < best || (cost == best && type == jointype)) {
+                best = cost;
+                bestMethod = type;
+            }
+        }
+        return bestMethod;
+    }
+
+    private static long pages(long tuples, Operator input) {
+        return (long) Math.ceil((double) tuples / Batch.getPageCapacity(input.getSchema().getTupleSize()));
+    }
+
+    /**
+     * Cost of an external sort: each pass reads and writes every page
+     **/
+    private long sortCost(long numpages) {
+        if (numpages == 0) {
+            return 0;
+        }
+        long numruns = (long) Math.ceil((double) numpages / numBuff);
+        long numpasses = 1 + (long) Math.ceil(Math.log(numruns) / Math.log(Math.max(2, numBuff - 1)));
+        return 2 * numpages * numpasses;
+    }
+
+    /**
+     * Join of the left input with the materialized right input, using the given method
+     **/
+    private Join newJoin(int type, Operator materialized) {
+        Join jn = new Join(left, materialized, conditionList, OpType.JOIN);
+        jn.setSchema(schema);
+        jn.setJoinType(type);
+        jn.setNumBuff(numBuff);
+        switch (type) {
+            case JoinType.NESTEDJOIN:
+                return new NestedJoin(jn);
+            case JoinType.BLOCKNESTED:
+                return new BlockNestedJoin(jn);
+            case JoinType.SORTMERGE:
+                ArrayList<Attribute> leftattrs = new ArrayList<>();
+                ArrayList<Attribute> rightattrs = new ArrayList<>();
+                for (Condition con : conditionList) {
+                    leftattrs.add(con.getLhs());
+                    rightattrs.add((Attribute) con.getRhs());
+                }
+                SortMergeJoin smj = new SortMergeJoin(jn);
+                smj.setLeft(new Sort(left, leftattrs, false, OpType.SORT, numBuff));
+                smj.setRight(new Sort(materialized, rightattrs, false, OpType.SORT, numBuff));
+                return smj;
+            default:
+                return new HashJoin(jn);
+        }
+    }
+
+    private String describeConditions() {
+        StringBuilder s = new StringBuilder();
+        for (Condition con : conditionList) {
+            if (s.length() > 0) {
+                s.append(", ");
+            }
+            s.append(con.getLhs()).append("==").append(con.getRhs());
+        }
+        return s.toString();
+    }
+
+    static String name(int type) {
+        switch (type) {
+            case JoinType.NESTEDJOIN:
+                return "NestedJoin";
+            case JoinType.BLOCKNESTED:
+                return "BlockNested";
+            case JoinType.SORTMERGE:
+                return "SortMerge";
+            default:
+                return "HashJoin";
+        }
+    }
+
+    public Batch next() {
+        return delegate.next();
+    }
+
+    /**
+     * The method, and with it the order, is only known once the join is open
+     **/
+    public ArrayList<Attribute> getOutputOrder() {
+        return new ArrayList<>();
+    }
+
+    /**
+     * Closes the join, which closes the left input, and removes the materialized right input
+     **/
+    public boolean close() {
+        if (delegate != null) {
+            delegate.close();
+        }
+        if (rfname != null) {
+            File f = new File(rfname);
+            f.delete();
+        }
+        return true;
+    }
+
+    /**
+     * Reads back the materialized right input, as often as the join opens it
+     **/
+    static class Materialized extends Operator {
+
+        String filename;
+        TupleReader in;
+
+        Materialized(String filename, Schema schema) {
+            super(OpType.SCAN);
+            this.filename = filename;
+            setSchema(schema);
+        }
+
+        public boolean open() {
+            in = new TupleReader(filename, Batch.getExecBatchSize());
+            return in.open();
+        }
+
+        public Batch next() {
+            Batch outbatch = newBatch(Batch.getExecBatchSize());
+            Tuple tuple;
+            while (!outbatch.isFull() && (tuple = in.next()) != null) {
+                outbatch.add(tuple);
+            }
+            if (outbatch.isEmpty()) {
+                release(outbatch);
+                return null;
+            }
+            return outbatch;
+        }
+
+        public boolean close() {
+            return in.close();
+        }
+    }
+}
@@ -4,24 +4,27 @@ import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
 import qp.utils.Tuple;
+import qp.utils.TupleArena;
+import qp.utils.TupleWriter;
 
 import java.io.*;
 import java.util.ArrayList;
 
 public class BlockNestedJoin extends Join {
 
-    static int filenum = 0; // To get unique filenum for this operation
     int batchsize; // Number of tuples per out batch
     ArrayList<Integer> leftindex; // Indices of the join attributes in left table
     ArrayList<Integer> rightindex; // Indices of the join attributes in right table
     String rfname; // The file name where the right table is materialized
     Batch outbatch; // Buffer page for output
-    ArrayList<Batch> leftbatch; // Buffer page for left input stream
+    TupleArena leftblock; // Off-heap buffer pages holding the current block of the left input
+    int blocksize; // Number of left tuples that fit in the block
+    Batch leftbatch; // Left input batch not yet fully copied into the block
+    int lbcurs; // Cursor for the left input batch
     Batch rightbatch; // Buffer page for right input stream
     ObjectInputStream in; // File pointer to the right hand materialized file
 
-    int lcurs; // Cursor for left side current buffer
-    int lbcurs; // Cursor for left side buffer
+    int lcurs; // Cursor for left side block
     int rcurs; // Cursor for right side buffer
     boolean eosl; // Whether end of stream (left table) is reached
     boolean eosr; // Whether end of stream (right table) is reached
@@ -39,8 +42,7 @@ public class BlockNestedJoin extends Join {
      **/
     public boolean open() {
         /** select number of tuples per batch **/
-        int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Batch.getExecBatchSize();
 
         /** find indices attributes of join conditions **/
         leftindex = new ArrayList<>();
@@ -51,10 +53,14 @@ public class BlockNestedJoin extends Join {
             leftindex.add(left.getSchema().indexOf(leftattr));
             rightindex.add(right.getSchema().indexOf(rightattr));
         }
-        Batch rightpage;
 
-        /** initialize the cursors of input buffers **/
+        /** the left block lives off-heap, in the numBuff - 2 pages the join may use for it **/
+        leftblock = new TupleArena(TupleArena.pagesToBytes(numBuff - 2, left.getSchema()));
+        blocksize = (numBuff - 2) * Batch.getPageCapacity(left.getSchema().getTupleSize());
+        leftbatch = null;
         lbcurs = 0;
+
+        /** initialize the cursors of input buffers **/
         lcurs = 0;
         rcurs = 0;
         eosl = false;
@@ -65,29 +71,21 @@ public class BlockNestedJoin extends Join {
         eosr = true;
 
         /**
-         * Right hand side table is to be materialized for the Nested join to perform
+         * Right hand side table is to be materialized for the Nested join to perform,
+         * its tuples are pushed straight into the file
          **/
-        if (!right.open()) {
+        rfname = newTempFileName("BNJtemp");
+        /** the file is written in pages, whatever the size of the batches coming from right **/
+        TupleWriter out = new TupleWriter(rfname, Batch.getPageCapacity(right.getSchema().getTupleSize()));
+        if (!out.open()) {
+            System.out.println("BlockNestedJoin: Error writing to temporary file");
+            return false;
+        }
+        boolean materialized = right.pushTo(buildingFilters(out::next));
+        out.close();
+        publishFilters();
+        if (!materialized) {
             return false;
-        } else {
-            /**
-             * If the right operator is not a base table then Materialize the intermediate
-             * result from right into a file
-             **/
-            filenum++;
-            rfname = "BNJtemp-" + String.valueOf(filenum);
-            try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
-                while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
-                }
-                out.close();
-            } catch (IOException io) {
-                System.out.println("BlockNestedJoin: Error writing to temporary file");
-                return false;
-            }
-            if (!right.close())
-                return false;
         }
         if (left.open())
             return true;
@@ -100,22 +98,12 @@ public class BlockNestedJoin extends Join {
             return null;
         }
 
-        outbatch = new Batch(batchsize);
+        outbatch = newBatch(batchsize);
         while (!outbatch.isFull()) {
             // scanning new left pages
-            if (lbcurs == 0 && lcurs == 0 && eosr == true) {
-                /** new left pages is to be fetched **/
-                leftbatch = new ArrayList<>(numBuff - 2);
-                for (int b = 0; b < numBuff - 2; b++) {
-                    Batch inbatch;
-                    if ((inbatch = left.next()) != null) {
-                        leftbatch.add(inbatch);
-                    } else {
-                        break;
-                    }
-                }
-
-                if (leftbatch.isEmpty()) {
+            if (lcurs == 0 && eosr == true) {
+                /** new left pages is to be fetched into the block **/
+                if (!fillLeftBlock()) {
                     eosl = true;
                     return outbatch;
                 }
@@ -136,48 +124,39 @@ public class BlockNestedJoin extends Join {
             while (eosr == false) {
                 try {
                     //read new right page
-                    if (rcurs == 0 && lcurs == 0 && lbcurs == 0) {
+                    if (rcurs == 0 && lcurs == 0) {
                         rightbatch = (Batch) in.readObject();
                     }
 
-                    for (int i = lbcurs; i < leftbatch.size(); i++) {
-                        for (int j = lcurs; j < leftbatch.get(i).size(); j++) {
-                            for (int k = rcurs; k < rightbatch.size(); k++) {
-                                Tuple lefttuple = leftbatch.get(i).get(j);
-                                Tuple righttuple = rightbatch.get(k);
-                                if (lefttuple.checkJoin(righttuple, leftindex, rightindex)) {
-                                    Tuple outtuple = lefttuple.joinWith(righttuple);
-                                    outbatch.add(outtuple);
-                                    if (outbatch.isFull()) {
-                                        if (i == leftbatch.size() - 1 && j == leftbatch.get(i).size() - 1
-                                                && k == rightbatch.size() - 1) {
-                                            lcurs= 0;
-                                            lbcurs = 0;
-                                            rcurs = 0;
-                                        } else if (i != leftbatch.size() - 1 && j == leftbatch.get(i).size() - 1
-                                                && k == rightbatch.size() - 1) {
-                                            lbcurs = i + 1;
-                                            lcurs = 0;
-                                            rcurs = 0;
-                                        } else if (j != leftbatch.get(i).size() - 1 && k == rightbatch.size() - 1) {
-                                            lbcurs = i;
-                                            lcurs = j + 1;
-                                            rcurs = 0;
-                                        } else {
-                                            lbcurs = i;
-                                            lcurs = j;
-                                            rcurs = k + 1;
-                                        }
-
-                                        return outbatch;
+                    for (int i = lcurs; i < leftblock.size(); i++) {
+                        Tuple lefttuple = null; // decoded from the block on its first match
+                        for (int k = rcurs; k < rightbatch.size(); k++) {
+                            Tuple righttuple = rightbatch.get(k);
+                            if (leftblock.checkJoin(i, righttuple, leftindex, rightindex)) {
+                                if (lefttuple == null) {
+                                    lefttuple = leftblock.get(i);
+                                }
+                                Tuple outtuple = lefttuple.joinWith(righttuple);
+                                outbatch.add(outtuple);
+                                if (outbatch.isFull()) {
+                                    if (i == leftblock.size() - 1 && k == rightbatch.size() - 1) {
+                                        lcurs = 0;
+                                        rcurs = 0;
+                                    } else if (k == rightbatch.size() - 1) {
+                                        lcurs = i + 1;
+                                        rcurs = 0;
+                                    } else {
+                                        lcurs = i;
+                                        rcurs = k + 1;
                                     }
+
+                                    return outbatch;
                                 }
                             }
-                            rcurs = 0;
                         }
-                        lcurs = 0;
+                        rcurs = 0;
                     }
-                    lbcurs = 0;
+                    lcurs = 0;
                 } catch (EOFException e) {
                     try {
                         in.close();
@@ -198,12 +177,49 @@ public class BlockNestedJoin extends Join {
         return outbatch;
     }
 
+    /**
+     * Reads up to numBuff - 2 pages worth of left tuples into the off-heap block,
+     * * fewer if their encoding fills its bytes first.
+     * * A left batch that does not fit entirely is kept for the next block, the
+     * * others are handed back as soon as their tuples are copied.
+     * * Returns false if the left input has no more tuples
+     **/
+    private boolean fillLeftBlock() {
+        leftblock.clear();
+        while (leftblock.size() < blocksize) {
+            if (leftbatch == null) {
+                leftbatch = left.next();
+                lbcurs = 0;
+                if (leftbatch == null) {
+                    break;
+                }
+            }
+            while (lbcurs < leftbatch.size() && leftblock.size() < blocksize) {
+                if (!leftblock.add(leftbatch.get(lbcurs))) {
+                    if (leftblock.isEmpty()) {
+                        System.err.println("BlockNestedJoin: a tuple does not fit in the buffers");
+                        System.exit(1);
+                    }
+                    return true;
+                }
+                lbcurs++;
+            }
+            if (lbcurs == leftbatch.size()) {
+                left.release(leftbatch);
+                leftbatch = null;
+            }
+        }
+        return !leftblock.isEmpty();
+    }
+
     /**
      * Close the operator
      */
     public boolean close() {
         File f = new File(rfname);
         f.delete();
+        left.close();  // the right input was closed once it was materialized
+        leftblock = null; // the off-heap memory is given back once the arena is collected
         return true;
     }
 
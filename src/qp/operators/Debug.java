@@ -82,6 +82,9 @@ public class Debug {
 
         if (optype == OpType.JOIN) {
             int exprtype = ((Join) node).getJoinType();
+            if (node instanceof AdaptiveJoin) {
+                System.out.print("Adaptive");
+            }
             switch (exprtype) {
                 case JoinType.NESTEDJOIN:
                     System.out.print("NestedJoin(");
@@ -111,7 +114,10 @@ public class Debug {
             System.out.print(")");
 
         } else if (optype == OpType.PROJECT) {
-            if (((Project) node).isDistinct()) {
+            if (((Project) node).isDistinct() && ((Project) node).isGroupedInput()) {
+                /** the input has the duplicates next to each other, no sort is needed **/
+                System.out.print("GroupedDistinct(");
+            } else if (((Project) node).isDistinct()) {
                 System.out.print("Distinct(");
             } else {
                 System.out.print("Project(");
@@ -124,12 +130,37 @@ public class Debug {
         } else if (optype == OpType.SCAN) {
             System.out.print(((Scan) node).getTabName());
         } else if (optype == OpType.SORT) {
-            System.out.print("Sort(");
+            /** a sort whose input already has the order passes it through **/
+            System.out.print(((Sort) node).isPresorted() ? "Presorted(" : "Sort(");
             PPrint(((Sort) node).getBase());
             System.out.print("  [");
             System.out.print(((Sort) node).getOrderByList());
             System.out.print("]  ");
             System.out.print(")");
+        } else if (optype == OpType.EXCHANGE) {
+            /** the producers are copies of the same fragment, only the first is printed **/
+            Exchange exchange = (Exchange) node;
+            int numProducers = exchange.getProducers().size();
+            switch (exchange.getExchangeType()) {
+                case Exchange.GATHER:
+                    System.out.print("Gather" + numProducers + "(");
+                    break;
+                case Exchange.REPARTITION:
+                    System.out.print("Repartition" + numProducers + "x" + exchange.getNumConsumers()
+                            + exchange.getKeys() + "(");
+                    break;
+                case Exchange.BROADCAST:
+                    System.out.print("Broadcast" + numProducers + "x" + exchange.getNumConsumers() + "(");
+                    break;
+                case Exchange.PREFETCH:
+                    System.out.print("Prefetch(");
+                    break;
+            }
+            PPrint(exchange.getProducers().get(0));
+            System.out.print(")");
+        } else if (optype == OpType.COUNT) {
+            /** a row counter changes nothing, only its base is printed **/
+            PPrint(((RowCounter) node).getBase());
         }
     }
 
@@ -138,14 +169,14 @@ public class Debug {
      * print a tuple
      **/
     public static void PPrint(Tuple t) {
-        for (int i = 0; i < t.data().size(); i++) {
+        for (int i = 0; i < t.getNumCols(); i++) {
             Object data = t.dataAt(i);
             if (data instanceof Integer) {
                 System.out.print((Integer) data + "\t");
             } else if (data instanceof Float) {
                 System.out.print((Float) data + "\t");
             } else {
-                System.out.print(((String) data) + "\t");
+                System.out.print(data + "\t");
             }
         }
         System.out.println();
@@ -0,0 +1,394 @@
+/**
+ * Exchange operator, the boundary between the parallel fragments of a plan.
+ * A set of producer sub-plans (copies of the same fragment, each over its own
+ * slice of the input) runs on worker threads, and their batches are moved
+ * through bounded queues to one or more consumers. Each consumer reads its
+ * queue through its own Exchange operator, so the operators above an exchange
+ * keep the usual open/next/close interface.
+ *
+ * GATHER merges all producers into a single consumer, REPARTITION routes every
+ * tuple to the consumer given by the hash of its key attributes, and
+ * BROADCAST hands every tuple to every consumer. PREFETCH runs a single
+ * producer ahead of its consumer, so that the producer keeps working while
+ * the consumer is busy with other inputs.
+ *
+ * A producer that fails, or whose thread is interrupted, ends the stream of
+ * every consumer with an error marker rather than the end of stream, and the
+ * consumers throw the failure from next, so a query never returns a result
+ * that silently lacks the batches of a failed producer
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.BatchPool;
+import qp.utils.QueryContext;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+import qp.utils.Workers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class Exchange extends Operator {
+
+    /**
+     * enumeration of the ways tuples are distributed to the consumers
+     **/
+    public static final int GATHER = 0;
+    public static final int REPARTITION = 1;
+    public static final int BROADCAST = 2;
+    public static final int PREFETCH = 3;
+
+    static final int QUEUE_SIZE = 8;  // Batches buffered per consumer before producers block
+    static final Batch EOS = new Batch(1);    // Marks the end of the stream in a queue
+    static final Batch ERROR = new Batch(1);  // Marks the end of the stream of a failed producer
+
+    Channel channel;  // Shared by all the consumers of the exchange
+    int consumer;     // Which of the consumers this operator reads for
+    boolean eos;      // Whether the end of stream was seen
+
+    Exchange(Channel channel, int consumer) {
+        super(OpType.EXCHANGE);
+        this.channel = channel;
+        this.consumer = consumer;
+        setSchema(channel.producers.get(0).getSchema());
+    }
+
+    /**
+     * Merge the output of all the producers into a single stream
+     **/
+    public static Exchange gather(ArrayList<Operator> producers) {
+        return new Channel(GATHER, producers, 1, null).consumers.get(0);
+    }
+
+    /**
+     * Split the output of the producers into numConsumers streams on the hash of the keys.
+     * * Tuples with equal keys always go to the consumer with the same position, whatever
+     * * the producers, so two inputs repartitioned on their join keys can be joined pairwise
+     **/
+    public static ArrayList<Exchange> repartition(ArrayList<Operator> producers, ArrayList<Attribute> keys, int numConsumers) {
+        return new Channel(REPARTITION, producers, numConsumers, keys).consumers;
+    }
+
+    /**
+     * Send the whole output of the producers to each of numConsumers streams
+     **/
+    public static ArrayList<Exchange> broadcast(ArrayList<Operator> producers, int numConsumers) {
+        return new Channel(BROADCAST, producers, numConsumers, null).consumers;
+    }
+
+    /**
+     * Run the child on its own thread, reading up to QUEUE_SIZE batches ahead of the consumer.
+     * * The child is opened by that thread, so opening the prefetch returns at once
+     **/
+    public static Exchange prefetch(Operator child) {
+        ArrayList<Operator> producers = new ArrayList<>(1);
+        producers.add(child);
+        return new Channel(PREFETCH, producers, 1, null).consumers.get(0);
+    }
+
+    /**
+     * Each consumer sees the tuples of a single producer in the order it sent them
+     **/
+    public ArrayList<Attribute> getOutputOrder() {
+        if (channel.producers.size() == 1) {
+            return channel.producers.get(0).getOutputOrder();
+        }
+        return new ArrayList<>();
+    }
+
+    public int getExchangeType() {
+        return channel.type;
+    }
+
+    public ArrayList<Operator> getProducers() {
+        return channel.producers;
+    }
+
+    public int getNumConsumers() {
+        return channel.consumers.size();
+    }
+
+    public int getConsumer() {
+        return consumer;
+    }
+
+    public ArrayList<Attribute> getKeys() {
+        return channel.keys;
+    }
+
+    /**
+     * Identifies the exchange; all the consumers of one exchange share it
+     **/
+    public Object getChannel() {
+        return channel;
+    }
+
+    /**
+     * Starts the producers, if no other consumer of the exchange did already
+     **/
+    public boolean open() {
+        eos = false;
+        channel.start();
+        return true;
+    }
+
+    public Batch next() {
+        if (eos) {
+            return null;
+        }
+        Batch batch = channel.take(consumer);
+        if (batch == EOS) {
+            eos = true;
+            return null;
+        }
+        if (batch == ERROR) {
+            eos = true;
+            throw new IllegalStateException("Exchange: Error in producer", channel.failure);
+        }
+        return batch;
+    }
+
+    /**
+     * The producers stop sending to this consumer; once every consumer
+     * * is closed they stop altogether
+     **/
+    public boolean close() {
+        eos = true;
+        channel.close(consumer);
+        return true;
+    }
+
+    public void setContext(QueryContext context) {
+        super.setContext(context);
+        channel.setContext(context);
+    }
+
+    /**
+     * State shared by the producers and consumers of one exchange
+     **/
+    static class Channel {
+
+        final int type;
+        final ArrayList<Operator> producers;
+        final ArrayList<Exchange> consumers;
+        final ArrayList<Attribute> keys;  // Repartitioning attributes
+        final List<ArrayBlockingQueue<Batch>> queues;
+        final boolean[] closed;           // Consumers that no longer read
+        int[] keyIndex;                   // Position of the keys in the schema
+        int runningProducers;
+        boolean started;
+        volatile Throwable failure;       // First failure of a producer, null if none failed
+        QueryContext context;
+        BatchPool pool;
+
+        Channel(int type, ArrayList<Operator> producers, int numConsumers, ArrayList<Attribute> keys) {
+            this.type = type;
+            this.producers = producers;
+            this.keys = keys;
+            queues = new ArrayList<>(numConsumers);
+            closed = new boolean[numConsumers];
+            consumers = new ArrayList<>(numConsumers);
+            for (int i = 0; i < numConsumers; ++i) {
+                queues.add(new ArrayBlockingQueue<>(QUEUE_SIZE));
+                consumers.add(new Exchange(this, i));
+            }
+        }
+
+        synchronized void setContext(QueryContext context) {
+            if (this.context == context) {
+                return;
+            }
+            this.context = context;
+            this.pool = context.getBatchPool();
+            for (Operator producer : producers) {
+                producer.setContext(context);
+            }
+        }
+
+        synchronized void start() {
+            if (started) {
+                return;
+            }
+            started = true;
+            if (keys != null) {
+                Schema schema = producers.get(0).getSchema();
+                keyIndex = new int[keys.size()];
+                for (int i = 0; i < keyIndex.length; ++i) {
+                    keyIndex[i] = schema.indexOf(keys.get(i));
+                }
+            }
+            runningProducers = producers.size();
+            for (int i = 0; i < producers.size(); ++i) {
+                Operator producer = producers.get(i);
+                Workers.start("exchange-worker-" + i, () -> produce(producer));
+            }
+        }
+
+        /**
+         * Body of a producer thread: run the sub-plan and distribute its batches.
+         * * Whatever happens, the producer counts as finished when it returns
+         **/
+        void produce(Operator producer) {
+            try {
+                if (!producer.open()) {
+                    throw new IllegalStateException("Exchange: Error in opening producer");
+                }
+                Batch inbatch;
+                while (failure == null && !allClosed() && (inbatch = producer.next()) != null) {
+                    if (type == GATHER || type == PREFETCH) {
+                        send(0, inbatch);
+                        continue;
+                    }
+                    Batch[] outbatches = new Batch[queues.size()];
+                    for (int i = 0; i < inbatch.size(); ++i) {
+                        Tuple tuple = inbatch.get(i);
+                        if (type == BROADCAST) {
+                            for (int c = 0; c < queues.size(); ++c) {
+                                outbatches[c] = append(c, outbatches[c], tuple, inbatch.capacity());
+                            }
+                        } else {
+                            int c = Math.floorMod(hash(tuple), queues.size());
+                            outbatches[c] = append(c, outbatches[c], tuple, inbatch.capacity());
+                        }
+                    }
+                    for (int c = 0; c < queues.size(); ++c) {
+                        if (outbatches[c] != null) {
+                            send(c, outbatches[c]);
+                        }
+                    }
+                    producer.release(inbatch);
+                }
+                producer.close();
+            } catch (Throwable e) {
+                fail(e);
+            } finally {
+                finish();
+            }
+        }
+
+        /**
+         * Notes the first failure of a producer, which ends the streams with ERROR
+         **/
+        synchronized void fail(Throwable e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+
+        /**
+         * Adds a tuple to the pending batch of a consumer, sending it when full
+         **/
+        Batch append(int c, Batch outbatch, Tuple tuple, int capacity) throws InterruptedException {
+            if (outbatch == null) {
+                outbatch = pool == null ? new Batch(capacity) : pool.acquire(capacity);
+            }
+            outbatch.add(tuple);
+            if (outbatch.isFull()) {
+                send(c, outbatch);
+                return null;
+            }
+            return outbatch;
+        }
+
+        /**
+         * Hash of the key attributes, the same for equal values of any type and encoding
+         **/
+        int hash(Tuple tuple) {
+            int h = 1;
+            for (int index : keyIndex) {
+                Object data = tuple.dataAt(index);
+                h = 31 * h + (data == null ? 0 : data.hashCode());
+            }
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * Blocks until the consumer has room for the batch, or drops it if the consumer is closed.
+         * * An interrupt fails the producer, as the batch cannot be delivered
+         **/
+        void send(int c, Batch batch) throws InterruptedException {
+            while (!queues.get(c).offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                if (isClosed(c)) {
+                    discard(batch);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * The next batch for the consumer. An interrupt while waiting is a
+         * * failure of the query, not the end of its stream
+         **/
+        Batch take(int c) {
+            try {
+                return queues.get(c).take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Exchange: Interrupted while waiting for producers", e);
+            }
+        }
+
+        /**
+         * The last producer to finish ends the stream of every consumer, with
+         * * ERROR if any producer failed. The markers are delivered even if the
+         * * thread is interrupted, which is noted again once they are
+         **/
+        void finish() {
+            synchronized (this) {
+                runningProducers--;
+                if (runningProducers > 0) {
+                    return;
+                }
+            }
+            Batch marker = failure == null ? EOS : ERROR;
+            boolean interrupted = Thread.interrupted();
+            for (int c = 0; c < queues.size(); ++c) {
+                while (true) {
+                    try {
+                        send(c, marker);
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void close(int c) {
+            synchronized (this) {
+                closed[c] = true;
+            }
+            Batch batch;
+            while ((batch = queues.get(c).poll()) != null) {
+                discard(batch);
+            }
+        }
+
+        synchronized boolean isClosed(int c) {
+            return closed[c];
+        }
+
+        synchronized boolean allClosed() {
+            for (boolean c : closed) {
+                if (!c) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void discard(Batch batch) {
+            if (batch != EOS && batch != ERROR && pool != null) {
+                pool.release(batch);
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/**
+ * In-memory Hash Join algorithm
+ *
+ * The right input is the build side and is held in an open addressing hash
+ * table, the left input is probed against it. When the join runs in several
+ * copies, the copies build one shared table together: each copy first
+ * buffers its part of the build input, and after all copies have arrived at
+ * a barrier the table is sized for the whole input. Each copy then inserts
+ * its rows, claiming slots with compare-and-set instead of locks, and once a
+ * second barrier is passed every copy probes the complete table with its own
+ * part of the probe input. A copy that fails to read its part breaks the
+ * barrier, so the other copies fail to open as well instead of waiting.
+ *
+ * Assumption: the build input fits in memory
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.Condition;
+import qp.utils.Tuple;
+
+import java.util.ArrayList;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class HashJoin extends Join {
+
+    int batchsize; // Number of tuples per out batch
+    ArrayList<Integer> leftindex; // Indices of the join attributes in left table
+    ArrayList<Integer> rightindex; // Indices of the join attributes in right table
+    BuildTable table; // Hash table on the right input, shared by the copies of this join
+    int copy; // Which of the copies of the join this is
+
+    Batch leftbatch; // Buffer page for left input stream
+    int lcurs; // Cursor for left side buffer
+    Tuple lefttuple; // Left tuple being probed, null if the next one is to be taken
+    int lefthash; // Hash of the join attributes of lefttuple
+    int slot; // Next slot of the table to look at for lefttuple
+    boolean eosl; // Whether end of stream (left table) is reached
+
+    public HashJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+    }
+
+    /**
+     * Makes this join one of the copies building the given table together
+     **/
+    public void setBuildTable(BuildTable table, int copy) {
+        this.table = table;
+        this.copy = copy;
+    }
+
+    /**
+     * Builds the hash table from the right input, then opens the left input
+     **/
+    public boolean open() {
+        batchsize = Batch.getExecBatchSize();
+        if (!build()) {
+            return false;
+        }
+        leftbatch = null;
+        lcurs = 0;
+        lefttuple = null;
+        eosl = false;
+        return left.open();
+    }
+
+    /**
+     * Finds the join attributes and builds the hash table from the right input
+     **/
+    boolean build() {
+        /** find indices attributes of join conditions **/
+        leftindex = new ArrayList<>();
+        rightindex = new ArrayList<>();
+        for (Condition con : conditionList) {
+            Attribute leftattr = con.getLhs();
+            Attribute rightattr = (Attribute) con.getRhs();
+            leftindex.add(left.getSchema().indexOf(leftattr));
+            rightindex.add(right.getSchema().indexOf(rightattr));
+        }
+        if (table == null || table.parties == 1) {
+            // a table that is not shared is built anew on every open
+            setBuildTable(new BuildTable(1), 0);
+        }
+
+        ArrayList<Tuple> rows = new ArrayList<>();
+        boolean pushed = false;
+        try {
+            pushed = right.pushTo(buildingFilters(rows::add));
+        } finally {
+            if (!pushed) {
+                table.abandon();
+            }
+        }
+        if (!pushed || !table.build(copy, rows, rightindex)) {
+            return false;
+        }
+        publishFilters();
+        return true;
+    }
+
+    /**
+     * Probes the table with left tuples until the output batch is full
+     **/
+    public Batch next() {
+        if (eosl) {
+            return null;
+        }
+        Batch outbatch = newBatch(batchsize);
+        while (!outbatch.isFull()) {
+            if (lefttuple == null) {
+                if (leftbatch == null || lcurs == leftbatch.size()) {
+                    left.release(leftbatch);
+                    leftbatch = left.next();
+                    lcurs = 0;
+                    if (leftbatch == null) {
+                        eosl = true;
+                        break;
+                    }
+                    continue;
+                }
+                lefttuple = leftbatch.get(lcurs++);
+                lefthash = BuildTable.hash(lefttuple, leftindex);
+                slot = table.firstSlot(lefthash);
+            }
+            /** walk the cluster of slots that starts at the hash of the left tuple **/
+            int row;
+            while ((row = table.rowAt(slot)) >= 0) {
+                int current = slot;
+                slot = table.nextSlot(slot);
+                if (table.hashAt(current) == lefthash) {
+                    Tuple righttuple = table.tuple(row);
+                    if (lefttuple.checkJoin(righttuple, leftindex, rightindex)) {
+                        outbatch.add(lefttuple.joinWith(righttuple));
+                        if (outbatch.isFull()) {
+                            return outbatch;
+                        }
+                    }
+                }
+            }
+            lefttuple = null;
+        }
+        if (outbatch.isEmpty()) {
+            release(outbatch);
+            return null;
+        }
+        return outbatch;
+    }
+
+    /**
+     * Pushes the join of a left tuple with each matching build row, used by the push engine
+     **/
+    public void probe(Tuple tuple, TupleConsumer consumer) {
+        int h = BuildTable.hash(tuple, leftindex);
+        int row;
+        for (int s = table.firstSlot(h); (row = table.rowAt(s)) >= 0; s = table.nextSlot(s)) {
+            if (table.hashAt(s) == h) {
+                Tuple righttuple = table.tuple(row);
+                if (tuple.checkJoin(righttuple, leftindex, rightindex)) {
+                    consumer.consume(tuple.joinWith(righttuple));
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the operator
+     */
+    public boolean close() {
+        left.close();
+        return true;
+    }
+
+    /**
+     * Open addressing hash table on the build input, built by one or more copies
+     * * of the join. Slots hold the position of a row plus one, 0 marks an empty slot
+     **/
+    public static class BuildTable {
+
+        final int parties;                  // Number of copies building the table
+        final CyclicBarrier barrier;
+        volatile boolean abandoned;         // Whether a copy failed to read its part of the build input
+        final ArrayList<ArrayList<Tuple>> parts;  // Rows buffered by each copy
+        int[] firstRow;                     // Position of the first row of each copy
+        Tuple[] rows;                       // All build rows
+        AtomicIntegerArray slots;           // Row of each slot plus one, claimed with compare-and-set
+        int[] hashes;                       // Hash of the row in each slot
+        int mask;                           // Number of slots minus one
+
+        public BuildTable(int parties) {
+            this.parties = parties;
+            parts = new ArrayList<>(parties);
+            for (int i = 0; i < parties; ++i) {
+                parts.add(null);
+            }
+            barrier = new CyclicBarrier(parties, this::allocate);
+        }
+
+        /**
+         * Hash of the join attributes, equal for equal values of any encoding
+         **/
+        static int hash(Tuple tuple, ArrayList<Integer> index) {
+            int h = 1;
+            for (int i : index) {
+                Object data = tuple.dataAt(i);
+                h = 31 * h + (data == null ? 0 : data.hashCode());
+            }
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * Called by each copy with its part of the build input; returns true once
+         * * every copy has inserted its rows, false if another copy abandoned the table
+         **/
+        boolean build(int copy, ArrayList<Tuple> part, ArrayList<Integer> keyindex) {
+            parts.set(copy, part);
+            if (!await()) {
+                return false;
+            }
+            int row = firstRow[copy];
+            for (Tuple tuple : part) {
+                rows[row] = tuple;
+                insert(row, hash(tuple, keyindex));
+                row++;
+            }
+            parts.set(copy, null);
+            return await();
+        }
+
+        /**
+         * Called by a copy that cannot build its part. Breaks the barrier for good, the
+         * * copies waiting at it and the ones still to arrive fail instead of waiting forever
+         **/
+        void abandon() {
+            abandoned = true;
+            try {
+                // an await that times out breaks the barrier; if this copy was the last one
+                // to arrive, allocate throws instead, which breaks the barrier just the same
+                barrier.await(0, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (BrokenBarrierException | TimeoutException | IllegalStateException e) {
+                // broken as intended
+            }
+        }
+
+        /**
+         * Sizes the table for all the buffered rows, run by the last copy to arrive at
+         * * the barrier. The barrier is passed a second time once the rows are inserted
+         **/
+        private void allocate() {
+            if (abandoned) {
+                throw new IllegalStateException("HashJoin: Build input abandoned by a copy");
+            }
+            if (rows != null) {
+                return;
+            }
+            firstRow = new int[parties];
+            int numRows = 0;
+            for (int i = 0; i < parties; ++i) {
+                firstRow[i] = numRows;
+                numRows += parts.get(i).size();
+            }
+            int capacity = Integer.highestOneBit(Math.max(2 * numRows, 2) - 1) << 1;
+            rows = new Tuple[numRows];
+            slots = new AtomicIntegerArray(capacity);
+            hashes = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        private void insert(int row, int h) {
+            int slot = h & mask;
+            while (!slots.compareAndSet(slot, 0, row + 1)) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = h;
+        }
+
+        /**
+         * Waits for the other copies, false if the barrier is broken or the thread interrupted
+         **/
+        private boolean await() {
+            try {
+                barrier.await();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (BrokenBarrierException e) {
+                // another copy abandoned the table
+            }
+            System.out.println("HashJoin: Error while building the hash table");
+            return false;
+        }
+
+        int firstSlot(int h) {
+            return h & mask;
+        }
+
+        int nextSlot(int slot) {
+            return (slot + 1) & mask;
+        }
+
+        /**
+         * Row in the slot, -1 if the slot is empty
+         **/
+        int rowAt(int slot) {
+            return slots.get(slot) - 1;
+        }
+
+        int hashAt(int slot) {
+            return hashes[slot];
+        }
+
+        Tuple tuple(int row) {
+            return rows[row];
+        }
+    }
+}
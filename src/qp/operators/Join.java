@@ -4,7 +4,9 @@
 
 package qp.operators;
 
+import qp.utils.Attribute;
 import qp.utils.Condition;
+import qp.utils.QueryContext;
 import qp.utils.Schema;
 
 import java.util.ArrayList;
@@ -17,6 +19,7 @@ public class Join extends Operator {
     int numBuff;                         // Number of buffers available
     int jointype;                        // JoinType.NestedJoin/SortMerge/HashJoin
     int nodeIndex;                       // Each join node is given a number
+    ArrayList<RuntimeFilter> runtimeFilters = new ArrayList<>();  // Filters built from the right input
 
     public Join(Operator left, Operator right, int type) {
         super(type);
@@ -102,6 +105,54 @@ public class Join extends Operator {
         conditionList.add(condition);
     }
 
+    /**
+     * Makes the join build the filter from its right input
+     **/
+    public void addRuntimeFilter(RuntimeFilter filter) {
+        runtimeFilters.add(filter);
+    }
+
+    public ArrayList<RuntimeFilter> getRuntimeFilters() {
+        return runtimeFilters;
+    }
+
+    /**
+     * Wraps the consumer of the right input so that its tuples are added
+     * * to the runtime filters on their way. The filters are emptied first
+     **/
+    protected TupleConsumer buildingFilters(TupleConsumer consumer) {
+        return RuntimeFilter.building(runtimeFilters, right.getSchema(), consumer);
+    }
+
+    /**
+     * Lets the scans use the runtime filters, once the whole right input has gone through them
+     **/
+    protected void publishFilters() {
+        RuntimeFilter.publish(runtimeFilters);
+    }
+
+    /**
+     * A sort merge join produces its output in the order of the left join
+     * * attributes, a hash join in the order of its left (probe) input
+     **/
+    public ArrayList<Attribute> getOutputOrder() {
+        ArrayList<Attribute> order = new ArrayList<>();
+        if (jointype == JoinType.SORTMERGE) {
+            for (Condition con : conditionList) {
+                order.add(con.getLhs());
+            }
+        } else if (jointype == JoinType.HASHJOIN) {
+            order = left.getOutputOrder();
+        }
+        return order;
+    }
+
+    public void setContext(QueryContext context) {
+        super.setContext(context);
+        left.setContext(context);
+        right.setContext(context);
+    }
+
     public Object clone() {
         Operator newleft = (Operator) left.clone();
         Operator newright = (Operator) right.clone();
@@ -0,0 +1,73 @@
+/**
+ * Hands out morsels, runs of consecutive pages of a table file, to the
+ * copies of a parallel scan. The pages are first divided into one contiguous
+ * range per worker, and each worker takes morsels from the front of its own
+ * range by moving an atomic cursor. A worker whose range is used up steals
+ * morsels from the ranges of the others in the same way, so that workers
+ * slowed down by expensive tuples do not keep the rest waiting.
+ **/
+
+package qp.operators;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class MorselDispatcher {
+
+    static int morselPages = 64;  // Number of pages per morsel
+
+    final int numWorkers;
+    AtomicIntegerArray cursors;   // Next unclaimed page of each worker's range
+    int[] ends;                   // End (exclusive) of each worker's range
+    boolean initialized;
+
+    public static void setMorselPages(int pages) {
+        morselPages = pages;
+    }
+
+    public static int getMorselPages() {
+        return morselPages;
+    }
+
+    public MorselDispatcher(int numWorkers) {
+        this.numWorkers = numWorkers;
+    }
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    /**
+     * Splits the pages among the workers, done by the first scan to open the table
+     **/
+    public synchronized void init(int numPages) {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        cursors = new AtomicIntegerArray(numWorkers);
+        ends = new int[numWorkers];
+        for (int w = 0; w < numWorkers; ++w) {
+            cursors.set(w, (int) ((long) numPages * w / numWorkers));
+            ends[w] = (int) ((long) numPages * (w + 1) / numWorkers);
+        }
+    }
+
+    /**
+     * Claims the next morsel for a worker, from its own range first and then from
+     * * the ranges of the other workers. Returns {first page, end page (exclusive)},
+     * * or null once every page has been handed out
+     **/
+    public int[] next(int worker) {
+        for (int i = 0; i < numWorkers; ++i) {
+            int w = (worker + i) % numWorkers;
+            if (cursors.get(w) >= ends[w]) {
+                continue;
+            }
+            int start = cursors.getAndAdd(w, morselPages);
+            if (start < ends[w]) {
+                return new int[]{start, Math.min(start + morselPages, ends[w])};
+            }
+        }
+        return null;
+    }
+}
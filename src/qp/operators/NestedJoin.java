@@ -8,13 +8,13 @@ import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
 import qp.utils.Tuple;
+import qp.utils.TupleWriter;
 
 import java.io.*;
 import java.util.ArrayList;
 
 public class NestedJoin extends Join {
 
-    static int filenum = 0;         // To get unique filenum for this operation
     int batchsize;                  // Number of tuples per out batch
     ArrayList<Integer> leftindex;   // Indices of the join attributes in left table
     ArrayList<Integer> rightindex;  // Indices of the join attributes in right table
@@ -43,8 +43,7 @@ public class NestedJoin extends Join {
      **/
     public boolean open() {
         /** select number of tuples per batch **/
-        int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Batch.getExecBatchSize();
 
         /** find indices attributes of join conditions **/
         leftindex = new ArrayList<>();
@@ -55,7 +54,6 @@ public class NestedJoin extends Join {
             leftindex.add(left.getSchema().indexOf(leftattr));
             rightindex.add(right.getSchema().indexOf(rightattr));
         }
-        Batch rightpage;
 
         /** initialize the cursors of input buffers **/
         lcurs = 0;
@@ -67,29 +65,21 @@ public class NestedJoin extends Join {
         eosr = true;
 
         /** Right hand side table is to be materialized
-         ** for the Nested join to perform
+         ** for the Nested join to perform; its tuples
+         ** are pushed straight into the file
          **/
-        if (!right.open()) {
+        rfname = newTempFileName("NJtemp");
+        /** the file is written in pages, whatever the size of the batches coming from right **/
+        TupleWriter out = new TupleWriter(rfname, Batch.getPageCapacity(right.getSchema().getTupleSize()));
+        if (!out.open()) {
+            System.out.println("NestedJoin: Error writing to temporary file");
+            return false;
+        }
+        boolean materialized = right.pushTo(buildingFilters(out::next));
+        out.close();
+        publishFilters();
+        if (!materialized) {
             return false;
-        } else {
-            /** If the right operator is not a base table then
-             ** Materialize the intermediate result from right
-             ** into a file
-             **/
-            filenum++;
-            rfname = "NJtemp-" + String.valueOf(filenum);
-            try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
-                while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
-                }
-                out.close();
-            } catch (IOException io) {
-                System.out.println("NestedJoin: Error writing to temporary file");
-                return false;
-            }
-            if (!right.close())
-                return false;
         }
         if (left.open())
             return true;
@@ -106,10 +96,11 @@ public class NestedJoin extends Join {
         if (eosl) {
             return null;
         }
-        outbatch = new Batch(batchsize);
+        outbatch = newBatch(batchsize);
         while (!outbatch.isFull()) {
             if (lcurs == 0 && eosr == true) {
-                /** new left page is to be fetched**/
+                /** new left page is to be fetched, the previous one is no longer needed **/
+                left.release(leftbatch);
                 leftbatch = (Batch) left.next();
                 if (leftbatch == null) {
                     eosl = true;
@@ -185,6 +176,7 @@ public class NestedJoin extends Join {
     public boolean close() {
         File f = new File(rfname);
         f.delete();
+        left.close();  // the right input was closed once it was materialized
         return true;
     }
 
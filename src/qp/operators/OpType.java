@@ -11,5 +11,8 @@ public class OpType {
     public static final int PROJECT = 2;
     public static final int JOIN = 3;
     public static final int SORT = 4;
+    public static final int EXCHANGE = 5;
+    public static final int PIPELINE = 6;
+    public static final int COUNT = 7;
 
 }
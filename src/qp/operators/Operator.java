@@ -3,13 +3,21 @@
  **/
 package qp.operators;
 
+import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BatchPool;
+import qp.utils.QueryContext;
 import qp.utils.Schema;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
 public class Operator {
 
     int optype;     // Whether it is OpType.SELECT/ Optype.PROJECT/OpType.JOIN
     Schema schema;  // Schema of the result at this operator
+    QueryContext context;  // Query this operator runs in, null if it was not set
+    BatchPool pool; // Pool the output batches are taken from, null if not pooled
 
     public Operator(int type) {
         this.optype = type;
@@ -31,6 +39,50 @@ public class Operator {
         this.optype = type;
     }
 
+    /**
+     * Sets the query this operator runs in; operators with
+     * * inputs pass it on to them
+     **/
+    public void setContext(QueryContext context) {
+        this.context = context;
+        this.pool = context.getBatchPool();
+    }
+
+    public QueryContext getContext() {
+        return context;
+    }
+
+    /**
+     * Returns a name for a new temporary file of this operator
+     **/
+    protected String newTempFileName(String prefix) {
+        if (context == null) {
+            // not run as part of a query, the operator gets a context of its own
+            setContext(new QueryContext(pool));
+        }
+        return context.newTempFileName(prefix);
+    }
+
+    /**
+     * Returns an empty output batch, taken from the pool if there is one
+     **/
+    protected Batch newBatch(int capacity) {
+        if (pool == null) {
+            return new Batch(capacity);
+        }
+        return pool.acquire(capacity);
+    }
+
+    /**
+     * Called by the consumer once it has finished with a batch returned by next().
+     * * The batch may be handed out again, but the tuples it held stay valid
+     **/
+    public void release(Batch batch) {
+        if (pool != null && batch != null) {
+            pool.release(batch);
+        }
+    }
+
     public boolean open() {
         System.err.println("Abstract interface cannot be used.");
         System.exit(1);
@@ -47,6 +99,51 @@ public class Operator {
         return true;
     }
 
+    /**
+     * Opens the operator, pushes every output tuple to the consumer and closes it.
+     * * Operators that consume their whole input before producing output read it
+     * * this way; the default drives the operator through next(), the pipelines
+     * * of the push engine push their tuples without building output batches
+     **/
+    public boolean pushTo(TupleConsumer consumer) {
+        if (!open()) {
+            return false;
+        }
+        Batch batch;
+        while ((batch = next()) != null) {
+            for (int i = 0; i < batch.size(); ++i) {
+                consumer.consume(batch.get(i));
+            }
+            release(batch);
+        }
+        close();
+        return true;
+    }
+
+    /**
+     * Attributes the output is sorted on, in ascending order and in order of
+     * * precedence. Empty if the output has no known order
+     **/
+    public ArrayList<Attribute> getOutputOrder() {
+        return new ArrayList<>();
+    }
+
+    /**
+     * Whether output in the given order is sorted on the required attributes
+     **/
+    public static boolean isSortedOn(ArrayList<Attribute> order, ArrayList<Attribute> required) {
+        return order.size() >= required.size() && order.subList(0, required.size()).equals(required);
+    }
+
+    /**
+     * Whether output in the given order has the tuples with equal values
+     * * of the attributes next to each other
+     **/
+    public static boolean isGroupedOn(ArrayList<Attribute> order, ArrayList<Attribute> attrs) {
+        HashSet<Attribute> distinct = new HashSet<>(attrs);
+        return order.size() >= distinct.size() && order.subList(0, distinct.size()).containsAll(distinct);
+    }
+
     public Object clone() {
         return new Operator(optype);
     }
@@ -0,0 +1,272 @@
+/**
+ * Push-based execution of a chain of streaming operators. A pipeline runs
+ * from a source (a scan, or a pipeline breaker such as a sort or a nested
+ * loops join) up to the next pipeline breaker, and fuses the selects, plain
+ * projections and hash join probes in between: the source pushes each tuple
+ * through the steps, one call per step, without building a batch or checking
+ * a cursor at every operator. A breaker above the pipeline (sort, distinct,
+ * hash build, join materialization) receives the tuples through pushTo; an
+ * operator that still pulls, such as the left input of a nested loops join
+ * or an exchange, gets them in batches from next().
+ *
+ * compile turns an execution plan of pull operators into one that uses
+ * pipelines wherever they apply. With code generation on, the steps of a
+ * pipeline run as a class generated by PipelineCompiler
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.QueryContext;
+import qp.utils.Tuple;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+public class Pipeline extends Operator {
+
+    static boolean codegen = false;  // Whether the steps run as generated code, see PipelineCompiler
+
+    Operator source;             // Operator the tuples of the pipeline come from
+    ArrayList<Operator> steps;   // Select, Project, HashJoin and RowCounter operators applied to them, bottom up
+    int batchsize;               // Number of tuples per out batch of next()
+
+    TupleConsumer chain;         // The steps, bound to put their output into pending
+    ArrayDeque<Tuple> pending;   // Output of the steps not yet returned by next()
+    boolean eos;                 // Whether the source is exhausted
+
+    public Pipeline(Operator source) {
+        super(OpType.PIPELINE);
+        this.source = source;
+        steps = new ArrayList<>();
+        setSchema(source.getSchema());
+    }
+
+    /**
+     * Rewrites an execution plan to run its streaming operators in pipelines.
+     * * Returns the new root
+     **/
+    public static Operator compile(Operator node) {
+        switch (node.getOpType()) {
+            case OpType.SELECT: {
+                Select select = (Select) node;
+                return extend(compile(select.getBase()), select);
+            }
+            case OpType.PROJECT: {
+                Project project = (Project) node;
+                if (!project.isDistinct()) {
+                    return extend(compile(project.getBase()), project);
+                }
+                project.setBase(compile(project.getBase()));
+                return project;
+            }
+            case OpType.SORT: {
+                Sort sort = (Sort) node;
+                sort.setBase(compile(sort.getBase()));
+                return sort;
+            }
+            case OpType.JOIN: {
+                Join join = (Join) node;
+                join.setRight(compile(join.getRight()));
+                if (join instanceof HashJoin) {
+                    // the build side is pushed into the table, the probe side streams
+                    return extend(compile(join.getLeft()), join);
+                }
+                join.setLeft(compile(join.getLeft()));
+                return join;
+            }
+            case OpType.COUNT: {
+                RowCounter counter = (RowCounter) node;
+                return extend(compile(counter.getBase()), counter);
+            }
+            case OpType.EXCHANGE: {
+                ArrayList<Operator> producers = ((Exchange) node).getProducers();
+                for (int i = 0; i < producers.size(); ++i) {
+                    producers.set(i, compile(producers.get(i)));
+                }
+                return node;
+            }
+            default:
+                return node;
+        }
+    }
+
+    /**
+     * Adds a streaming operator on top of the input, starting a pipeline if the input is not one
+     **/
+    private static Pipeline extend(Operator input, Operator step) {
+        Pipeline pipeline = input instanceof Pipeline ? (Pipeline) input : new Pipeline(input);
+        pipeline.steps.add(step);
+        pipeline.setSchema(step.getSchema());
+        return pipeline;
+    }
+
+    public static void setCodegen(boolean enabled) {
+        codegen = enabled;
+    }
+
+    public static boolean isCodegen() {
+        return codegen;
+    }
+
+    public Operator getSource() {
+        return source;
+    }
+
+    public ArrayList<Operator> getSteps() {
+        return steps;
+    }
+
+    /**
+     * The steps keep their inputs, so the last one knows the order of the pipeline
+     **/
+    public ArrayList<Attribute> getOutputOrder() {
+        return steps.isEmpty() ? source.getOutputOrder() : steps.get(steps.size() - 1).getOutputOrder();
+    }
+
+    /**
+     * Prepares the steps; hash joins build their tables here
+     **/
+    private boolean openSteps() {
+        for (Operator step : steps) {
+            if (step.getOpType() == OpType.PROJECT) {
+                ((Project) step).prepareProjection();
+            } else if (step.getOpType() == OpType.JOIN) {
+                if (!((HashJoin) step).build()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Binds the steps one on top of the other, the last one pushing to consumer
+     **/
+    private TupleConsumer bind(TupleConsumer consumer) {
+        if (codegen && !steps.isEmpty()) {
+            TupleConsumer compiled = PipelineCompiler.bind(steps, consumer);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+        for (int i = steps.size() - 1; i >= 0; --i) {
+            consumer = bind(steps.get(i), consumer);
+        }
+        return consumer;
+    }
+
+    private static TupleConsumer bind(Operator step, TupleConsumer next) {
+        switch (step.getOpType()) {
+            case OpType.SELECT:
+                Select select = (Select) step;
+                return tuple -> {
+                    if (select.checkCondition(tuple)) {
+                        next.consume(tuple);
+                    }
+                };
+            case OpType.PROJECT:
+                Project project = (Project) step;
+                return tuple -> next.consume(project.project(tuple));
+            case OpType.COUNT:
+                RowCounter counter = (RowCounter) step;
+                return tuple -> {
+                    counter.count();
+                    next.consume(tuple);
+                };
+            default:
+                HashJoin join = (HashJoin) step;
+                return tuple -> join.probe(tuple, next);
+        }
+    }
+
+    /**
+     * Tells the counters among the steps that the stream of the source starts
+     **/
+    private void startCounters() {
+        for (Operator step : steps) {
+            if (step.getOpType() == OpType.COUNT) {
+                ((RowCounter) step).start();
+            }
+        }
+    }
+
+    /**
+     * Tells the counters among the steps that the stream of the source has ended
+     **/
+    private void finishCounters() {
+        for (Operator step : steps) {
+            if (step.getOpType() == OpType.COUNT) {
+                ((RowCounter) step).finish();
+            }
+        }
+    }
+
+    public boolean open() {
+        batchsize = Batch.getExecBatchSize();
+        pending = new ArrayDeque<>();
+        chain = bind(pending::add);
+        eos = false;
+        startCounters();
+        return openSteps() && source.open();
+    }
+
+    /**
+     * Pushes batches of the source through the steps until an output batch is full
+     **/
+    public Batch next() {
+        if (eos && pending.isEmpty()) {
+            return null;
+        }
+        Batch outbatch = newBatch(batchsize);
+        while (!outbatch.isFull()) {
+            if (!pending.isEmpty()) {
+                outbatch.add(pending.poll());
+                continue;
+            }
+            if (eos) {
+                break;
+            }
+            Batch inbatch = source.next();
+            if (inbatch == null) {
+                eos = true;
+                finishCounters();
+                continue;
+            }
+            for (int i = 0; i < inbatch.size(); ++i) {
+                chain.consume(inbatch.get(i));
+            }
+            source.release(inbatch);
+        }
+        if (outbatch.isEmpty()) {
+            release(outbatch);
+            return null;
+        }
+        return outbatch;
+    }
+
+    public boolean close() {
+        return source.close();
+    }
+
+    /**
+     * Runs the whole pipeline, with the source pushing straight through the steps into consumer
+     **/
+    public boolean pushTo(TupleConsumer consumer) {
+        startCounters();
+        if (!openSteps() || !source.pushTo(bind(consumer))) {
+            return false;
+        }
+        finishCounters();
+        return true;
+    }
+
+    public void setContext(QueryContext context) {
+        super.setContext(context);
+        source.setContext(context);
+        for (Operator step : steps) {
+            step.setContext(context);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Generates and compiles a Java class for the steps of a pipeline, so that
+ * a pipeline of the push engine runs as straight-line code: the column
+ * positions, types and comparison operators of selects and projections are
+ * fixed in the generated source instead of being looked up for every tuple,
+ * and the steps call each other directly.
+ *
+ * The source is compiled in-process with the javax.tools compiler. Constants
+ * of the conditions are passed to the generated class rather than written
+ * into its source, so plans of the same shape share one compiled class; the
+ * classes are cached by their source. Pipelines with a step that cannot be
+ * generated, or a JVM without a compiler, are left to the interpreter
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Condition;
+import qp.utils.Schema;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PipelineCompiler {
+
+    static final ConcurrentHashMap<String, Class<?>> cache = new ConcurrentHashMap<>();  // Compiled classes by source
+    static final AtomicInteger numClasses = new AtomicInteger();
+
+    /**
+     * Returns the steps bound on top of each other as compiled code, with the
+     * * last pushing to next, or null if the pipeline has to be interpreted
+     **/
+    static TupleConsumer bind(ArrayList<Operator> steps, TupleConsumer next) {
+        ArrayList<Object> params = new ArrayList<>();
+        String body = generate(steps, params);
+        if (body == null) {
+            return null;
+        }
+        Class<?> compiled = cache.get(body);
+        if (compiled == null) {
+            compiled = compile(body);
+            if (compiled == null) {
+                return null;
+            }
+            Class<?> previous = cache.putIfAbsent(body, compiled);
+            if (previous != null) {
+                compiled = previous;
+            }
+        }
+        try {
+            return (TupleConsumer) compiled.getConstructor(Operator[].class, Object[].class, TupleConsumer.class)
+                    .newInstance(steps.toArray(new Operator[0]), params.toArray(), next);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Generates the body of the class, with CLASSNAME standing for its name. Step i is
+     * * done in method stage<i>; a hash join probe pushes its matches on to the next stage.
+     * * Returns null if one of the steps is not supported
+     **/
+    static String generate(ArrayList<Operator> steps, ArrayList<Object> params) {
+        StringBuilder fields = new StringBuilder();
+        StringBuilder init = new StringBuilder();
+        StringBuilder stages = new StringBuilder();
+        for (int i = 0; i < steps.size(); ++i) {
+            Operator step = steps.get(i);
+            String nextStage = i + 1 < steps.size() ? "stage" + (i + 1) + "(t);" : "next.consume(t);";
+            stages.append("    private void stage").append(i).append("(Tuple t) {\n");
+            if (step.getOpType() == OpType.SELECT) {
+                String predicate = predicate((Select) step, params, fields, init);
+                if (predicate == null) {
+                    return null;
+                }
+                stages.append("        if (").append(predicate).append(") {\n");
+                stages.append("            ").append(nextStage).append("\n");
+                stages.append("        }\n");
+            } else if (step.getOpType() == OpType.PROJECT && !((Project) step).isDistinct()) {
+                Project project = (Project) step;
+                Schema input = project.getBase().getSchema();
+                ArrayList<Attribute> attrs = project.getProjAttr();
+                stages.append("        ArrayList<Object> values = new ArrayList<>(").append(attrs.size()).append(");\n");
+                for (Attribute attr : attrs) {
+                    int index = input.indexOf(attr);
+                    if (attr.getAggType() != Attribute.NONE || index < 0) {
+                        return null;
+                    }
+                    stages.append("        values.add(t.dataAt(").append(index).append("));\n");
+                }
+                stages.append("        t = new Tuple(values);\n");
+                stages.append("        ").append(nextStage).append("\n");
+            } else if (step instanceof HashJoin) {
+                fields.append("    private final HashJoin join").append(i).append(";\n");
+                fields.append("    private final TupleConsumer probed").append(i).append(";\n");
+                init.append("        join").append(i).append(" = (HashJoin) steps[").append(i).append("];\n");
+                String target = i + 1 < steps.size() ? "this::stage" + (i + 1) : "next";
+                init.append("        probed").append(i).append(" = ").append(target).append(";\n");
+                stages.append("        join").append(i).append(".probe(t, probed").append(i).append(");\n");
+            } else if (step.getOpType() == OpType.COUNT) {
+                fields.append("    private final RowCounter counter").append(i).append(";\n");
+                init.append("        counter").append(i).append(" = (RowCounter) steps[").append(i).append("];\n");
+                stages.append("        counter").append(i).append(".count();\n");
+                stages.append("        ").append(nextStage).append("\n");
+            } else {
+                return null;
+            }
+            stages.append("    }\n\n");
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("import qp.operators.*;\n");
+        source.append("import qp.utils.*;\n");
+        source.append("import java.util.ArrayList;\n\n");
+        source.append("public final class CLASSNAME implements TupleConsumer {\n\n");
+        source.append("    private final TupleConsumer next;\n");
+        source.append(fields).append("\n");
+        source.append("    public CLASSNAME(Operator[] steps, Object[] params, TupleConsumer next) {\n");
+        source.append("        this.next = next;\n");
+        source.append(init);
+        source.append("    }\n\n");
+        source.append("    public void consume(Tuple t) {\n");
+        source.append("        stage0(t);\n");
+        source.append("    }\n\n");
+        source.append(stages);
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Java expression for the condition of a select, null if it is not supported.
+     * * A constant becomes a typed field, set from params
+     **/
+    private static String predicate(Select select, ArrayList<Object> params, StringBuilder fields, StringBuilder init) {
+        Condition con = select.getCondition();
+        Schema schema = select.getSchema();
+        int index = schema.indexOf(con.getLhs());
+        int type = schema.typeOf(con.getLhs());
+        String op = operator(con.getExprType());
+        if (index < 0 || op == null) {
+            return null;
+        }
+        Object rhs = con.getRhs();
+        String left;
+        String right;
+        if (rhs instanceof Attribute) {
+            int rindex = schema.indexOf((Attribute) rhs);
+            if (rindex < 0) {
+                return null;
+            }
+            if (type == Attribute.STRING) {
+                /** two columns of the same dictionary are compared on their codes **/
+                return "Tuple.compareValues(t.dataAt(" + index + "), t.dataAt(" + rindex + ")) " + op + " 0";
+            }
+            left = value(type, "t.dataAt(" + index + ")");
+            right = value(type, "t.dataAt(" + rindex + ")");
+        } else if (rhs instanceof String) {
+            String constant = "c" + params.size();
+            try {
+                if (type == Attribute.INT) {
+                    params.add(Integer.parseInt((String) rhs));
+                    fields.append("    private final int ").append(constant).append(";\n");
+                    init.append("        ").append(constant).append(" = (Integer) params[").append(params.size() - 1).append("];\n");
+                } else if (type == Attribute.REAL) {
+                    params.add(Float.parseFloat((String) rhs));
+                    fields.append("    private final float ").append(constant).append(";\n");
+                    init.append("        ").append(constant).append(" = (Float) params[").append(params.size() - 1).append("];\n");
+                } else if (type == Attribute.STRING) {
+                    params.add(rhs);
+                    fields.append("    private final String ").append(constant).append(";\n");
+                    init.append("        ").append(constant).append(" = (String) params[").append(params.size() - 1).append("];\n");
+                    return "t.dataAt(" + index + ").toString().compareTo(" + constant + ") " + op + " 0";
+                } else {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            left = value(type, "t.dataAt(" + index + ")");
+            right = constant;
+        } else {
+            return null;
+        }
+        if (left == null || right == null) {
+            return null;
+        }
+        return left + " " + op + " " + right;
+    }
+
+    /**
+     * Unboxed value of a column
+     **/
+    private static String value(int type, String data) {
+        if (type == Attribute.INT) {
+            return "((Integer) " + data + ").intValue()";
+        } else if (type == Attribute.REAL) {
+            return "((Float) " + data + ").floatValue()";
+        }
+        return null;
+    }
+
+    private static String operator(int exprtype) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return "<";
+            case Condition.GREATERTHAN:
+                return ">";
+            case Condition.LTOE:
+                return "<=";
+            case Condition.GTOE:
+                return ">=";
+            case Condition.EQUAL:
+                return "==";
+            case Condition.NOTEQUAL:
+                return "!=";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Compiles the generated class in memory, null if there is no compiler or compilation fails
+     **/
+    private static Class<?> compile(String body) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            return null;
+        }
+        String name = "QpPipeline" + numClasses.incrementAndGet();
+        String source = body.replace("CLASSNAME", name);
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + name + ".java"), JavaFileObject.Kind.SOURCE) {
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        HashMap<String, ByteArrayOutputStream> classes = new HashMap<>();
+        JavaFileManager files = new ForwardingJavaFileManager<StandardJavaFileManager>(
+                compiler.getStandardFileManager(null, null, null)) {
+            public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                       JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + className), kind) {
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        ArrayList<String> options = new ArrayList<>();
+        options.add("-classpath");
+        options.add(System.getProperty("java.class.path"));
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Boolean ok = compiler.getTask(null, files, diagnostics, options, null, Collections.singletonList(file)).call();
+        if (ok == null || !ok) {
+            return null;
+        }
+        ClassLoader loader = new ClassLoader(PipelineCompiler.class.getClassLoader()) {
+            protected Class<?> findClass(String className) throws ClassNotFoundException {
+                ByteArrayOutputStream bytes = classes.get(className);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(className);
+                }
+                byte[] code = bytes.toByteArray();
+                return defineClass(className, code, 0, code.length);
+            }
+        };
+        try {
+            return loader.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
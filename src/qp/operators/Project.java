@@ -5,6 +5,7 @@ import java.util.ArrayList;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.QueryContext;
 import qp.utils.Schema;
 import qp.utils.Tuple;
 import qp.utils.TupleReader;
@@ -14,16 +15,18 @@ public class Project extends Operator {
     Operator base;
     int numBuff;
     boolean distinct;
-    int batchSize;
+    boolean grouped; // whether the input has duplicates next to each other, so that distinct needs no sort
+    int batchSize; // tuples per output batch
+    int pageSize; // tuples per page of the sorted runs
     ArrayList<Attribute> attributeList;
     int[] projectedIxes;
 
     // Distinct projection
     ArrayList<File> sortedRuns;
     ArrayList<TupleReader> inBuffers; // for multi-way merging
-    int fileId; // unique id for files generated
 
-    // Regular projection
+    // Regular projection, and distinct projection of a grouped input
+    Tuple prev; // last tuple output by a distinct projection, from its merged runs or its grouped input
     Batch inbatch; // for simple projection (no distinct)
     int incur; // pointer to next pointer in inbatch
     boolean eos; // only used in non-distinct projection to indicate base operator has finished.
@@ -36,7 +39,6 @@ public class Project extends Operator {
         this.attributeList = attributes;
         this.distinct = distinct;
         this.numBuff = numBuff;
-        this.fileId = 0;
     }
 
     public Operator getBase() {
@@ -55,45 +57,66 @@ public class Project extends Operator {
         return this.distinct;
     }
 
+    public int getNumBuff() {
+        return this.numBuff;
+    }
+
+    /**
+     * Whether the input already has equal projected tuples next to each other,
+     * * so that a distinct projection only has to drop repeats as they come
+     **/
+    public boolean isGroupedInput() {
+        return isGroupedOn(base.getOutputOrder(), attributeList);
+    }
+
+    // A distinct projection that sorts produces its output in the order of the projected attributes,
+    // otherwise the order of the input carries over as far as its attributes are projected
+    public ArrayList<Attribute> getOutputOrder() {
+        ArrayList<Attribute> baseOrder = base.getOutputOrder();
+        if (distinct && !isGroupedOn(baseOrder, attributeList)) {
+            return new ArrayList<>(attributeList);
+        }
+        ArrayList<Attribute> order = new ArrayList<>();
+        for (Attribute attr : baseOrder) {
+            if (!attributeList.contains(attr)) {
+                break;
+            }
+            order.add(attr);
+        }
+        return order;
+    }
+
     // If distinct, open consumes base operator input. Non-distinct project streams input like regular (upon call to next)
     @Override
     public boolean open() {
         int tuplesize = schema.getTupleSize(); // this is the projected schema (subschema)
-        this.batchSize = Batch.getPageSize() / tuplesize;
-        // precompute indices for projection
-        this.projectedIxes = new int[this.attributeList.size()];
-        for (int i = 0; i < this.projectedIxes.length; i++) {
-            Attribute attr = this.attributeList.get(i);
-            if (attr.getAggType() != Attribute.NONE) {
-                System.err.println("Aggregation is not implemented.");
-                System.exit(1);
+        this.batchSize = Batch.getExecBatchSize();
+        this.pageSize = Batch.getPageCapacity(tuplesize);
+        this.prepareProjection();
+        this.grouped = this.distinct && this.isGroupedInput();
+        this.prev = null;
+        if (this.distinct && !this.grouped) {
+            this.sortedRuns = new ArrayList<>();
+            this.inBuffers = new ArrayList<>(this.numBuff - 1);
+            if (!this.generateProjectedSortedRuns()) {
+                return false;
             }
-            // At this point attr is a base attribute, no need to call Attribute.getBaseAttribute();
-            this.projectedIxes[i] = this.base.getSchema().indexOf(attr);
-        }
-        if (this.base.open()) {
-            if (this.distinct) {
-                this.sortedRuns = new ArrayList<>();
-                this.inBuffers = new ArrayList<>(this.numBuff - 1);
-                this.generateProjectedSortedRuns();
-                this.mergeAndDedupRuns();
-            }            
+            this.mergeAndDedupRuns();
             return true;
-        } else {
-            return false;
         }
+        return this.base.open();
     }
 
     // Handles distinct next (involving merging sortedRuns) in separate method nextDistinct
     @Override
     public Batch next() {
-        if (this.distinct) {
+        if (this.distinct && !this.grouped) {
             return this.nextDistinct();
         } else {
             if (this.eos) {
                 return null;
             }
-            Batch outbatch = new Batch(this.batchSize);
+            Batch outbatch = newBatch(this.batchSize);
             while (!outbatch.isFull()) {
                 // no current input batch, try to read next
                 if (this.inbatch == null) {
@@ -102,14 +125,23 @@ public class Project extends Operator {
                         // no more input, close stream and set eos to return null on future nexts
                         this.eos = true;
                         base.close();
-                        return outbatch.isEmpty() ? null : outbatch;
+                        if (outbatch.isEmpty()) {
+                            release(outbatch);
+                            return null;
+                        }
+                        return outbatch;
                     }
                 }
                 // inbatch is not null
                 if (this.incur < this.inbatch.size()) {
-                    outbatch.add(this.project(this.inbatch.get(this.incur)));
+                    Tuple tuple = this.project(this.inbatch.get(this.incur));
+                    if (!this.grouped || this.prev == null || !tuple.equals(this.prev)) {
+                        outbatch.add(tuple);
+                        this.prev = tuple;
+                    }
                     this.incur++;
                 } else {
+                    base.release(this.inbatch);
                     this.incur = 0;
                     this.inbatch = null;
                 }
@@ -123,8 +155,8 @@ public class Project extends Operator {
         if (this.inBuffers.isEmpty()) {
             return null;
         }
-        Batch outbatch = new Batch(this.batchSize);
-        Tuple prev = null;
+        Batch outbatch = newBatch(this.batchSize);
+        // prev carries over from the previous batch, as its last tuple may still have duplicates in other runs
         while (!outbatch.isFull() && !this.inBuffers.isEmpty()) {
             
             int indexMin = 0;
@@ -133,7 +165,7 @@ public class Project extends Operator {
             while (indexCurr < this.inBuffers.size()) {
                 Tuple tup = this.inBuffers.get(indexCurr).peek();
                 // consume duplicates of prev, if prev exists and this buffer is not empty.
-                while (prev != null && tup != null && prev.equals(tup)) {
+                while (this.prev != null && tup != null && this.prev.equals(tup)) {
                     this.inBuffers.get(indexCurr).next();
                     tup = this.inBuffers.get(indexCurr).peek();
                 }
@@ -153,8 +185,8 @@ public class Project extends Operator {
             if (this.inBuffers.isEmpty()) {
                 break;
             }
-            prev = this.inBuffers.get(indexMin).next();
-            outbatch.add(prev);
+            this.prev = this.inBuffers.get(indexMin).next();
+            outbatch.add(this.prev);
         }
         return outbatch;
     }
@@ -167,32 +199,34 @@ public class Project extends Operator {
         return true;
     }
 
-    private void generateProjectedSortedRuns() {
-        Batch inbatch;
-        ArrayList<Batch> buffers = new ArrayList<>(this.numBuff);
-        while ((inbatch = this.base.next()) != null) {
-            buffers.add(inbatch);
-            if (buffers.size() == this.numBuff) {
+    // Fill numBuff pages worth of input tuples (counted in pages of the input, not in batches received),
+    // then sort and write them out. The tuples are buffered as base pushes them.
+    // Returns false if base fails to open
+    private boolean generateProjectedSortedRuns() {
+        int runSize = this.numBuff * Batch.getPageCapacity(this.base.getSchema().getTupleSize());
+        ArrayList<Tuple> buffers = new ArrayList<>(runSize);
+        boolean opened = this.base.pushTo(tuple -> {
+            buffers.add(tuple);
+            if (buffers.size() == runSize) {
                 sortAndWrite(buffers);
                 buffers.clear();
             }
-        }
+        });
         if (buffers.size() > 0) {
             sortAndWrite(buffers);
         }
-        this.base.close();
+        return opened;
     }
 
-    private void sortAndWrite(ArrayList<Batch> buffers) {
+    private void sortAndWrite(ArrayList<Tuple> buffers) {
         File sortedRun = new File(this.getUniqueFileName());
         this.sortedRuns.add(sortedRun);
-        TupleWriter out = new TupleWriter(sortedRun.getName(), this.batchSize);
+        TupleWriter out = new TupleWriter(sortedRun.getName(), this.pageSize);
         if (!out.open()) {
             System.err.println("Sort: Error in writing file");
             System.exit(1);
         }
         buffers.stream()
-            .flatMap(buff -> buff.stream())
             .map(this::project)
             .sorted()
             .distinct()
@@ -200,7 +234,21 @@ public class Project extends Operator {
         out.close();
     }
 
-    private Tuple project(Tuple inputTuple) {
+    // Precompute indices for projection, also used by the pipelines of the push engine
+    void prepareProjection() {
+        this.projectedIxes = new int[this.attributeList.size()];
+        for (int i = 0; i < this.projectedIxes.length; i++) {
+            Attribute attr = this.attributeList.get(i);
+            if (attr.getAggType() != Attribute.NONE) {
+                System.err.println("Aggregation is not implemented.");
+                System.exit(1);
+            }
+            // At this point attr is a base attribute, no need to call Attribute.getBaseAttribute();
+            this.projectedIxes[i] = this.base.getSchema().indexOf(attr);
+        }
+    }
+
+    Tuple project(Tuple inputTuple) {
         ArrayList<Object> projected = new ArrayList<>(this.projectedIxes.length);
         for (int i : this.projectedIxes) {
             projected.add(inputTuple.dataAt(i));
@@ -215,7 +263,7 @@ public class Project extends Operator {
             // single pass
             ArrayList<File> nextSortedRuns = new ArrayList<>();
             for (File sortedRun : this.sortedRuns) {
-                TupleReader in = new TupleReader(sortedRun.getName(), this.batchSize);
+                TupleReader in = new TupleReader(sortedRun.getName(), this.pageSize);
                 if (!in.open()) {
                     System.err.println("Sort: Error in opening sorted run for reading");
                     System.exit(1);
@@ -240,7 +288,7 @@ public class Project extends Operator {
 
         // Populate buffers ready to produce sorted output upon call to next()
         for (File sortedRun : this.sortedRuns) {
-            TupleReader in = new TupleReader(sortedRun.getName(), this.batchSize);
+            TupleReader in = new TupleReader(sortedRun.getName(), this.pageSize);
             if (!in.open()) {
                 System.err.println("Sort: Error in opening sorted run for reading");
                 System.exit(1);
@@ -251,7 +299,7 @@ public class Project extends Operator {
 
     private File mergeAndDedup() {
         File nextSortedRun = new File(this.getUniqueFileName());
-        TupleWriter outBuffer = new TupleWriter(nextSortedRun.getName(), this.batchSize);
+        TupleWriter outBuffer = new TupleWriter(nextSortedRun.getName(), this.pageSize);
         if (!outBuffer.open()) {
             System.err.println("Project: Error in opening file for writing");
             System.exit(1);
@@ -292,7 +340,13 @@ public class Project extends Operator {
     }
 
     private String getUniqueFileName() {
-        return "DISTINCT-" + (this.fileId++);
+        return this.newTempFileName("DISTINCT");
+    }
+
+    @Override
+    public void setContext(QueryContext context) {
+        super.setContext(context);
+        this.base.setContext(context);
     }
 
     public Object clone() {
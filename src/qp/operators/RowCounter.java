@@ -0,0 +1,141 @@
+/**
+ * Counts the tuples that pass from its base to the operator above it, and
+ * changes nothing else. The counters of the copies of a fragment that runs
+ * in parallel may share one count. In a pipeline it is a step of its own,
+ * and the pipeline tells it when its stream starts and ends. The count notes
+ * how many streams were started and how many were read to their end, which
+ * tells a complete count from one that missed the tail of an undrained input
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.QueryContext;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+public class RowCounter extends Operator {
+
+    Operator base;
+    final Count count;  // Tuples passed on, shared by the copies
+    boolean eos;        // Whether the stream last started has ended
+
+    public RowCounter(Operator base, Count count) {
+        super(OpType.COUNT);
+        this.base = base;
+        this.count = count;
+        setSchema(base.getSchema());
+    }
+
+    public Operator getBase() {
+        return base;
+    }
+
+    public void setBase(Operator base) {
+        this.base = base;
+    }
+
+    public Count getCount() {
+        return count;
+    }
+
+    /**
+     * Counts one tuple passed on by a pipeline
+     **/
+    public void count() {
+        count.tuples.increment();
+    }
+
+    /**
+     * Notes the start of a stream of the base
+     **/
+    public void start() {
+        eos = false;
+        count.started.increment();
+    }
+
+    /**
+     * Notes that the stream last started has passed on all its tuples
+     **/
+    public void finish() {
+        if (!eos) {
+            eos = true;
+            count.finished.increment();
+        }
+    }
+
+    public ArrayList<Attribute> getOutputOrder() {
+        return base.getOutputOrder();
+    }
+
+    public boolean open() {
+        start();
+        return base.open();
+    }
+
+    public Batch next() {
+        Batch batch = base.next();
+        if (batch == null) {
+            finish();
+        } else {
+            count.tuples.add(batch.size());
+        }
+        return batch;
+    }
+
+    /**
+     * The batches are the base's
+     **/
+    public void release(Batch batch) {
+        base.release(batch);
+    }
+
+    public boolean close() {
+        return base.close();
+    }
+
+    public boolean pushTo(TupleConsumer consumer) {
+        start();
+        if (!base.pushTo(tuple -> {
+            count.tuples.increment();
+            consumer.consume(tuple);
+        })) {
+            return false;
+        }
+        finish();
+        return true;
+    }
+
+    public void setContext(QueryContext context) {
+        super.setContext(context);
+        base.setContext(context);
+    }
+
+    public Object clone() {
+        return new RowCounter((Operator) base.clone(), count);
+    }
+
+    /**
+     * Tuples counted by the counters of one fragment, with the streams they started and ended
+     **/
+    public static class Count {
+        final LongAdder tuples = new LongAdder();
+        final LongAdder started = new LongAdder();
+        final LongAdder finished = new LongAdder();
+
+        public long getTuples() {
+            return tuples.sum();
+        }
+
+        /**
+         * Whether a stream was started and every stream started was read to its end,
+         * * that is whether the tuples counted are all the tuples of the fragment
+         **/
+        public boolean isComplete() {
+            long numStarted = started.sum();
+            return numStarted > 0 && finished.sum() == numStarted;
+        }
+    }
+}
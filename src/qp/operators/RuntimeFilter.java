@@ -0,0 +1,115 @@
+/**
+ * Runtime join filter: a Bloom filter on the join key of the right input
+ * of a join, built while the join materializes that input and tested by the
+ * scan of the table the left key comes from. Tuples of the scan whose key
+ * is not in the filter cannot find a partner and are dropped as they are
+ * read. Until the join has built the filter every tuple passes. A sort
+ * merge join builds its filters in the sort of its right input, which runs
+ * before the left input is read
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.BloomFilter;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+
+import java.util.ArrayList;
+
+public class RuntimeFilter {
+
+    final Attribute buildAttr;    // Join attribute of the right input
+    final Attribute probeAttr;    // Join attribute of the left input, a column of the scanned table
+    final BloomFilter bloom;
+    volatile boolean ready;       // Whether the whole right input has been added
+
+    long numTested;               // Tuples of the scan tested
+    long numDropped;              // Tuples of the scan dropped
+
+    /**
+     * Filter sized for the estimated number of distinct values of the right join attribute
+     **/
+    public RuntimeFilter(Attribute buildAttr, Attribute probeAttr, long distinctValues) {
+        this.buildAttr = buildAttr;
+        this.probeAttr = probeAttr;
+        bloom = new BloomFilter(distinctValues);
+    }
+
+    public Attribute getProbeAttr() {
+        return probeAttr;
+    }
+
+    /**
+     * Wraps the consumer of an input with the given schema so that its tuples
+     * * are added to the filters on their way. The filters are emptied first
+     **/
+    static TupleConsumer building(ArrayList<RuntimeFilter> filters, Schema schema, TupleConsumer consumer) {
+        if (filters.isEmpty()) {
+            return consumer;
+        }
+        int[] index = new int[filters.size()];
+        for (int i = 0; i < index.length; ++i) {
+            filters.get(i).reset();
+            index[i] = schema.indexOf(filters.get(i).buildAttr);
+        }
+        return tuple -> {
+            for (int i = 0; i < index.length; ++i) {
+                filters.get(i).add(tuple, index[i]);
+            }
+            consumer.consume(tuple);
+        };
+    }
+
+    static void publish(ArrayList<RuntimeFilter> filters) {
+        for (RuntimeFilter filter : filters) {
+            filter.publish();
+        }
+    }
+
+    /**
+     * Called before the input is read again
+     **/
+    void reset() {
+        ready = false;
+        bloom.clear();
+        numTested = 0;
+        numDropped = 0;
+    }
+
+    void add(Tuple tuple, int index) {
+        bloom.add(tuple.dataAt(index));
+    }
+
+    /**
+     * Called once the whole input has been added
+     **/
+    void publish() {
+        ready = true;
+    }
+
+    /**
+     * Whether the key of a tuple of the scan, at index, may have a partner
+     **/
+    boolean test(Tuple tuple, int index) {
+        if (!ready) {
+            return true;
+        }
+        numTested++;
+        if (bloom.mightContain(tuple.dataAt(index))) {
+            return true;
+        }
+        numDropped++;
+        return false;
+    }
+
+    /**
+     * Prints how many tuples of the scan were dropped
+     **/
+    void report(String tabname) {
+        if (ready) {
+            System.out.println("Runtime filter on " + probeAttr + " (" + bloom.getNumBits() + " bits): dropped "
+                    + numDropped + " of " + numTested + " tuples of " + tabname);
+        }
+    }
+}
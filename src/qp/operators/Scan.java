@@ -1,17 +1,25 @@
 /**
  * Scans the base relational table
+ *
+ * Tables in the paged layout are read page by page. A scan running as one of
+ * several copies takes morsels of pages from a dispatcher shared with the
+ * other copies; tables in the old layout are split by tuple position instead.
+ * Tuples failing one of the runtime filters of the scan are dropped as they
+ * are read
  **/
 
 package qp.operators;
 
 import qp.utils.Batch;
 import qp.utils.Schema;
+import qp.utils.TableFile;
 import qp.utils.Tuple;
 
 import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
 
 /**
  * Scan operator - read data from a file
@@ -21,8 +29,21 @@ public class Scan extends Operator {
     String filename;       // Corresponding file name
     String tabname;        // Table name
     int batchsize;         // Number of tuples per out batch;
-    ObjectInputStream in;  // Input file being scanned
+    ObjectInputStream in;  // Input file being scanned, for tables in the old layout
     boolean eos;           // To indicate whether end of stream reached or not
+    int partition = 0;     // Slice of the table read by this scan
+    int numPartitions = 1; // Number of slices the table is split into
+    long tupleNo;          // Position in the file of the next tuple read
+
+    TableFile table;             // Input file being scanned, for paged tables
+    MorselDispatcher morsels;    // Source of the pages to read when running in parallel
+    Batch page;                  // Current page of the table
+    int pagecurs;                // Cursor in the current page
+    int nextPage;                // Next page of the current morsel
+    int morselEnd;               // End of the current morsel
+
+    ArrayList<RuntimeFilter> runtimeFilters = new ArrayList<>();  // Filters built by joins above the scan
+    int[] filterIndex;           // Column tested by each filter
 
     /**
      * Constructor - just save filename
@@ -37,16 +58,70 @@ public class Scan extends Operator {
         return tabname;
     }
 
+    /**
+     * Restrict the scan to one of numPartitions disjoint slices of the table,
+     * * used when copies of the scan run in parallel
+     **/
+    public void setPartition(int partition, int numPartitions) {
+        this.partition = partition;
+        this.numPartitions = numPartitions;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public int getNumPartitions() {
+        return numPartitions;
+    }
+
+    /**
+     * Take the pages to read from a dispatcher shared with the other copies of this scan,
+     * * the partition number is the worker number
+     **/
+    public void setMorselDispatcher(MorselDispatcher morsels) {
+        this.morsels = morsels;
+    }
+
+    /**
+     * Drop the tuples whose value of the filter's attribute is not in the filter
+     **/
+    public void addRuntimeFilter(RuntimeFilter filter) {
+        runtimeFilters.add(filter);
+    }
+
     /**
      * Open file prepare a stream pointer to read input file
      */
     public boolean open() {
-        /** num of tuples per batch**/
-        int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        /** num of tuples per batch, the table itself must still fit a tuple in a page **/
+        Batch.getPageCapacity(schema.getTupleSize());
+        batchsize = Batch.getExecBatchSize();
         eos = false;
+        tupleNo = 0;
+        table = null;
+        filterIndex = new int[runtimeFilters.size()];
+        for (int i = 0; i < filterIndex.length; ++i) {
+            filterIndex[i] = schema.indexOf(runtimeFilters.get(i).getProbeAttr());
+        }
         try {
-            in = new ObjectInputStream(new FileInputStream(filename));
+            if (TableFile.isPaged(filename)) {
+                table = new TableFile(filename);
+                page = new Batch(table.getTuplesPerPage());
+                pagecurs = 0;
+                if (morsels != null) {
+                    morsels.init(table.getNumPages());
+                    nextPage = 0;
+                    morselEnd = 0;
+                } else {
+                    /** without a dispatcher each partition reads a fixed range of pages **/
+                    long numPages = table.getNumPages();
+                    nextPage = (int) (numPages * partition / numPartitions);
+                    morselEnd = (int) (numPages * (partition + 1) / numPartitions);
+                }
+            } else {
+                in = new ObjectInputStream(new FileInputStream(filename));
+            }
         } catch (Exception e) {
             System.err.println(" Error reading " + filename);
             return false;
@@ -60,14 +135,33 @@ public class Scan extends Operator {
     public Batch next() {
         /** The file reached its end and no more to read **/
         if (eos) {
+            for (RuntimeFilter filter : runtimeFilters) {
+                filter.report(tabname);
+            }
             close();
             return null;
         }
-        Batch tuples = new Batch(batchsize);
+        Batch tuples = newBatch(batchsize);
+        if (table != null) {
+            while (!tuples.isFull()) {
+                if (pagecurs == page.size() && !readNextPage()) {
+                    /** no more pages, the last batch may be incomplete **/
+                    eos = true;
+                    return tuples;
+                }
+                Tuple data = page.get(pagecurs++);
+                if (passesFilters(data)) {
+                    tuples.add(data);
+                }
+            }
+            return tuples;
+        }
         while (!tuples.isFull()) {
             try {
                 Tuple data = (Tuple) in.readObject();
-                tuples.add(data);
+                if (tupleNo++ % numPartitions == partition && passesFilters(data)) {
+                    tuples.add(data);
+                }
             } catch (ClassNotFoundException cnf) {
                 System.err.println("Scan:Class not found for reading file  " + filename);
                 System.exit(1);
@@ -85,13 +179,52 @@ public class Scan extends Operator {
         return tuples;
     }
 
+    private boolean passesFilters(Tuple tuple) {
+        for (int i = 0; i < filterIndex.length; ++i) {
+            if (!runtimeFilters.get(i).test(tuple, filterIndex[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next page of the current morsel, claiming a new morsel from the
+     * * dispatcher when needed. Returns false when there are no pages left
+     **/
+    private boolean readNextPage() {
+        page.clear();
+        pagecurs = 0;
+        while (page.isEmpty()) {
+            if (nextPage == morselEnd) {
+                int[] morsel = morsels == null ? null : morsels.next(partition);
+                if (morsel == null) {
+                    return false;
+                }
+                nextPage = morsel[0];
+                morselEnd = morsel[1];
+            }
+            try {
+                table.readPage(nextPage++, page);
+            } catch (IOException e) {
+                System.err.println("Scan:Error reading " + filename);
+                System.exit(1);
+            }
+        }
+        return true;
+    }
+
     /**
      * Close the file.. This routine is called when the end of filed
      * * is already reached
      **/
     public boolean close() {
         try {
-            in.close();
+            if (table != null) {
+                table.close();
+            } else {
+                in.close();
+            }
         } catch (IOException e) {
             System.err.println("Scan: Error closing " + filename);
             return false;
@@ -103,6 +236,8 @@ public class Scan extends Operator {
         String newtab = tabname;
         Scan newscan = new Scan(newtab, optype);
         newscan.setSchema((Schema) schema.clone());
+        newscan.setPartition(partition, numPartitions);
+        newscan.setMorselDispatcher(morsels);
         return newscan;
     }
 
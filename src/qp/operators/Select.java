@@ -6,6 +6,8 @@ package qp.operators;
 
 import qp.utils.*;
 
+import java.util.ArrayList;
+
 public class Select extends Operator {
 
     Operator base;  // Base operator
@@ -34,6 +36,10 @@ public class Select extends Operator {
         return base;
     }
 
+    public ArrayList<Attribute> getOutputOrder() {
+        return base.getOutputOrder();
+    }
+
     public void setBase(Operator base) {
         this.base = base;
     }
@@ -53,9 +59,8 @@ public class Select extends Operator {
         eos = false;  // Since the stream is just opened
         start = 0;    // Set the cursor to starting position in input buffer
 
-        /** Set number of tuples per page**/
-        int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        /** Set number of tuples per batch**/
+        batchsize = Batch.getExecBatchSize();
 
         if (base.open())
             return true;
@@ -76,7 +81,7 @@ public class Select extends Operator {
         }
 
         /** An output buffer is initiated **/
-        outbatch = new Batch(batchsize);
+        outbatch = newBatch(batchsize);
 
         /** keep on checking the incoming pages until
          ** the output buffer is full
@@ -106,10 +111,12 @@ public class Select extends Operator {
             /** Modify the cursor to the position requierd
              ** when the base operator is called next time;
              **/
-            if (i == inbatch.size())
+            if (i == inbatch.size()) {
+                base.release(inbatch);
                 start = 0;
-            else
+            } else {
                 start = i;
+            }
         }
         return outbatch;
     }
@@ -166,12 +173,12 @@ public class Select extends Operator {
                 System.out.println("Select: Incorrect condition operator");
             }
         } else if (datatype == Attribute.STRING) {
-            String srcVal = (String) srcValue;
             int flag = 0;
             if (con.getRhs() instanceof String) {
-                flag = srcVal.compareTo((String) con.getRhs());
+                flag = srcValue.toString().compareTo((String) con.getRhs());
             } else if (con.getRhs() instanceof Attribute) {
-                flag = srcVal.compareTo(((String) tuple.dataAt(schema.indexOf((Attribute) con.getRhs()))));
+                /** two columns of the same dictionary are compared on their codes **/
+                flag = Tuple.compareValues(srcValue, tuple.dataAt(schema.indexOf((Attribute) con.getRhs())));
             } else {
                 System.out.println("Select: Malformed condition");
             }
@@ -219,6 +226,11 @@ public class Select extends Operator {
         return false;
     }
 
+    public void setContext(QueryContext context) {
+        super.setContext(context);
+        base.setContext(context);
+    }
+
     public Object clone() {
         Operator newbase = (Operator) base.clone();
         Condition newcon = (Condition) con.clone();
@@ -6,24 +6,25 @@ import java.util.Comparator;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.QueryContext;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.TupleArena;
 import qp.utils.TupleReader;
 import qp.utils.TupleWriter;
 
 public class Sort extends Operator {
-    static int currentSortId = 0; // unique id for files between multiple sorts
-
     Operator base;
     int numBuff;
     ArrayList<Attribute> orderbyList;
     ArrayList<File> sortedRuns;
     ArrayList<TupleReader> inBuffers; // for multi-way merging
+    ArrayList<RuntimeFilter> runtimeFilters = new ArrayList<>(); // built from the input, for a merge join above
     int compareMultiplier; // -1 for descending sort, else 1
-    int batchSize;
-    int fileId; // unique id for files generated
-    int sortId;
+    int batchSize; // tuples per output batch
+    int pageSize; // tuples per page of the sorted runs
     boolean isDesc;
+    boolean passThrough; // whether the input already has the order and is passed on as it comes
 
     public Sort(Operator base, ArrayList<Attribute> orderbyList, boolean isDesc, int optype, int numBuff) {
         super(optype);
@@ -36,8 +37,6 @@ public class Sort extends Operator {
         this.numBuff = numBuff;
         this.sortedRuns = new ArrayList<>();
         this.inBuffers = new ArrayList<>(this.numBuff - 1);
-        this.fileId = 0;
-        this.sortId = Sort.currentSortId++;
     }
 
     public Operator getBase() {
@@ -52,6 +51,29 @@ public class Sort extends Operator {
         return orderbyList;
     }
 
+    public boolean isDesc() {
+        return isDesc;
+    }
+
+    public int getNumBuff() {
+        return numBuff;
+    }
+
+    /**
+     * Whether the input is already in the order of the sort, so that it
+     * * need not be sorted again
+     **/
+    public boolean isPresorted() {
+        return !isDesc && isSortedOn(base.getOutputOrder(), orderbyList);
+    }
+
+    public ArrayList<Attribute> getOutputOrder() {
+        if (isDesc) {
+            return new ArrayList<>();
+        }
+        return isPresorted() ? base.getOutputOrder() : new ArrayList<>(orderbyList);
+    }
+
     // Prepare pipeline for producing sorted output. Take note that since sorting is 
     // not a very streamable operation, given that it has a preparation phase (generating and merging
     // sorted runs), open already consumes output of base Operator (hence effectively consuming the
@@ -61,9 +83,14 @@ public class Sort extends Operator {
     public boolean open() {
         this.setSchema(base.getSchema());
         int tuplesize = schema.getTupleSize();
-        this.batchSize = Batch.getPageSize() / tuplesize;
-        if (this.base.open()) {
-            this.generateSortedRuns();
+        this.batchSize = Batch.getExecBatchSize();
+        this.pageSize = Batch.getPageCapacity(tuplesize);
+        // runtime filters have to be complete before the sort returns, which needs the whole input
+        this.passThrough = this.runtimeFilters.isEmpty() && this.isPresorted();
+        if (this.passThrough) {
+            return this.base.open();
+        }
+        if (this.generateSortedRuns()) {
             this.mergeRuns();
             return true;
         } else {
@@ -73,10 +100,13 @@ public class Sort extends Operator {
 
     @Override
     public Batch next() {
+        if (this.passThrough) {
+            return this.base.next();
+        }
         if (this.inBuffers.isEmpty()) {
             return null;
         }
-        Batch outbatch = new Batch(this.batchSize);
+        Batch outbatch = newBatch(this.batchSize);
         while (!outbatch.isFull() && !this.inBuffers.isEmpty()) {
             
             int indexMin = 0;
@@ -108,46 +138,115 @@ public class Sort extends Operator {
         return outbatch;
     }
 
+    @Override
+    public void release(Batch batch) {
+        if (this.passThrough) {
+            this.base.release(batch);
+        } else {
+            super.release(batch);
+        }
+    }
+
     @Override
     public boolean close() {
+        if (this.passThrough) {
+            this.passThrough = false;
+            return this.base.close();
+        }
+        // the consumer may stop before the runs are read to the end, e.g. a merge join
+        // whose other input ran out first; the runs left over are removed here
+        for (TupleReader in : this.inBuffers) {
+            in.close();
+        }
+        for (File sortedRun : this.sortedRuns) {
+            sortedRun.delete();
+        }
         this.inBuffers.clear(); // make sure subsequent calls to next return null
+        this.sortedRuns.clear();
         return true;
     }
 
-    // Read in numBuff buffers from base, then sort and write them out into different files
-    private void generateSortedRuns() {
-        Batch inbatch;
-        ArrayList<Batch> buffers = new ArrayList<>(this.numBuff);
-        while ((inbatch = this.base.next()) != null) {
-            buffers.add(inbatch);
-            if (buffers.size() == this.numBuff) {
+    // An input that is already in order is pushed on directly
+    @Override
+    public boolean pushTo(TupleConsumer consumer) {
+        if (this.runtimeFilters.isEmpty() && this.isPresorted()) {
+            return this.base.pushTo(consumer);
+        }
+        return super.pushTo(consumer);
+    }
+
+    // Build the filter from the input of the sort, see RuntimeFilter
+    public void addRuntimeFilter(RuntimeFilter filter) {
+        runtimeFilters.add(filter);
+    }
+
+    // Read in numBuff buffers from base, then sort and write them out into different files.
+    // Buffers are counted in pages, independently of the size of the batches received from base.
+    // The buffered tuples are kept off-heap, copied as base pushes them; a run also ends early when
+    // their encoding fills the bytes of the buffers. Returns false if base fails to open
+    private boolean generateSortedRuns() {
+        TupleArena buffers = new TupleArena(TupleArena.pagesToBytes(this.numBuff, base.getSchema()));
+        int runSize = this.numBuff * this.pageSize;
+        boolean opened = this.base.pushTo(RuntimeFilter.building(runtimeFilters, base.getSchema(), tuple -> {
+            if (!buffers.add(tuple)) {
                 sortAndWrite(buffers);
                 buffers.clear();
+                if (!buffers.add(tuple)) {
+                    System.err.println("Sort: a tuple does not fit in the buffers");
+                    System.exit(1);
+                }
             }
-        }
+            if (buffers.size() == runSize) {
+                sortAndWrite(buffers);
+                buffers.clear();
+            }
+        }));
         // sort and write out any remaining buffers 
-        if (buffers.size() > 0) {
+        if (!buffers.isEmpty()) {
             sortAndWrite(buffers);
         }
-        this.base.close();
+        RuntimeFilter.publish(runtimeFilters);
+        return opened;
     }
 
-    // Perform in-memory sort of our ArrayList of buffers, then write it out into a new file (stored in sortedRuns)
-    private void sortAndWrite(ArrayList<Batch> buffers) {
+    // Perform in-memory sort of the buffered tuples, then write it out into a new file (stored in sortedRuns).
+    // Only the row positions are sorted, rows are decoded one at a time as they are written
+    private void sortAndWrite(TupleArena buffers) {
         File sortedRun = new File(this.getUniqueFileName());
         sortedRuns.add(sortedRun);
-        TupleWriter out = new TupleWriter(sortedRun.getName(), this.batchSize);
+        TupleWriter out = new TupleWriter(sortedRun.getName(), this.pageSize);
         if (!out.open()) {
             System.err.println("Sort: Error in writing file");
             System.exit(1);
         }
-        buffers.stream()
-            .flatMap(buff -> buff.stream())
-            .sorted(getOrder())
-            .forEachOrdered(tup -> out.next(tup)); // stream output into file single batch at a time
+        int[] rows = new int[buffers.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        TupleArena.sort(rows, getArenaOrder(buffers));
+        for (int row : rows) {
+            out.next(buffers.get(row)); // stream output into file single batch at a time
+        }
         out.close();
     }
 
+    // Same order as getOrder(), comparing rows of the arena in place
+    private TupleArena.RowComparator getArenaOrder(TupleArena buffers) {
+        int[] compIxes = new int[orderbyList.size()];
+        for (int i = 0; i < compIxes.length; i++) {
+            compIxes[i] = this.getSchema().indexOf(orderbyList.get(i));
+        }
+        return (r1, r2) -> {
+            for (int compIx : compIxes) {
+                int res = this.compareMultiplier * buffers.compareColumns(r1, r2, compIx);
+                if (res != 0) {
+                    return res;
+                }
+            }
+            return 0;
+        };
+    }
+
     // Sorting order of tuples given by this comparator. Compares each attribute in the orderbylist
     // in declared order, only checking the next attribute if the 2 tuples are equal on this attribute
     // Reverses order if descending (compareMultiplier is -1 for descending)
@@ -171,7 +270,7 @@ public class Sort extends Operator {
             // and write them out again.
             ArrayList<File> nextSortedRuns = new ArrayList<>();
             for (File sortedRun : this.sortedRuns) {
-                TupleReader in = new TupleReader(sortedRun.getName(), this.batchSize);
+                TupleReader in = new TupleReader(sortedRun.getName(), this.pageSize);
                 if (!in.open()) {
                     System.err.println("Sort: Error in opening sorted run for reading");
                     System.exit(1);
@@ -197,7 +296,7 @@ public class Sort extends Operator {
 
         // Populate buffers ready to produce sorted output upon call to next()
         for (File sortedRun : this.sortedRuns) {
-            TupleReader in = new TupleReader(sortedRun.getName(), this.batchSize);
+            TupleReader in = new TupleReader(sortedRun.getName(), this.pageSize);
             if (!in.open()) {
                 System.err.println("Sort: Error in opening sorted run for reading");
                 System.exit(1);
@@ -210,7 +309,7 @@ public class Sort extends Operator {
     // Returns a File object representing this sorted run stored on disk
     private File merge() {
         File nextSortedRun = new File(this.getUniqueFileName());
-        TupleWriter outBuffer = new TupleWriter(nextSortedRun.getName(), this.batchSize);
+        TupleWriter outBuffer = new TupleWriter(nextSortedRun.getName(), this.pageSize);
         if (!outBuffer.open()) {
             System.err.println("Sort: Error in opening file for writing");
             System.exit(1);
@@ -244,7 +343,13 @@ public class Sort extends Operator {
     }
 
     private String getUniqueFileName() {
-        return "SORT" + (this.sortId) + "-" + (this.fileId++);
+        return this.newTempFileName("SORT");
+    }
+
+    @Override
+    public void setContext(QueryContext context) {
+        super.setContext(context);
+        this.base.setContext(context);
     }
 
     public Object clone() {
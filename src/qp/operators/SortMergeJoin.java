@@ -8,7 +8,11 @@ import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
 import qp.utils.Tuple;
+import qp.utils.TupleArena;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
 
+import java.io.File;
 import java.util.ArrayList;
 
 public class SortMergeJoin extends Join {
@@ -26,11 +30,13 @@ public class SortMergeJoin extends Join {
     boolean eosr; // Whether end of stream (right table) is reached
 
     Tuple leftTuple; // Current left tuple
-    Tuple rightTuple; // Current right tuple
-    ArrayList<Batch> partition = new ArrayList<>(); // Current partition
-    boolean isNewPartition = true;
-    int partitionBatchNo = 0; // Pointer to current partition batch
-    int partitionTupleNo = 0; // Pointer to current tuple in current partition batch
+    Tuple rightTuple; // Current right tuple, the first one after the partition if there is one
+    TupleArena partition; // Right tuples with the key of the current left tuple, kept off-heap
+    Tuple groupKey; // First right tuple of the partition, whose key the partition has; null if there is none
+    boolean isPartitionOpen = false; // Whether the current left tuple is being joined with the partition
+    int partitionTupleNo = 0; // Pointer to the next tuple of the partition in memory
+    String spillfile; // Right tuples of the partition beyond its memory, null if it fits
+    TupleReader spillReader; // Reads the spilled tuples for the current left tuple
 
     public SortMergeJoin(Join jn) {
         super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
@@ -45,8 +51,7 @@ public class SortMergeJoin extends Join {
      **/
     public boolean open() {
         /** select number of tuples per batch **/
-        int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Batch.getExecBatchSize();
 
         /** find indices attributes of join conditions **/
         leftindex = new ArrayList<>();
@@ -63,71 +68,74 @@ public class SortMergeJoin extends Join {
         rcurs = 0;
         eosl = false;
         eosr = false;
-
-        return left.open() && right.open();
+        leftTuple = null;
+        rightTuple = null;
+
+        /** the partition gets the buffers not used for the two inputs and the output **/
+        partition = new TupleArena(TupleArena.pagesToBytes(numBuff - 3, right.getSchema()));
+        isPartitionOpen = false;
+        groupKey = null;
+        spillfile = null;
+
+        // the right input is sorted first, so that runtime filters built by its sort
+        // are ready when the left input is read
+        return right.open() && left.open();
     }
 
     /**
      * from input buffers selects the tuples satisfying join condition * And returns
-     * a page of output tuples
+     * a page of output tuples. The right tuples with equal keys are read once into
+     * the partition, and each left tuple with that key is joined with all of them
      **/
     public Batch next() {
-        if (eosl || eosr) {
-            left.close();
-            right.close();
-            return null;
-        }
-
-        if (leftTuple == null) {
+        if (leftTuple == null && !eosl) {
             // handles first call
             leftbatch = left.next();
             rightbatch = right.next();
             advanceLeft();
             advanceRight();
         }
-        outbatch = new Batch(batchsize);
-
-        while (!outbatch.isFull() && !eosl && !eosr) {
+        outbatch = newBatch(batchsize);
+
+        while (!outbatch.isFull()) {
+            if (isPartitionOpen) {
+                Tuple outTuple = nextFromPartition();
+                if (outTuple != null) {
+                    outbatch.add(outTuple);
+                    continue;
+                }
+                // the left tuple is joined with the whole partition, which the next left tuple may also match
+                advanceLeft();
+                if (!eosl && Tuple.compareTuples(leftTuple, groupKey, leftindex, rightindex) == 0) {
+                    openPartition();
+                } else {
+                    isPartitionOpen = false;
+                    clearPartition();
+                }
+                continue;
+            }
+            if (eosl || eosr) {
+                break;
+            }
             int compare = Tuple.compareTuples(leftTuple, rightTuple, leftindex, rightindex);
-
             if (compare < 0) {
                 // left is smaller than right
                 advanceLeft();
-                // backtrack on the current partition if it exists
-                if (!partition.isEmpty()) {
-                    backtrackPartition();
-                }
             } else if (compare > 0) {
                 // right is smaller than left
-                if (!partition.isEmpty()) {
-                    // clear partition as it will no longer match with any left tuples
-                    clearPartition();
-                    // return rightTuple to the position after the partition
-                    rightTuple = rightbatch.get(rcurs - 1);
-                } else {
-                    advanceRight();
-                }
+                advanceRight();
             } else {
-                // tuples satisfy the join condition
-                Tuple outTuple = leftTuple.joinWith(rightTuple);
-                outbatch.add(outTuple);
-
-                // if partition is new, we must start building up a new partition for future left tuples to refer to
-                if (isNewPartition) {
-                    addToPartition();
-                    advanceRight();
-                } else {
-                    // if we reached the end of the partition, backtrack to the start and advance left ptr
-                    if (isEndOfPartition()) {
-                        backtrackPartition();
-                        advanceLeft();
-                    } else {
-                        // if we are halfway through the partition, continue iterating through it
-                        advancePartition();
-                    }
-                }
+                // tuples satisfy the join condition, read all the right tuples with this key
+                buildPartition();
+                openPartition();
             }
         }
+
+        if (outbatch.isEmpty()) {
+            release(outbatch);
+            close();
+            return null;
+        }
         return outbatch;
     }
 
@@ -135,6 +143,9 @@ public class SortMergeJoin extends Join {
      * Close the operator
      */
     public boolean close() {
+        clearPartition();
+        left.close();
+        right.close();
         return true;
     }
 
@@ -149,6 +160,7 @@ public class SortMergeJoin extends Join {
         // Get new batch if reached end of current batch
         if (lcurs == leftbatch.size()) {
             lcurs = 0;
+            left.release(leftbatch);
             leftbatch = left.next();
         }
 
@@ -175,6 +187,7 @@ public class SortMergeJoin extends Join {
         // Get new batch if reached end of current batch
         if (rcurs == rightbatch.size()) {
             rcurs = 0;
+            right.release(rightbatch);
             rightbatch = right.next();
         }
 
@@ -190,60 +203,85 @@ public class SortMergeJoin extends Join {
         rcurs += 1;
     }
 
-    private void addToPartition() {
-        // Assumes that partition fits in memory
-        Batch currentBatch;
-
-        // handles first buffer
-        if (partition.isEmpty()) {
-            currentBatch = new Batch(batchsize);
-            partition.add(currentBatch);
-        } else {
-            currentBatch = partition.get(partitionBatchNo);
-        }
-
-        // add tuple to batch, creating new batch if necessary
-        if (currentBatch.isFull()) {
-            Batch newBatch = new Batch(batchsize);
-            newBatch.add(rightTuple);
-            partition.add(newBatch);
-        } else {
-            currentBatch.add(rightTuple);
+    /**
+     * Reads the right tuples with the key of the current right tuple into the
+     * * partition, comparing their keys with the first of them, which is kept as
+     * * groupKey. Those beyond the bytes of the partition go to a spill file; if
+     * * the buffers do not hold even one encoded tuple, all of them do
+     **/
+    private void buildPartition() {
+        TupleWriter spill = null;
+        groupKey = rightTuple;
+        do {
+            if (spill == null && !partition.add(rightTuple)) {
+                spillfile = newTempFileName("SMJ");
+                spill = new TupleWriter(spillfile, Batch.getPageCapacity(right.getSchema().getTupleSize()));
+                if (!spill.open()) {
+                    System.err.println("SortMergeJoin: Error in writing the partition");
+                    System.exit(1);
+                }
+            }
+            if (spill != null) {
+                spill.next(rightTuple);
+            }
+            advanceRight();
+        } while (!eosr && Tuple.compareTuples(rightTuple, groupKey, rightindex, rightindex) == 0);
+        if (spill != null) {
+            spill.close();
         }
     }
 
-    private void advancePartition() {
-        if (partitionTupleNo == batchsize - 1) {
-            // get a new batch if we have reached the end of the current one
-            partitionBatchNo += 1;
-            partitionTupleNo = 0;
-        } else {
-            // else just advance the ptr in the current batch
-            partitionTupleNo += 1;
-        }
-        rightTuple = partition.get(partitionBatchNo)
-                              .get(partitionTupleNo);
+    /**
+     * Starts joining the current left tuple with the partition
+     **/
+    private void openPartition() {
+        isPartitionOpen = true;
+        partitionTupleNo = 0;
+        if (spillfile != null) {
+            if (spillReader != null) {
+                spillReader.close();
+            }
+            spillReader = new TupleReader(spillfile, Batch.getPageCapacity(right.getSchema().getTupleSize()));
+            if (!spillReader.open()) {
+                System.err.println("SortMergeJoin: Error in reading the partition");
+                System.exit(1);
+            }
+        }
     }
 
-    private void backtrackPartition() {
-        // set rightTuple to the start of the partition
-        isNewPartition = false;
-        partitionBatchNo = 0;
-        partitionTupleNo = 0;
-        rightTuple = partition.get(partitionBatchNo)
-                              .get(partitionTupleNo);
+    /**
+     * The current left tuple joined with the next tuple of the partition, null
+     * * once it has been joined with all of them
+     **/
+    private Tuple nextFromPartition() {
+        if (partitionTupleNo < partition.size()) {
+            return partition.joinWith(leftTuple, partitionTupleNo++);
+        }
+        if (spillReader != null) {
+            Tuple spilled = spillReader.next();
+            if (spilled != null) {
+                return leftTuple.joinWith(spilled);
+            }
+            spillReader.close();
+            spillReader = null;
+        }
+        return null;
     }
 
     private void clearPartition() {
         // clear the current right partition
-        isNewPartition = true;
-        partition = new ArrayList<>();
-        partitionBatchNo = 0;
+        if (partition != null) {
+            partition.clear();
+        }
+        groupKey = null;
         partitionTupleNo = 0;
-    }
-
-    private boolean isEndOfPartition() {
-        return (partitionBatchNo == partition.size() - 1 &&
-                partitionTupleNo == partition.get(partitionBatchNo).size() - 1);
+        if (spillReader != null) {
+            spillReader.close();
+            spillReader = null;
+        }
+        if (spillfile != null) {
+            new File(spillfile).delete();
+            spillfile = null;
+        }
     }
 }
@@ -0,0 +1,12 @@
+/**
+ * Receives the tuples an operator pushes out (see Operator.pushTo)
+ **/
+
+package qp.operators;
+
+import qp.utils.Tuple;
+
+public interface TupleConsumer {
+
+    void consume(Tuple tuple);
+}
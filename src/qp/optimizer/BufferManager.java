@@ -6,18 +6,18 @@ package qp.optimizer;
 
 public class BufferManager {
 
-    static int numBuffer;
-    static int numJoinAndSort;
+    int numBuffer;
+    int numJoinAndSort;
 
-    static int buffPerJoinAndSort;
+    int buffPerJoinAndSort;
 
     public BufferManager(int numBuffer, int numJoinAndSort) {
         this.numBuffer = numBuffer;
         this.numJoinAndSort = numJoinAndSort;
-        buffPerJoinAndSort = numBuffer / numJoinAndSort;
+        buffPerJoinAndSort = numJoinAndSort == 0 ? numBuffer : numBuffer / numJoinAndSort;
     }
 
-    public static int getBuffersPerJoinAndSort() {
+    public int getBuffersPerJoinAndSort() {
         return buffPerJoinAndSort;
     }
 
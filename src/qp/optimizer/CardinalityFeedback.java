@@ -0,0 +1,233 @@
+/**
+ * Cardinality feedback: the tuples each select and join of a query actually
+ * produced, kept in a store for the optimizations of later queries.
+ *
+ * Before a plan runs, instrument puts a RowCounter above each of its selects
+ * and joins, and notes what PlanCost estimates for it. The counters of the
+ * copies of a parallel fragment share the count of their predicate set.
+ * Once the plan has run, record prints the estimate and the observed count
+ * of each predicate set and writes the observed selectivity to the store:
+ * the tuples produced over the product of the sizes of the tables. PlanCost
+ * then takes the tuples of a subtree with a stored predicate set from that
+ * selectivity and the present sizes of its tables, in place of its formulas.
+ * A set is only recorded if each of its counters read its input to the end:
+ * below an operator that stops early, such as a merge join once one side is
+ * exhausted, the count would be short of the tuples the set produces.
+ *
+ * The store is a text file with one line per predicate set: the tuples
+ * observed, the product of the sizes of the tables at the time, and the key
+ * of the predicate set. A later observation of a set replaces the earlier
+ **/
+
+package qp.optimizer;
+
+import qp.operators.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CardinalityFeedback {
+
+    static String filename = null;   // Store of the observations, null if feedback is off
+
+    /**
+     * Observations of the store as last read, by key
+     **/
+    static ConcurrentHashMap<String, Observation> observations = new ConcurrentHashMap<>();
+    static long lastModified = -1;
+    static long length = -1;
+
+    /**
+     * Predicate sets of the plan being run, in plan order, by key
+     **/
+    final LinkedHashMap<String, Counted> counted = new LinkedHashMap<>();
+    final HashSet<Object> channels = new HashSet<>();  // Exchanges whose producers are instrumented
+
+    public static void setFile(String filename) {
+        CardinalityFeedback.filename = filename;
+    }
+
+    public static boolean isEnabled() {
+        return filename != null;
+    }
+
+    /**
+     * Tuples of the subtree from the selectivity observed for its predicate
+     * * set, -1 if no run has observed it
+     **/
+    public static long estimate(Operator node) {
+        PredicateSet set = PredicateSet.of(node);
+        if (set == null || set.isPartitioned()) {
+            return -1;
+        }
+        Observation observation = load().get(set.getKey());
+        if (observation == null) {
+            return -1;
+        }
+        if (observation.product <= 0) {
+            return observation.tuples;
+        }
+        return (long) Math.ceil(observation.tuples / observation.product * crossProduct(set));
+    }
+
+    /**
+     * Puts a RowCounter above each select and join of the plan. Returns the new root
+     **/
+    public Operator instrument(Operator node) {
+        switch (node.getOpType()) {
+            case OpType.SELECT: {
+                Select select = (Select) node;
+                Operator counter = count(select);
+                select.setBase(instrument(select.getBase()));
+                return counter;
+            }
+            case OpType.JOIN: {
+                Join join = (Join) node;
+                Operator counter = count(join);
+                join.setLeft(instrument(join.getLeft()));
+                join.setRight(instrument(join.getRight()));
+                return counter;
+            }
+            case OpType.PROJECT: {
+                Project project = (Project) node;
+                project.setBase(instrument(project.getBase()));
+                return project;
+            }
+            case OpType.SORT: {
+                Sort sort = (Sort) node;
+                sort.setBase(instrument(sort.getBase()));
+                return sort;
+            }
+            case OpType.EXCHANGE: {
+                Exchange exchange = (Exchange) node;
+                if (channels.add(exchange.getChannel())) {
+                    for (int i = 0; i < exchange.getProducers().size(); ++i) {
+                        exchange.getProducers().set(i, instrument(exchange.getProducers().get(i)));
+                    }
+                }
+                return exchange;
+            }
+            default:
+                return node;
+        }
+    }
+
+    /**
+     * A counter above the node, sharing the count of its predicate set with
+     * * the other copies of the node. The node itself if it has no predicate set
+     **/
+    private Operator count(Operator node) {
+        PredicateSet set = PredicateSet.of(node);
+        if (set == null) {
+            return node;
+        }
+        PlanCost pc = new PlanCost();
+        pc.getCost(node);
+        Counted entry = counted.computeIfAbsent(set.getKey(), key -> new Counted(set));
+        entry.estimate += pc.getNumTuples();
+        return new RowCounter(node, entry.count);
+    }
+
+    /**
+     * Prints the estimated and observed tuples of each predicate set of the
+     * * plan, which has run, and writes the observations to the store
+     **/
+    public void record() {
+        TreeMap<String, Observation> store = new TreeMap<>(load());
+        for (Counted entry : counted.values()) {
+            if (!entry.count.isComplete()) {
+                System.out.println("CardinalityFeedback: " + entry.set.getKey() + " estimated "
+                        + entry.estimate + ", not recorded as its input was not read to the end");
+                continue;
+            }
+            long observed = entry.count.getTuples();
+            System.out.println("CardinalityFeedback: " + entry.set.getKey() + " estimated "
+                    + entry.estimate + ", observed " + observed);
+            store.put(entry.set.getKey(), new Observation(observed, crossProduct(entry.set)));
+        }
+        File file = new File(filename);
+        File temp = new File(filename + ".tmp");
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(temp)))) {
+            for (Map.Entry<String, Observation> e : store.entrySet()) {
+                out.println(e.getValue().tuples + "\t" + e.getValue().product + "\t" + e.getKey());
+            }
+        } catch (IOException io) {
+            System.out.println("CardinalityFeedback: error in writing " + temp);
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException io) {
+            System.out.println("CardinalityFeedback: error in replacing " + filename);
+        }
+    }
+
+    /**
+     * Product of the numbers of tuples of the tables of the set
+     **/
+    private static double crossProduct(PredicateSet set) {
+        double product = 1;
+        for (String tabname : set.getTableNames()) {
+            product *= PlanCost.readStatistics(tabname + ".stat").numtuples;
+        }
+        return product;
+    }
+
+    /**
+     * The observations of the store, read again if it has changed since it was last read
+     **/
+    private static synchronized ConcurrentHashMap<String, Observation> load() {
+        File file = new File(filename);
+        if (file.lastModified() == lastModified && file.length() == length) {
+            return observations;
+        }
+        ConcurrentHashMap<String, Observation> read = new ConcurrentHashMap<>();
+        if (file.exists()) {
+            try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t", 3);
+                    if (fields.length == 3) {
+                        read.put(fields[2], new Observation(Long.parseLong(fields[0]), Double.parseDouble(fields[1])));
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("incorrect format of feedback file " + filename);
+                System.exit(1);
+            }
+        }
+        observations = read;
+        lastModified = file.lastModified();
+        length = file.length();
+        return observations;
+    }
+
+    static class Observation {
+        final long tuples;      // Tuples the predicate set produced
+        final double product;   // Product of the sizes of its tables at the time
+
+        Observation(long tuples, double product) {
+            this.tuples = tuples;
+            this.product = product;
+        }
+    }
+
+    /**
+     * A predicate set of the plan being run
+     **/
+    static class Counted {
+        final PredicateSet set;
+        final RowCounter.Count count = new RowCounter.Count();  // Tuples counted by its counters
+        long estimate;                                          // Tuples estimated by PlanCost, over all its copies
+
+        Counted(PredicateSet set) {
+            this.set = set;
+        }
+    }
+}
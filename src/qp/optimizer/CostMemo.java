@@ -0,0 +1,147 @@
+/**
+ * Memo of the costs of plan subtrees, shared by the PlanCost objects of one
+ * optimization. A subtree is identified by a canonical signature built from
+ * its operators, tables, conditions, join methods and buffers, so equal
+ * subtrees of different plans (a neighbor and the plan it was derived from,
+ * or the candidate joins of the dynamic programming optimizer) are costed
+ * once. For each signature the memo keeps the cost of the subtree, the
+ * number of tuples it produces and the distinct values of its attributes.
+ *
+ * A memo is only valid while the page size and the statistics files stay
+ * the same, so it is made for one optimization and then dropped. It may be
+ * shared by the threads of a parallel search; two threads costing the same
+ * subtree at once both put the same entry
+ **/
+
+package qp.optimizer;
+
+import qp.operators.*;
+import qp.utils.Attribute;
+import qp.utils.Condition;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CostMemo {
+
+    /**
+     * What costing a subtree adds to the plan cost
+     **/
+    static class Entry {
+        final long cost;                           // Cost of the subtree
+        final long cpucost;                        // Part of it that is CPU work
+        final long numtuples;                      // Tuples produced
+        final boolean isFeasible;                  // Whether every join of the subtree has enough buffers
+        final HashMap<Attribute, Long> distinct;   // Distinct values of the attributes of its schema
+
+        Entry(long cost, long cpucost, long numtuples, boolean isFeasible, HashMap<Attribute, Long> distinct) {
+            this.cost = cost;
+            this.cpucost = cpucost;
+            this.numtuples = numtuples;
+            this.isFeasible = isFeasible;
+            this.distinct = distinct;
+        }
+    }
+
+    ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    LongAdder hits = new LongAdder();
+    LongAdder misses = new LongAdder();
+
+    Entry get(String signature) {
+        Entry entry = entries.get(signature);
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    void put(String signature, Entry entry) {
+        entries.put(signature, entry);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Canonical signature of a subtree, null if it cannot be memoized: the
+     * * cost of an exchange depends on the other consumers of its producers
+     **/
+    static String signature(Operator node) {
+        StringBuilder sb = new StringBuilder();
+        return appendSignature(node, sb) ? sb.toString() : null;
+    }
+
+    private static boolean appendSignature(Operator node, StringBuilder sb) {
+        switch (node.getOpType()) {
+            case OpType.SCAN: {
+                Scan scan = (Scan) node;
+                sb.append(scan.getTabName());
+                if (scan.getNumPartitions() > 1) {
+                    sb.append('/').append(scan.getNumPartitions());
+                }
+                return true;
+            }
+            case OpType.SELECT: {
+                Select select = (Select) node;
+                sb.append("S(");
+                appendCondition(select.getCondition(), sb);
+                sb.append(',');
+                if (!appendSignature(select.getBase(), sb)) {
+                    return false;
+                }
+                sb.append(')');
+                return true;
+            }
+            case OpType.PROJECT: {
+                Project project = (Project) node;
+                sb.append(project.isDistinct() ? "D" + project.getNumBuff() : "P").append(project.getProjAttr()).append('(');
+                if (!appendSignature(project.getBase(), sb)) {
+                    return false;
+                }
+                sb.append(')');
+                return true;
+            }
+            case OpType.SORT: {
+                Sort sort = (Sort) node;
+                sb.append(sort.isDesc() ? "O-" : "O").append(sort.getNumBuff()).append(sort.getOrderByList()).append('(');
+                if (!appendSignature(sort.getBase(), sb)) {
+                    return false;
+                }
+                sb.append(')');
+                return true;
+            }
+            case OpType.JOIN: {
+                Join join = (Join) node;
+                sb.append('J').append(join.getJoinType()).append('/').append(join.getNumBuff()).append('[');
+                for (Condition con : join.getConditionList()) {
+                    appendCondition(con, sb);
+                    sb.append(';');
+                }
+                sb.append("](");
+                if (!appendSignature(join.getLeft(), sb)) {
+                    return false;
+                }
+                sb.append(',');
+                if (!appendSignature(join.getRight(), sb)) {
+                    return false;
+                }
+                sb.append(')');
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    private static void appendCondition(Condition con, StringBuilder sb) {
+        sb.append(con.getLhs()).append(' ').append(con.getExprType()).append(' ').append(con.getRhs());
+    }
+}
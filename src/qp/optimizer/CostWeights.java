@@ -0,0 +1,87 @@
+/**
+ * Weights of the CPU work of a plan, in page I/Os: what deserializing one
+ * tuple, evaluating one comparison and hashing or probing one tuple cost
+ * against reading one page. PlanCost adds the weighted counts of this work
+ * to the pages a plan reads and writes. All weights are 0 unless they are
+ * read from a file, so plans are costed on their I/O alone by default.
+ *
+ * The file, written by Calibrate from the timings of the operators on this
+ * machine, has one name=value line per weight; lines starting with # and
+ * names it does not know are skipped
+ **/
+
+package qp.optimizer;
+
+import java.io.*;
+
+public class CostWeights {
+
+    final double tuple;        // Deserializing a tuple read from a table or a temporary file
+    final double comparison;   // Evaluating a condition on a tuple, or comparing two tuples on their keys
+    final double hash;         // Hashing a tuple into a hash table or probing the table with it
+
+    public CostWeights(double tuple, double comparison, double hash) {
+        this.tuple = tuple;
+        this.comparison = comparison;
+        this.hash = hash;
+    }
+
+    public double getTuple() {
+        return tuple;
+    }
+
+    public double getComparison() {
+        return comparison;
+    }
+
+    public double getHash() {
+        return hash;
+    }
+
+    /**
+     * Writes the weights to the file, after a comment line
+     **/
+    public void write(String filename, String comment) throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filename)))) {
+            out.println("# " + comment);
+            out.println("tuple=" + tuple);
+            out.println("comparison=" + comparison);
+            out.println("hash=" + hash);
+        }
+    }
+
+    /**
+     * Reads the weights from the file; a weight the file does not give is 0
+     **/
+    public static CostWeights read(String filename) {
+        double tuple = 0;
+        double comparison = 0;
+        double hash = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                int eq = line.indexOf('=');
+                if (line.startsWith("#") || eq < 0) {
+                    continue;
+                }
+                String name = line.substring(0, eq).trim();
+                double value = Double.parseDouble(line.substring(eq + 1).trim());
+                if (value < 0) {
+                    throw new NumberFormatException(name + " is negative");
+                }
+                if (name.equals("tuple")) {
+                    tuple = value;
+                } else if (name.equals("comparison")) {
+                    comparison = value;
+                } else if (name.equals("hash")) {
+                    hash = value;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("incorrect format of cost weights file " + filename + ": " + e.getMessage());
+            System.exit(1);
+        }
+        return new CostWeights(tuple, comparison, hash);
+    }
+}
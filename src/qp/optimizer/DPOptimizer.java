@@ -0,0 +1,226 @@
+/**
+ * Dynamic programming join optimizer in the style of System R. Plans are
+ * built bottom-up over the subsets of the tables of the query: the plan of
+ * a subset joins the plans of two smaller subsets that have a join condition
+ * between them, with every join method, and is costed with PlanCost. For each
+ * subset the cheapest plan is kept, together with the cheapest plan for each
+ * interesting order: an output order (see Operator.getOutputOrder) on an
+ * attribute that a later join or the ORDERBY/GROUPBY clause may use, which
+ * PlanCost credits by not sorting again. Each plan kept for the whole query
+ * is finished with its projection and ORDERBY sort and costed again, and the
+ * cheapest finished plan wins, so an order that saves the final sort or the
+ * grouping can beat a cheaper join. Bushy plans are considered.
+ *
+ * The number of subsets grows exponentially with the number of tables, so
+ * queries over more than maxTables tables, and queries whose tables are not
+ * all connected by join conditions, are left to the RandomOptimizer
+ **/
+
+package qp.optimizer;
+
+import qp.operators.*;
+import qp.utils.Attribute;
+import qp.utils.Condition;
+import qp.utils.SQLQuery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class DPOptimizer {
+
+    SQLQuery sqlquery;
+    BufferManager bufferManager;  // Buffers of the joins and sorts of this query
+    int maxTables;                // Largest number of tables planned by dynamic programming
+
+    ArrayList<Condition> joinlist;  // Join conditions of the query
+    int[] lhsTable;                 // Table of the left attribute of each join condition
+    int[] rhsTable;                 // Table of the right attribute of each join condition
+    int numJoin;                    // Joins added so far, to number them
+    CostMemo memo = new CostMemo(); // Candidates share their inputs, which are costed once
+
+    public DPOptimizer(SQLQuery sqlquery, BufferManager bufferManager, int maxTables) {
+        this.sqlquery = sqlquery;
+        this.bufferManager = bufferManager;
+        this.maxTables = maxTables;
+    }
+
+    /**
+     * Best plan found for a subset of the tables
+     **/
+    static class SubPlan {
+        final Operator plan;
+        final long cost;
+        final ArrayList<Attribute> order;  // Attributes the output is sorted on, empty if none
+
+        SubPlan(Operator plan, long cost, ArrayList<Attribute> order) {
+            this.plan = plan;
+            this.cost = cost;
+            this.order = order;
+        }
+    }
+
+    public Operator getOptimizedPlan() {
+        ArrayList<String> fromlist = sqlquery.getFromList();
+        int numTables = fromlist.size();
+        if (numTables > maxTables) {
+            System.out.println("DPOptimizer: " + numTables + " tables is more than " + maxTables
+                    + ", using the RandomOptimizer");
+            return new RandomOptimizer(sqlquery, bufferManager).getOptimizedPlan();
+        }
+
+        RandomInitialPlan rip = new RandomInitialPlan(sqlquery, bufferManager);
+        HashMap<String, Operator> tables = rip.prepareBasePlans();
+        Operator[] base = new Operator[numTables];
+        for (int i = 0; i < numTables; ++i) {
+            base[i] = tables.get(fromlist.get(i));
+        }
+        joinlist = sqlquery.getJoinList();
+        lhsTable = new int[joinlist.size()];
+        rhsTable = new int[joinlist.size()];
+        for (int c = 0; c < joinlist.size(); ++c) {
+            lhsTable[c] = tableOf(base, joinlist.get(c).getLhs());
+            rhsTable[c] = tableOf(base, (Attribute) joinlist.get(c).getRhs());
+        }
+
+        /** best.get(subset) holds the plans of the subset by their order, "" for the cheapest overall **/
+        ArrayList<HashMap<String, SubPlan>> best = new ArrayList<>(1 << numTables);
+        for (int set = 0; set < (1 << numTables); ++set) {
+            best.add(null);
+        }
+        for (int i = 0; i < numTables; ++i) {
+            HashMap<String, SubPlan> plans = new HashMap<>();
+            plans.put("", new SubPlan(base[i], new PlanCost(memo).getCost(base[i]), new ArrayList<>()));
+            best.set(1 << i, plans);
+        }
+
+        /** every proper subset of a set is smaller than it, so it is planned first **/
+        for (int set = 1; set < (1 << numTables); ++set) {
+            if (Integer.bitCount(set) < 2) {
+                continue;
+            }
+            for (int left = (set - 1) & set; left > 0; left = (left - 1) & set) {
+                int right = set ^ left;
+                if (best.get(left) == null || best.get(right) == null) {
+                    continue;
+                }
+                ArrayList<Condition> conditions = conditionsBetween(left, right);
+                if (conditions.isEmpty()) {
+                    continue;
+                }
+                for (SubPlan l : best.get(left).values()) {
+                    for (SubPlan r : best.get(right).values()) {
+                        for (int method = 0; method < JoinType.numJoinTypes(); ++method) {
+                            consider(best, set, join(l, r, conditions, method));
+                        }
+                    }
+                }
+            }
+        }
+
+        HashMap<String, SubPlan> all = best.get((1 << numTables) - 1);
+        if (all == null) {
+            System.out.println("DPOptimizer: the tables are not all joined, using the RandomOptimizer");
+            return new RandomOptimizer(sqlquery, bufferManager).getOptimizedPlan();
+        }
+
+        /** the projection and the sort cost less on some orders, so each plan is finished before it is compared **/
+        Operator finalPlan = null;
+        long finalCost = Long.MAX_VALUE;
+        for (SubPlan subplan : all.values()) {
+            Operator finished = rip.finishPlan((Operator) subplan.plan.clone());
+            long cost = new PlanCost(memo).getCost(finished);
+            if (finalPlan == null || cost < finalCost) {
+                finalPlan = finished;
+                finalCost = cost;
+            }
+        }
+        System.out.println("---------------------------Final Plan----------------");
+        Debug.PPrint(finalPlan);
+        System.out.println("  " + new PlanCost().getCost(finalPlan));
+        return finalPlan;
+    }
+
+    private static int tableOf(Operator[] base, Attribute attr) {
+        for (int i = 0; i < base.length; ++i) {
+            if (base[i].getSchema().contains(attr)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Join conditions between the two sets of tables, with the left attribute in left
+     **/
+    private ArrayList<Condition> conditionsBetween(int left, int right) {
+        ArrayList<Condition> conditions = new ArrayList<>();
+        for (int c = 0; c < joinlist.size(); ++c) {
+            int lhs = 1 << lhsTable[c];
+            int rhs = 1 << rhsTable[c];
+            if ((lhs & left) != 0 && (rhs & right) != 0) {
+                conditions.add((Condition) joinlist.get(c).clone());
+            } else if ((lhs & right) != 0 && (rhs & left) != 0) {
+                conditions.add(joinlist.get(c).getFlippedCondition());
+            }
+        }
+        return conditions;
+    }
+
+    private Join join(SubPlan left, SubPlan right, ArrayList<Condition> conditions, int method) {
+        Join jn = new Join(left.plan, right.plan, new ArrayList<>(conditions), OpType.JOIN);
+        jn.setSchema(left.plan.getSchema().joinWith(right.plan.getSchema()));
+        jn.setJoinType(method);
+        jn.setNodeIndex(numJoin++);
+        jn.setNumBuff(bufferManager.getBuffersPerJoinAndSort());
+        return jn;
+    }
+
+    /**
+     * Keeps the join as a plan of set if it is the cheapest so far, overall or for its order
+     **/
+    private void consider(ArrayList<HashMap<String, SubPlan>> best, int set, Join jn) {
+        long cost = new PlanCost(memo).getCost(jn);
+        if (cost == Long.MAX_VALUE) {
+            return;
+        }
+        ArrayList<Attribute> order = jn.getOutputOrder();
+        if (!order.isEmpty() && !isInteresting(order.get(0), set)) {
+            order = new ArrayList<>();
+        }
+
+        HashMap<String, SubPlan> plans = best.get(set);
+        if (plans == null) {
+            plans = new HashMap<>();
+            best.set(set, plans);
+        }
+        SubPlan subplan = new SubPlan(jn, cost, order);
+        SubPlan cheapest = plans.get("");
+        if (cheapest == null || cost < cheapest.cost) {
+            plans.put("", subplan);
+        }
+        if (!order.isEmpty()) {
+            String key = order.toString();
+            SubPlan ordered = plans.get(key);
+            if (ordered == null || cost < ordered.cost) {
+                plans.put(key, subplan);
+            }
+        }
+    }
+
+    /**
+     * Whether a later join of the set, or the ORDERBY or GROUPBY clause, can use an order on attr
+     **/
+    private boolean isInteresting(Attribute attr, int set) {
+        for (int c = 0; c < joinlist.size(); ++c) {
+            boolean lhsIn = (set & (1 << lhsTable[c])) != 0;
+            boolean rhsIn = (set & (1 << rhsTable[c])) != 0;
+            if (lhsIn != rhsIn) {
+                Condition con = joinlist.get(c);
+                if (con.getLhs().equals(attr) || con.getRhs().equals(attr)) {
+                    return true;
+                }
+            }
+        }
+        return sqlquery.getOrderByList().contains(attr) || sqlquery.getGroupByList().contains(attr);
+    }
+}
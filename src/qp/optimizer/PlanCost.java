@@ -9,17 +9,23 @@ import qp.operators.*;
 import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
+import qp.utils.Histogram;
 import qp.utils.Schema;
+import qp.utils.TableFile;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PlanCost {
 
     long cost;
+    long cpucost;  // Part of the cost that is CPU work, weighed in page I/Os
     long numtuple;
 
     /**
@@ -35,17 +41,61 @@ public class PlanCost {
      **/
     HashMap<Attribute, Long> ht;
 
+    /**
+     * Number of tuples produced into each exchange, so that producers
+     * * shared by several consumers are only costed once
+     **/
+    HashMap<Object, Long> exchangeTuples;
+
+    /**
+     * Costs of subtrees already costed in this optimization, null if none are kept
+     **/
+    CostMemo memo;
+
+    /**
+     * Statistics files already read, by file name
+     **/
+    static final ConcurrentHashMap<String, TableStatistics> statistics = new ConcurrentHashMap<>();
+
+    /**
+     * Histogram files already read, by table name
+     **/
+    static final ConcurrentHashMap<String, TableHistograms> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Weights of the CPU work, all 0 to cost plans on their I/O alone
+     **/
+    static CostWeights weights = new CostWeights(0, 0, 0);
+
 
     public PlanCost() {
         ht = new HashMap<>();
+        exchangeTuples = new HashMap<>();
         cost = 0;
     }
 
+    /**
+     * Costs subtrees found in the memo from it, and adds the others to it
+     **/
+    public PlanCost(CostMemo memo) {
+        this();
+        this.memo = memo;
+    }
+
+    public static void setWeights(CostWeights weights) {
+        PlanCost.weights = weights;
+    }
+
+    public static CostWeights getWeights() {
+        return weights;
+    }
+
     /**
      * Returns the cost of the plan
      **/
     public long getCost(Operator root) {
         cost = 0;
+        cpucost = 0;
         isFeasible = true;
         numtuple = calculateCost(root);
         if (isFeasible) {
@@ -56,6 +106,13 @@ public class PlanCost {
         }
     }
 
+    /**
+     * Part of the cost of the plan last costed that is CPU work
+     **/
+    public long getCPUCost() {
+        return cpucost;
+    }
+
     /**
      * Get number of tuples in estimated results
      **/
@@ -64,10 +121,53 @@ public class PlanCost {
     }
 
 
+    /**
+     * Estimated number of distinct values of an attribute of the last plan costed
+     **/
+    public long getNumDistinct(Attribute attr) {
+        Long distinct = ht.get(attr);
+        return distinct == null ? numtuple : distinct;
+    }
+
     /**
      * Returns number of tuples in the root
      **/
     protected long calculateCost(Operator node) {
+        String signature = memo == null ? null : CostMemo.signature(node);
+        if (signature == null) {
+            return calculateNodeCost(node);
+        }
+        CostMemo.Entry entry = memo.get(signature);
+        if (entry == null) {
+            // cost the subtree on its own, whatever was found infeasible before it
+            long prevcost = cost;
+            long prevcpucost = cpucost;
+            boolean prevFeasible = isFeasible;
+            isFeasible = true;
+            long numtuples = calculateNodeCost(node);
+            HashMap<Attribute, Long> distinct = new HashMap<>();
+            for (Attribute attr : node.getSchema().getAttList()) {
+                Long value = ht.get(attr);
+                if (value != null) {
+                    distinct.put(attr, value);
+                }
+            }
+            entry = new CostMemo.Entry(cost - prevcost, cpucost - prevcpucost, numtuples, isFeasible, distinct);
+            memo.put(signature, entry);
+            isFeasible = prevFeasible;
+            cost = prevcost;
+            cpucost = prevcpucost;
+        }
+        cost += entry.cost;
+        cpucost += entry.cpucost;
+        ht.putAll(entry.distinct);
+        if (!entry.isFeasible) {
+            isFeasible = false;
+        }
+        return entry.numtuples;
+    }
+
+    private long calculateNodeCost(Operator node) {
         if (node.getOpType() == OpType.JOIN) {
             return getStatistics((Join) node);
         } else if (node.getOpType() == OpType.SELECT) {
@@ -78,6 +178,10 @@ public class PlanCost {
             return getStatistics((Scan) node);
         } else if (node.getOpType() == OpType.SORT) {
             return getStatistics((Sort) node);
+        } else if (node.getOpType() == OpType.EXCHANGE) {
+            return getStatistics((Exchange) node);
+        } else if (node.getOpType() == OpType.COUNT) {
+            return calculateCost(((RowCounter) node).getBase());
         }
         System.out.println("operator is not supported");
         isFeasible = false;
@@ -89,7 +193,7 @@ public class PlanCost {
      * * No cost involved as done on the fly
      **/
     protected long getStatistics(Project node) {
-        if (node.isDistinct()) {
+        if (node.isDistinct() && !node.isGroupedInput()) {
             long intuples = calculateCost(node.getBase());
             long numdistinct = 1;
             for (Attribute attr : node.getProjAttr()) {
@@ -106,11 +210,12 @@ public class PlanCost {
             // Cost calculation - initial pass (generate sorted runs)
             this.cost += 2 * innumpages;
 
-            long numBuff = BufferManager.getBuffersPerJoinAndSort();
+            long numBuff = node.getNumBuff();
             long numruns = (long) Math.ceil(innumpages / numBuff);
             long numMergePasses = (long) Math.ceil(Math.log(numruns) / Math.log(numBuff - 1));
             
             this.cost += 2 * outnumpages * numMergePasses;
+            addCPU(intuples * (1 + numMergePasses), sortComparisons(intuples), 0);
 
             return Math.max(numdistinct, intuples);
         }
@@ -160,24 +265,65 @@ public class PlanCost {
             ht.put(rightjoinAttr, mindistinct);
         }
         long outtuples = (long) Math.ceil(tuples);
+        long measured = measuredTuples(node);
+        if (measured >= 0) {
+            outtuples = measured;
+            for (Attribute attr : node.getSchema().getAttList()) {
+                Long distinct = ht.get(attr);
+                if (distinct != null) {
+                    ht.put(attr, Math.max(1, Math.min(distinct, outtuples)));
+                }
+            }
+        }
 
         /** Calculate the cost of the operation **/
         int joinType = node.getJoinType();
-        long numbuff = BufferManager.getBuffersPerJoinAndSort();
+        long numbuff = node.getNumBuff();
         long joincost;
 
         switch (joinType) {
             case JoinType.NESTEDJOIN:
                 joincost = leftpages * rightpages;
+                // the right input is read again for every page of the left
+                addCPU(leftpages * righttuples, (double) lefttuples * righttuples, 0);
                 break;
             case JoinType.BLOCKNESTED:
                 long blockSize = numbuff;
                 long numBlocks = (long) Math.ceil((double) leftpages / (double) blockSize);
                 joincost = leftpages + (numBlocks * (rightpages));
+                addCPU(numBlocks * righttuples, (double) lefttuples * righttuples, 0);
                 break;
             case JoinType.SORTMERGE:
-                // sort cost should already be factored in, so just consider merge cost
+                // an execution plan has the sorts as inputs, which are costed on their own;
+                // an input that is already sorted on the join attributes is not sorted again
                 joincost = leftpages + rightpages;
+                addCPU(lefttuples + righttuples, lefttuples + righttuples + outtuples, 0);
+                ArrayList<Attribute> leftkeys = new ArrayList<>();
+                ArrayList<Attribute> rightkeys = new ArrayList<>();
+                for (Condition con : node.getConditionList()) {
+                    leftkeys.add(con.getLhs());
+                    rightkeys.add((Attribute) con.getRhs());
+                }
+                if (node.getLeft().getOpType() != OpType.SORT
+                        && !Operator.isSortedOn(node.getLeft().getOutputOrder(), leftkeys)) {
+                    joincost += sortCost(leftpages, numbuff);
+                    addSortCPU(lefttuples, leftpages, numbuff);
+                }
+                if (node.getRight().getOpType() != OpType.SORT
+                        && !Operator.isSortedOn(node.getRight().getOutputOrder(), rightkeys)) {
+                    joincost += sortCost(rightpages, numbuff);
+                    addSortCPU(righttuples, rightpages, numbuff);
+                }
+                break;
+            case JoinType.HASHJOIN:
+                // the build input is kept in memory, with one buffer for the probe input and one for output
+                if (rightpages > numbuff - 2) {
+                    isFeasible = false;
+                    return 0;
+                }
+                joincost = leftpages + rightpages;
+                // every match found by a probe is checked on the join conditions
+                addCPU(lefttuples + righttuples, outtuples, lefttuples + righttuples);
                 break;
             default:
                 System.out.println("join type is not supported");
@@ -191,7 +337,8 @@ public class PlanCost {
     /**
      * Find number of incoming tuples, Using the selectivity find # of output tuples
      * * And statistics about the attributes
-     * * Selection is performed on the fly, so no cost involved
+     * * Selection is performed on the fly, so no I/O is involved; its
+     * * comparisons are CPU work
      **/
     protected long getStatistics(Select node) {
         long intuples = calculateCost(node.getBase());
@@ -212,29 +359,163 @@ public class PlanCost {
         Long temp = ht.get(fullattr);
         numdistinct = temp.longValue();
 
+        /** Tuples whose attribute is null satisfy no condition **/
+        TableStatistics stats = null;
+        int column = -1;
+        if (new File(fullattr.getTabName() + ".stat").exists()) {
+            stats = readStatistics(fullattr.getTabName() + ".stat");
+            column = columnOf(fullattr, schema, stats);
+        }
+        double nonnull = intuples;
+        if (column >= 0 && stats.nulls != null && stats.numtuples > 0) {
+            nonnull = intuples * (1 - (double) stats.nulls[column] / stats.numtuples);
+        }
+
         long outtuples;
         /** Calculate the number of tuples in result **/
         if (exprtype == Condition.EQUAL) {
-            outtuples = (long) Math.ceil((double) intuples / (double) numdistinct);
+            if (isOutside(con, fullattr, stats, column)) {
+                outtuples = 0;
+            } else {
+                outtuples = (long) Math.ceil(nonnull / (double) numdistinct);
+            }
         } else if (exprtype == Condition.NOTEQUAL) {
-            outtuples = (long) Math.ceil(intuples - ((double) intuples / (double) numdistinct));
+            outtuples = (long) Math.ceil(nonnull - (nonnull / (double) numdistinct));
         } else {
-            outtuples = (long) Math.ceil(0.5 * intuples);
+            outtuples = (long) Math.ceil(getRangeFraction(exprtype, con, fullattr, schema, stats, column) * nonnull);
         }
+        long measured = measuredTuples(node);
+        if (measured >= 0) {
+            outtuples = Math.min(measured, intuples);
+        }
+        addCPU(0, intuples, 0);
 
         /** Modify the number of distinct values of each attribute
          ** Assuming the values are distributed uniformly along entire
-         ** relation
+         ** relation: each distinct value of another attribute is kept if
+         ** any of its tuples is selected
          **/
         for (int i = 0; i < schema.getNumCols(); ++i) {
             Attribute attri = schema.getAttribute(i);
             long oldvalue = ht.get(attri);
-            long newvalue = (long) Math.ceil(((double) outtuples / (double) intuples) * oldvalue);
-            ht.put(attri, outtuples);
+            long newvalue;
+            if (attri.equals(fullattr)) {
+                if (exprtype == Condition.EQUAL) {
+                    newvalue = 1;
+                } else if (exprtype == Condition.NOTEQUAL) {
+                    newvalue = oldvalue - 1;
+                } else {
+                    newvalue = (long) Math.ceil(((double) outtuples / (double) intuples) * oldvalue);
+                }
+            } else {
+                double kept = 1 - Math.pow(1 - (double) outtuples / (double) intuples, (double) intuples / oldvalue);
+                newvalue = (long) Math.ceil(kept * oldvalue);
+            }
+            ht.put(attri, Math.max(1, Math.min(newvalue, outtuples)));
         }
         return outtuples;
     }
 
+    /**
+     * Tuples of the subtree from the selectivity observed by earlier runs,
+     * * else from the samples of its tables, -1 if neither is available
+     **/
+    private static long measuredTuples(Operator node) {
+        if (CardinalityFeedback.isEnabled()) {
+            long observed = CardinalityFeedback.estimate(node);
+            if (observed >= 0) {
+                return observed;
+            }
+        }
+        return SampleEstimator.isEnabled() ? SampleEstimator.estimate(node) : -1;
+    }
+
+    /**
+     * Estimated fraction of the tuples with a value that satisfy a range
+     * * condition: from the histogram of the attribute if its table has one,
+     * * else from the smallest and largest values of a numeric attribute,
+     * * taking the values between them as uniform, else one half
+     **/
+    private double getRangeFraction(int exprtype, Condition con, Attribute attr, Schema schema,
+                                    TableStatistics stats, int column) {
+        if (!(con.getRhs() instanceof String)) {
+            return 0.5;
+        }
+        String constant = (String) con.getRhs();
+        double below = -1;
+        Histogram histogram = readHistograms(attr.getTabName(), schema).get(attr.getColName());
+        if (histogram != null) {
+            below = histogram.fractionBelow(constant, exprtype == Condition.LTOE || exprtype == Condition.GREATERTHAN);
+        } else if (column >= 0 && stats.min != null && attr.getType() != Attribute.STRING) {
+            try {
+                double value = Double.parseDouble(constant);
+                double min = Double.parseDouble(stats.min[column]);
+                double max = Double.parseDouble(stats.max[column]);
+                if (value < min || (value == min && exprtype != Condition.LTOE && exprtype != Condition.GREATERTHAN)) {
+                    below = 0;
+                } else if (value >= max) {
+                    below = 1;
+                } else {
+                    below = (value - min) / (max - min);
+                }
+            } catch (NumberFormatException e) {
+                below = -1;  // a column without values, or a constant that is not a number
+            }
+        }
+        if (below < 0) {
+            return 0.5;
+        }
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+            case Condition.LTOE:
+                return below;
+            case Condition.GREATERTHAN:
+            case Condition.GTOE:
+                return 1 - below;
+            default:
+                return 0.5;
+        }
+    }
+
+    /**
+     * Whether the constant of an equality condition is known to be outside
+     * * the values of the attribute, from its smallest and largest values
+     **/
+    private static boolean isOutside(Condition con, Attribute attr, TableStatistics stats, int column) {
+        if (column < 0 || stats.min == null || !(con.getRhs() instanceof String)) {
+            return false;
+        }
+        String constant = (String) con.getRhs();
+        if (attr.getType() == Attribute.STRING) {
+            return constant.compareTo(stats.min[column]) < 0 || constant.compareTo(stats.max[column]) > 0;
+        }
+        try {
+            double value = Double.parseDouble(constant);
+            return value < Double.parseDouble(stats.min[column]) || value > Double.parseDouble(stats.max[column]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Position of the attribute among the attributes of its table in the
+     * * schema, which follow the order of the statistics file. -1 if the
+     * * schema does not hold all the attributes of the table
+     **/
+    private static int columnOf(Attribute attr, Schema schema, TableStatistics stats) {
+        int column = -1;
+        int numcols = 0;
+        for (Attribute other : schema.getAttList()) {
+            if (attr.getTabName().equals(other.getTabName())) {
+                if (other.equals(attr)) {
+                    column = numcols;
+                }
+                numcols++;
+            }
+        }
+        return numcols == stats.distinct.length ? column : -1;
+    }
+
     /**
      * The statistics file <tablename>.stat to find the statistics
      * * about that table;
@@ -246,11 +527,70 @@ public class PlanCost {
         String filename = tablename + ".stat";
         Schema schema = node.getSchema();
         int numAttr = schema.getNumCols();
+        TableStatistics stats = readStatistics(filename);
+        if (stats.distinct.length != numAttr) {
+            System.out.println("incorrect format of statastics file " + filename);
+            System.exit(1);
+        }
+        long numtuples = stats.numtuples;
+        for (int i = 0; i < numAttr; ++i) {
+            ht.put(schema.getAttribute(i), stats.distinct[i]);
+        }
+
+        /** Number of tuples per page**/
+        long tuplesize = schema.getTupleSize();
+        long pagesize = Math.max(Batch.getPageSize() / tuplesize, 1);
+        long numpages = (long) Math.ceil((double) numtuples / (double) pagesize);
+
+        cost = cost + numpages;
+
+        /** A partitioned scan reads its share of the pages, or the whole file if it is not paged **/
+        if (node.getNumPartitions() > 1) {
+            numtuples = (long) Math.ceil((double) numtuples / node.getNumPartitions());
+            if (TableFile.isPaged(tablename + ".tbl")) {
+                cost = cost - numpages + (long) Math.ceil((double) numpages / node.getNumPartitions());
+            }
+        }
+        addCPU(numtuples, 0, 0);
+        return numtuples;
+    }
+
+    /**
+     * Contents of a statistics file
+     **/
+    static class TableStatistics {
+        final long numtuples;
+        final long[] distinct;     // Distinct values of each attribute
+        String[] min;              // Smallest value of each attribute, null if the file does not give them
+        String[] max;              // Largest value of each attribute, null if the file does not give them
+        long[] nulls;              // Nulls of each attribute, null if the file does not give them
+        final long lastModified;   // Of the file when it was read
+        final long length;
+
+        TableStatistics(long numtuples, long[] distinct, long lastModified, long length) {
+            this.numtuples = numtuples;
+            this.distinct = distinct;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads a statistics file, or takes it from the files already read if it has not changed since
+     **/
+    static TableStatistics readStatistics(String filename) {
+        File file = new File(filename);
+        TableStatistics stats = statistics.get(filename);
+        if (stats != null && stats.lastModified == file.lastModified() && stats.length == file.length()) {
+            return stats;
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
         BufferedReader in = null;
         try {
             in = new BufferedReader(new FileReader(filename));
         } catch (IOException io) {
-            System.out.println("Error in opening file" + filename);
+            System.out.println("Error in opening file " + filename + ", run java Analyze on the table to write it");
             System.exit(1);
         }
         String line = null;
@@ -267,8 +607,7 @@ public class PlanCost {
             System.out.println("incorrect format of statastics file " + filename);
             System.exit(1);
         }
-        String temp = tokenizer.nextToken();
-        long numtuples = Long.parseLong(temp);
+        long numtuples = Long.parseLong(tokenizer.nextToken());
         try {
             line = in.readLine();
         } catch (IOException io) {
@@ -276,31 +615,75 @@ public class PlanCost {
             System.exit(1);
         }
         tokenizer = new StringTokenizer(line);
-        if (tokenizer.countTokens() != numAttr) {
-            System.out.println("incorrect format of statastics file " + filename);
-            System.exit(1);
-        }
-        for (int i = 0; i < numAttr; ++i) {
-            Attribute attr = schema.getAttribute(i);
-            temp = tokenizer.nextToken();
-            Long distinctValues = Long.valueOf(temp);
-            ht.put(attr, distinctValues);
+        long[] distinct = new long[tokenizer.countTokens()];
+        for (int i = 0; i < distinct.length; ++i) {
+            distinct[i] = Long.parseLong(tokenizer.nextToken());
         }
 
-        /** Number of tuples per page**/
-        long tuplesize = schema.getTupleSize();
-        long pagesize = Math.max(Batch.getPageSize() / tuplesize, 1);
-        long numpages = (long) Math.ceil((double) numtuples / (double) pagesize);
-
-        cost = cost + numpages;
+        stats = new TableStatistics(numtuples, distinct, lastModified, length);
 
+        /** Files written by Analyze go on with the smallest and largest values and the nulls **/
         try {
+            while ((line = in.readLine()) != null) {
+                tokenizer = new StringTokenizer(line);
+                if (!tokenizer.hasMoreTokens()) {
+                    continue;
+                }
+                String key = tokenizer.nextToken();
+                if (tokenizer.countTokens() != distinct.length) {
+                    System.out.println("incorrect format of statastics file " + filename);
+                    System.exit(1);
+                }
+                String[] values = new String[distinct.length];
+                for (int i = 0; i < values.length; ++i) {
+                    values[i] = tokenizer.nextToken();
+                }
+                if (key.equals("min")) {
+                    stats.min = values;
+                } else if (key.equals("max")) {
+                    stats.max = values;
+                } else if (key.equals("nulls")) {
+                    stats.nulls = new long[values.length];
+                    for (int i = 0; i < values.length; ++i) {
+                        stats.nulls[i] = Long.parseLong(values[i]);
+                    }
+                }
+            }
             in.close();
-        } catch (IOException io) {
-            System.out.println("error in closing the file " + filename);
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("error in reading the file " + filename);
             System.exit(1);
         }
-        return numtuples;
+        statistics.put(filename, stats);
+        return stats;
+    }
+
+    static class TableHistograms {
+        final HashMap<String, Histogram> byColumn;
+        final long lastModified;   // Of the file when it was read, 0 if there was none
+        final long length;
+
+        TableHistograms(HashMap<String, Histogram> byColumn, long lastModified, long length) {
+            this.byColumn = byColumn;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads the histograms of a table, or takes them from the files already read if it has not changed since
+     **/
+    static HashMap<String, Histogram> readHistograms(String tabname, Schema schema) {
+        File file = new File(tabname + ".hist");
+        TableHistograms hists = histograms.get(tabname);
+        if (hists != null && hists.lastModified == file.lastModified() && hists.length == file.length()) {
+            return hists.byColumn;
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
+        hists = new TableHistograms(Histogram.read(tabname, schema), lastModified, length);
+        histograms.put(tabname, hists);
+        return hists.byColumn;
     }
 
     protected long getStatistics(Sort node) {
@@ -310,23 +693,75 @@ public class PlanCost {
         long pagesize = Math.max(Batch.getPageSize() / tuplesize, 1);
         long numpages = (long) Math.ceil(numtuples / pagesize);
 
-        // Calculate cost of multiway merge sort based on formula
-        long numbuff = BufferManager.getBuffersPerJoinAndSort();
-        long numruns = (long) Math.ceil(numpages / numbuff);
-        long numpasses = 1 + (long) Math.ceil(Math.log(numruns) / Math.log(numbuff - 1));
-        cost += 2 * numpages * numpasses;
-
+        // An input that already has the order is passed through
+        if (!node.isPresorted()) {
+            cost += sortCost(numpages, node.getNumBuff());
+            addSortCPU(numtuples, numpages, node.getNumBuff());
+        }
         return numtuples;
     }
-}
-
-
-
-
-
-
 
+    /**
+     * Cost of multiway merge sort based on formula
+     **/
+    private static long sortCost(long numpages, long numbuff) {
+        long numruns = Math.max(1, (long) Math.ceil((double) numpages / numbuff));
+        long numpasses = 1 + (long) Math.ceil(Math.log(numruns) / Math.log(numbuff - 1));
+        return 2 * numpages * numpasses;
+    }
 
+    /**
+     * CPU work of a multiway merge sort: the tuples are compared, and read
+     * * back from the runs of every pass
+     **/
+    private void addSortCPU(long numtuples, long numpages, long numbuff) {
+        long numruns = Math.max(1, (long) Math.ceil((double) numpages / numbuff));
+        long numpasses = 1 + (long) Math.ceil(Math.log(numruns) / Math.log(numbuff - 1));
+        addCPU(numtuples * numpasses, sortComparisons(numtuples), 0);
+    }
 
+    /**
+     * Comparisons of sorting the tuples, n log2 n
+     **/
+    private static double sortComparisons(long numtuples) {
+        return numtuples < 2 ? 0 : numtuples * (Math.log(numtuples) / Math.log(2));
+    }
 
+    /**
+     * Adds CPU work, weighed in page I/Os, to the cost
+     **/
+    private void addCPU(double tuples, double comparisons, double hashes) {
+        long work = Math.round(weights.tuple * tuples + weights.comparison * comparisons + weights.hash * hashes);
+        cost += work;
+        cpucost += work;
+    }
 
+    /**
+     * Exchanges move batches in memory and add no I/O. The producers are costed
+     * * once per exchange; a repartitioned consumer gets its share of the tuples
+     * * and of the distinct values of the keys, a broadcast consumer gets all of them
+     **/
+    protected long getStatistics(Exchange node) {
+        Long total = exchangeTuples.get(node.getChannel());
+        if (total == null) {
+            long sum = 0;
+            for (Operator producer : node.getProducers()) {
+                sum += calculateCost(producer);
+            }
+            total = sum;
+            exchangeTuples.put(node.getChannel(), total);
+            if (node.getExchangeType() == Exchange.REPARTITION) {
+                Schema schema = node.getSchema();
+                for (Attribute key : node.getKeys()) {
+                    Attribute attr = schema.getAttribute(schema.indexOf(key));
+                    long distinct = ht.get(attr);
+                    ht.put(attr, (long) Math.ceil((double) distinct / node.getNumConsumers()));
+                }
+            }
+        }
+        if (node.getExchangeType() == Exchange.REPARTITION) {
+            return (long) Math.ceil((double) total / node.getNumConsumers());
+        }
+        return total;
+    }
+}
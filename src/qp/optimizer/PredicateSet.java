@@ -0,0 +1,115 @@
+/**
+ * The tables and conditions of a subtree, which fix the tuples it produces
+ * whatever the order and the methods of its joins. The key names them in a
+ * canonical order, with the two sides of each equality join in order too,
+ * so the subtrees of different plans over the same predicates share it.
+ * The copies of a fragment that runs in parallel have the same key as the
+ * fragment, and are marked partitioned
+ **/
+
+package qp.optimizer;
+
+import qp.operators.*;
+import qp.utils.Attribute;
+import qp.utils.Condition;
+import qp.utils.Schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+public class PredicateSet {
+
+    final HashMap<String, Schema> tables = new HashMap<>();     // Schemas of the tables, by name
+    final ArrayList<Condition> conditions = new ArrayList<>();
+    boolean partitioned;     // Whether a scan of the subtree reads a partition of its table
+    String key;
+
+    private PredicateSet() {
+    }
+
+    /**
+     * The predicate set of the subtree, null if the tuples of the subtree do
+     * * not follow from its predicates: a table joined with itself, or a distinct
+     **/
+    public static PredicateSet of(Operator node) {
+        PredicateSet set = new PredicateSet();
+        if (!set.collect(node)) {
+            return null;
+        }
+        ArrayList<String> names = new ArrayList<>(set.tables.keySet());
+        Collections.sort(names);
+        ArrayList<String> predicates = new ArrayList<>();
+        for (Condition con : set.conditions) {
+            predicates.add(normalize(con));
+        }
+        Collections.sort(predicates);
+        set.key = names + "" + predicates;
+        return set;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    /**
+     * Names of the tables, in the order of the key
+     **/
+    public ArrayList<String> getTableNames() {
+        ArrayList<String> names = new ArrayList<>(tables.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    private boolean collect(Operator node) {
+        switch (node.getOpType()) {
+            case OpType.SCAN: {
+                Scan scan = (Scan) node;
+                if (tables.containsKey(scan.getTabName())) {
+                    return false;
+                }
+                tables.put(scan.getTabName(), scan.getSchema());
+                partitioned |= scan.getNumPartitions() > 1;
+                return true;
+            }
+            case OpType.SELECT:
+                conditions.add(((Select) node).getCondition());
+                return collect(((Select) node).getBase());
+            case OpType.PROJECT:
+                return !((Project) node).isDistinct() && collect(((Project) node).getBase());
+            case OpType.SORT:
+                return collect(((Sort) node).getBase());
+            case OpType.JOIN:
+                conditions.addAll(((Join) node).getConditionList());
+                return collect(((Join) node).getLeft()) && collect(((Join) node).getRight());
+            case OpType.EXCHANGE: {
+                // every producer is a copy of the same fragment; a consumer of a
+                // repartition gets a part of their tuples, the other exchanges pass them all on
+                Exchange exchange = (Exchange) node;
+                boolean outer = partitioned;
+                if (!collect(exchange.getProducers().get(0))) {
+                    return false;
+                }
+                partitioned = outer || exchange.getExchangeType() == Exchange.REPARTITION;
+                return true;
+            }
+            case OpType.COUNT:
+                return collect(((RowCounter) node).getBase());
+            default:
+                return false;
+        }
+    }
+
+    private static String normalize(Condition con) {
+        String lhs = con.getLhs().toString();
+        String rhs = con.getRhs().toString();
+        if (con.getOpType() == Condition.JOIN && con.getExprType() == Condition.EQUAL && lhs.compareTo(rhs) > 0) {
+            return rhs + " " + con.getExprType() + " " + lhs;
+        }
+        return lhs + " " + con.getExprType() + " " + rhs;
+    }
+}
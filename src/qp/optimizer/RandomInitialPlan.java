@@ -16,6 +16,7 @@ import java.util.HashMap;
 public class RandomInitialPlan {
 
     SQLQuery sqlquery;
+    BufferManager bufferManager;  // Buffers of the joins and sorts of this query
 
     ArrayList<Attribute> projectlist;
     ArrayList<String> fromlist;
@@ -25,9 +26,20 @@ public class RandomInitialPlan {
     int numJoin;            // Number of joins in this query
     HashMap<String, Operator> tab_op_hash;  // Table name to the Operator
     Operator root;          // Root of the query plan tree
+    RandNumb random;        // Chooses the join order and methods
+    boolean verbose = true; // Whether the schemas of the projection are printed
 
-    public RandomInitialPlan(SQLQuery sqlquery) {
+    public RandomInitialPlan(SQLQuery sqlquery, BufferManager bufferManager) {
+        this(sqlquery, bufferManager, new RandNumb());
+    }
+
+    /**
+     * Initial plans drawn from the given generator, the same plans for the same seed
+     **/
+    public RandomInitialPlan(SQLQuery sqlquery, BufferManager bufferManager, RandNumb random) {
+        this.random = random;
         this.sqlquery = sqlquery;
+        this.bufferManager = bufferManager;
         projectlist = sqlquery.getProjectList();
         fromlist = sqlquery.getFromList();
         selectionlist = sqlquery.getSelectionList();
@@ -36,6 +48,10 @@ public class RandomInitialPlan {
         numJoin = joinlist.size();
     }
 
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
     /**
      * number of join conditions
      **/
@@ -61,6 +77,27 @@ public class RandomInitialPlan {
         return root;
     }
 
+    /**
+     * Scan and Select operators of each table of the from list, by table name,
+     * * the starting point of the DPOptimizer
+     **/
+    public HashMap<String, Operator> prepareBasePlans() {
+        tab_op_hash = new HashMap<>();
+        createScanOp();
+        createSelectOp();
+        return tab_op_hash;
+    }
+
+    /**
+     * Puts the projection and the ORDERBY sort on top of a plan of the joins
+     **/
+    public Operator finishPlan(Operator joins) {
+        root = joins;
+        createProjectOp();
+        createSortOp();
+        return root;
+    }
+
     /**
      * Create Scan Operator for each of the table
      * * mentioned in from list
@@ -88,6 +125,12 @@ public class RandomInitialPlan {
                 System.exit(1);
             }
             tab_op_hash.put(tabname, op1);
+            /** a table may hold the columns of several tables, such as
+             ** an intermediate result materialized by the Reoptimizer
+             **/
+            for (Attribute attr : op1.getSchema().getAttList()) {
+                tab_op_hash.putIfAbsent(attr.getTabName(), op1);
+            }
         }
 
         // 12 July 2003 (whtok)
@@ -132,7 +175,7 @@ public class RandomInitialPlan {
      **/
     public void createJoinOp() {
         BitSet bitCList = new BitSet(numJoin);
-        int jnnum = RandNumb.randInt(0, numJoin - 1);
+        int jnnum = random.nextInt(0, numJoin - 1);
         Join jn = null;
 
         /** Repeat until all the join conditions are considered **/
@@ -141,7 +184,7 @@ public class RandomInitialPlan {
              ** another join condition
              **/
             while (bitCList.get(jnnum)) {
-                jnnum = RandNumb.randInt(0, numJoin - 1);
+                jnnum = random.nextInt(0, numJoin - 1);
             }
             Condition cn = (Condition) joinlist.get(jnnum);
             String lefttab = cn.getLhs().getTabName();
@@ -150,12 +193,13 @@ public class RandomInitialPlan {
             Operator right = (Operator) tab_op_hash.get(righttab);
             jn = new Join(left, right, cn, OpType.JOIN);
             jn.setNodeIndex(jnnum);
+            jn.setNumBuff(bufferManager.getBuffersPerJoinAndSort());
             Schema newsche = left.getSchema().joinWith(right.getSchema());
             jn.setSchema(newsche);
 
             /** randomly select a join type**/
             int numJMeth = JoinType.numJoinTypes();
-            int joinMeth = RandNumb.randInt(0, numJMeth - 1);
+            int joinMeth = random.nextInt(0, numJMeth - 1);
             jn.setJoinType(joinMeth);
             modifyHashtable(left, jn);
             modifyHashtable(right, jn);
@@ -171,21 +215,25 @@ public class RandomInitialPlan {
 
     public void createProjectOp() {
         Operator base = root;
-        System.out.println("Base schema: ");
-        for (Attribute i : base.getSchema().getAttList()) {
-            System.out.print(i + " ");
+        if (verbose) {
+            System.out.println("Base schema: ");
+            for (Attribute i : base.getSchema().getAttList()) {
+                System.out.print(i + " ");
+            }
+            System.out.println();
         }
-        System.out.println();
         if (projectlist == null)
             projectlist = new ArrayList<Attribute>();
         if (!projectlist.isEmpty()) {
-            System.out.println("Project list: ");
-            for (Attribute i : projectlist) {
-                System.out.print(i + " ");
+            if (verbose) {
+                System.out.println("Project list: ");
+                for (Attribute i : projectlist) {
+                    System.out.print(i + " ");
+                }
+                System.out.println();
             }
-            System.out.println();
             // root = new Project(base, projectlist, OpType.PROJECT);
-            int numBuff = BufferManager.getBuffersPerJoinAndSort();
+            int numBuff = bufferManager.getBuffersPerJoinAndSort();
             if (!groupbylist.isEmpty()) {
                 // Implement GROUPBY as first getting distinct values of the groupby list
                 // then projecting the attributes in the projectlist. projectlist must be a subset of groupbylist
@@ -207,7 +255,7 @@ public class RandomInitialPlan {
         if (!this.sqlquery.getOrderByList().isEmpty()) {
             ArrayList<Attribute> orderlist = this.sqlquery.getOrderByList();
             boolean isDesc = this.sqlquery.isDesc();
-            int numBuff = BufferManager.getBuffersPerJoinAndSort();
+            int numBuff = bufferManager.getBuffersPerJoinAndSort();
             this.root = new Sort(base, orderlist, isDesc, OpType.SORT, numBuff);
         }
     }
@@ -1,5 +1,6 @@
 /**
  * performs randomized optimization, iterative improvement algorithm
+ * * The random restarts are independent and run in parallel, see setParallelism
  **/
 
 package qp.optimizer;
@@ -9,8 +10,13 @@ import qp.utils.Attribute;
 import qp.utils.Condition;
 import qp.utils.RandNumb;
 import qp.utils.SQLQuery;
+import qp.utils.Schema;
 
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class RandomOptimizer {
 
@@ -20,21 +26,49 @@ public class RandomOptimizer {
     public static final int METHODCHOICE = 0;  // Selecting neighbor by changing a method for an operator
     public static final int COMMUTATIVE = 1;   // By rearranging the operators by commutative rule
     public static final int ASSOCIATIVE = 2;   // Rearranging the operators by associative rule
+    public static final int BUSHY = 3;         // Making two joins of a deep subtree bushy, or the reverse
 
     /**
      * Number of altenative methods available for a node as specified above
      **/
-    public static final int NUMCHOICES = 3;
+    public static final int NUMCHOICES = 4;
+
+    static int parallelism = 1;    // Threads running the restarts and costing the neighbors
+    static Long seed = null;       // Seed of the restarts, null for a different one each time
+    static long timeBudget = 0;    // Milliseconds after which no restart is begun, 0 for no limit
+    static boolean verbose = true; // Whether to print every plan considered
 
     SQLQuery sqlquery;  // Vector of Vectors of Select + From + Where + GroupBy
+    BufferManager bufferManager;  // Buffers of the joins and sorts of this query
     int numJoin;        // Number of joins in this query plan
+    long planCost;      // Cost of the plan last returned by improve
 
     /**
      * constructor
      **/
 
-    public RandomOptimizer(SQLQuery sqlquery) {
+    public RandomOptimizer(SQLQuery sqlquery, BufferManager bufferManager) {
         this.sqlquery = sqlquery;
+        this.bufferManager = bufferManager;
+    }
+
+    public static void setParallelism(int parallelism) {
+        RandomOptimizer.parallelism = parallelism;
+    }
+
+    public static void setSeed(Long seed) {
+        RandomOptimizer.seed = seed;
+    }
+
+    public static void setTimeBudget(long millis) {
+        RandomOptimizer.timeBudget = millis;
+    }
+
+    /**
+     * Printing every plan considered makes the restarts run one after the other
+     **/
+    public static void setVerbose(boolean verbose) {
+        RandomOptimizer.verbose = verbose;
     }
 
     /**
@@ -47,7 +81,7 @@ public class RandomOptimizer {
             Operator left = makeExecPlan(((Join) node).getLeft());
             Operator right = makeExecPlan(((Join) node).getRight());
             int joinType = ((Join) node).getJoinType();
-            int numbuff = BufferManager.getBuffersPerJoinAndSort();
+            int numbuff = ((Join) node).getNumBuff();
             switch (joinType) {
                 case JoinType.NESTEDJOIN:
                     NestedJoin nj = new NestedJoin((Join) node);
@@ -77,6 +111,12 @@ public class RandomOptimizer {
                     smj.setRight(new Sort(right, rightattrs, false, OpType.SORT, numbuff));
                     smj.setNumBuff(numbuff);
                     return smj;
+                case JoinType.HASHJOIN:
+                    HashJoin hj = new HashJoin((Join) node);
+                    hj.setLeft(left);
+                    hj.setRight(right);
+                    hj.setNumBuff(numbuff);
+                    return hj;
                 default:
                     return node;
             }
@@ -97,38 +137,352 @@ public class RandomOptimizer {
         }
     }
 
+    /**
+     * Prepares the execution plan, and if the degree of parallelism dop is above 1
+     * * splits it into fragments that run in dop copies, connected by exchanges.
+     * * The buffers of each join, sort and distinct are divided among its copies
+     **/
+    public static Operator makeExecPlan(Operator node, int dop) {
+        Operator root = makeExecPlan(node);
+        if (dop <= 1) {
+            return root;
+        }
+        if (root.getOpType() == OpType.SORT) {
+            // ORDERBY, the final sort has to see the whole result
+            Sort sort = (Sort) root;
+            sort.setBase(Exchange.gather(parallelize(sort.getBase(), dop)));
+            return sort;
+        }
+        return Exchange.gather(parallelize(root, dop));
+    }
+
+    /**
+     * Returns the copies of the subtree that together produce its output,
+     * * each running over a disjoint part of the input
+     **/
+    protected static ArrayList<Operator> parallelize(Operator node, int dop) {
+        ArrayList<Operator> copies = new ArrayList<>();
+        if (node.getOpType() == OpType.SCAN) {
+            MorselDispatcher morsels = new MorselDispatcher(dop);
+            for (int i = 0; i < dop; ++i) {
+                Scan scan = (Scan) node.clone();
+                scan.setPartition(i, dop);
+                scan.setMorselDispatcher(morsels);
+                copies.add(scan);
+            }
+        } else if (node.getOpType() == OpType.SELECT) {
+            Select select = (Select) node;
+            for (Operator base : parallelize(select.getBase(), dop)) {
+                Select copy = new Select(base, select.getCondition(), OpType.SELECT);
+                copy.setSchema(select.getSchema());
+                copies.add(copy);
+            }
+        } else if (node.getOpType() == OpType.PROJECT) {
+            Project project = (Project) node;
+            ArrayList<Operator> bases = parallelize(project.getBase(), dop);
+            if (project.isDistinct()) {
+                // duplicates have to meet in the same copy
+                bases = new ArrayList<>(Exchange.repartition(bases, project.getProjAttr(), dop));
+            }
+            int numbuff = project.isDistinct() ? Math.max(3, project.getNumBuff() / dop) : project.getNumBuff();
+            for (Operator base : bases) {
+                Project copy = new Project(base, project.getProjAttr(), project.isDistinct(), OpType.PROJECT, numbuff);
+                copy.setSchema(project.getSchema());
+                copies.add(copy);
+            }
+        } else if (node.getOpType() == OpType.JOIN) {
+            Join join = (Join) node;
+            int numbuff = Math.max(3, join.getNumBuff() / dop);
+            boolean sortmerge = join.getJoinType() == JoinType.SORTMERGE;
+            Operator left = sortmerge ? ((Sort) join.getLeft()).getBase() : join.getLeft();
+            Operator right = sortmerge ? ((Sort) join.getRight()).getBase() : join.getRight();
+            ArrayList<Attribute> leftkeys = new ArrayList<>();
+            ArrayList<Attribute> rightkeys = new ArrayList<>();
+            for (Condition con : join.getConditionList()) {
+                leftkeys.add(con.getLhs());
+                rightkeys.add((Attribute) con.getRhs());
+            }
+            long lefttuples = estimateTuples(left);
+            long righttuples = estimateTuples(right);
+            ArrayList<Operator> lefts = parallelize(left, dop);
+            ArrayList<Operator> rights = parallelize(right, dop);
+
+            if (join.getJoinType() == JoinType.HASHJOIN) {
+                // the copies build one shared table, so neither input has to be moved,
+                // but there must be one part of the build input per copy
+                if (rights.size() != lefts.size()) {
+                    rights = new ArrayList<>(Exchange.repartition(rights, rightkeys, lefts.size()));
+                }
+                HashJoin.BuildTable table = new HashJoin.BuildTable(lefts.size());
+                for (int i = 0; i < lefts.size(); ++i) {
+                    HashJoin copy = (HashJoin) copyJoin(join, lefts.get(i), rights.get(i), numbuff);
+                    copy.setBuildTable(table, i);
+                    copies.add(copy);
+                }
+                return copies;
+            }
+
+            // Broadcasting a side sends it dop times, repartitioning sends both sides once
+            if (righttuples * dop < lefttuples) {
+                rights = new ArrayList<>(Exchange.broadcast(rights, lefts.size()));
+            } else if (lefttuples * dop < righttuples) {
+                lefts = new ArrayList<>(Exchange.broadcast(lefts, rights.size()));
+            } else {
+                lefts = new ArrayList<>(Exchange.repartition(lefts, leftkeys, dop));
+                rights = new ArrayList<>(Exchange.repartition(rights, rightkeys, dop));
+            }
+
+            for (int i = 0; i < lefts.size(); ++i) {
+                Operator leftcopy = lefts.get(i);
+                Operator rightcopy = rights.get(i);
+                if (sortmerge) {
+                    leftcopy = new Sort(leftcopy, leftkeys, false, OpType.SORT, numbuff);
+                    rightcopy = new Sort(rightcopy, rightkeys, false, OpType.SORT, numbuff);
+                }
+                copies.add(copyJoin(join, leftcopy, rightcopy, numbuff));
+            }
+        } else if (node.getOpType() == OpType.SORT) {
+            // a sort that is not part of a sort merge join needs all of its input
+            Sort sort = (Sort) node;
+            sort.setBase(Exchange.gather(parallelize(sort.getBase(), dop)));
+            copies.add(sort);
+        } else {
+            copies.add(node);
+        }
+        return copies;
+    }
+
+    /**
+     * Replaces each join of a serial execution plan with an adaptive join that
+     * * chooses its method again if its right input turns out to be more than
+     * * factor times larger or smaller than estimated
+     **/
+    public static Operator adapt(Operator node, int factor) {
+        if (node.getOpType() == OpType.JOIN) {
+            Join join = (Join) node;
+            Operator left = join.getLeft();
+            Operator right = join.getRight();
+            if (join.getJoinType() == JoinType.SORTMERGE) {
+                // the adaptive join adds the sorts itself if it keeps the method
+                left = ((Sort) left).getBase();
+                right = ((Sort) right).getBase();
+            }
+            join.setLeft(adapt(left, factor));
+            join.setRight(adapt(right, factor));
+            return new AdaptiveJoin(join, estimateTuples(join.getLeft()), estimateTuples(join.getRight()), factor);
+        } else if (node.getOpType() == OpType.SELECT) {
+            Select select = (Select) node;
+            select.setBase(adapt(select.getBase(), factor));
+        } else if (node.getOpType() == OpType.PROJECT) {
+            Project project = (Project) node;
+            project.setBase(adapt(project.getBase(), factor));
+        } else if (node.getOpType() == OpType.SORT) {
+            Sort sort = (Sort) node;
+            sort.setBase(adapt(sort.getBase(), factor));
+        }
+        return node;
+    }
+
+    /**
+     * Gives each join of a serial execution plan a runtime filter per join condition,
+     * * built from the right input and pushed down to the scan the left join attribute
+     * * comes from. A filter is only added where the right input is estimated to have
+     * * fewer distinct join values than the left, and is sized for them
+     **/
+    public static Operator addRuntimeFilters(Operator node) {
+        if (node.getOpType() == OpType.JOIN) {
+            Join join = (Join) node;
+            addRuntimeFilters(join.getLeft());
+            addRuntimeFilters(join.getRight());
+            // a sort merge join builds the filter in the sort of its right input, unless
+            // that input is already sorted and streams through the sort
+            boolean sortmerge = join.getJoinType() == JoinType.SORTMERGE && !(join instanceof AdaptiveJoin);
+            if (sortmerge && ((Sort) join.getRight()).isPresorted()) {
+                return node;
+            }
+            for (Condition con : join.getConditionList()) {
+                Attribute probeAttr = con.getLhs();
+                Attribute buildAttr = (Attribute) con.getRhs();
+                Scan scan = findScan(join.getLeft(), probeAttr);
+                if (scan == null) {
+                    continue;
+                }
+                PlanCost build = new PlanCost();
+                build.getCost(join.getRight());
+                PlanCost probe = new PlanCost();
+                probe.getCost(join.getLeft());
+                long buildDistinct = build.getNumDistinct(buildAttr);
+                if (buildDistinct >= probe.getNumDistinct(probeAttr)) {
+                    // every left value is expected to find a partner
+                    continue;
+                }
+                RuntimeFilter filter = new RuntimeFilter(buildAttr, probeAttr, buildDistinct);
+                if (sortmerge) {
+                    ((Sort) join.getRight()).addRuntimeFilter(filter);
+                } else {
+                    join.addRuntimeFilter(filter);
+                }
+                scan.addRuntimeFilter(filter);
+            }
+        } else if (node.getOpType() == OpType.SELECT) {
+            addRuntimeFilters(((Select) node).getBase());
+        } else if (node.getOpType() == OpType.PROJECT) {
+            addRuntimeFilters(((Project) node).getBase());
+        } else if (node.getOpType() == OpType.SORT) {
+            addRuntimeFilters(((Sort) node).getBase());
+        }
+        return node;
+    }
+
+    /**
+     * Scan of the subtree that reads the attribute, null if there is none
+     **/
+    private static Scan findScan(Operator node, Attribute attr) {
+        switch (node.getOpType()) {
+            case OpType.SCAN:
+                return node.getSchema().contains(attr) ? (Scan) node : null;
+            case OpType.SELECT:
+                return findScan(((Select) node).getBase(), attr);
+            case OpType.SORT:
+                return findScan(((Sort) node).getBase(), attr);
+            case OpType.JOIN:
+                Scan scan = findScan(((Join) node).getLeft(), attr);
+                return scan != null ? scan : findScan(((Join) node).getRight(), attr);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Puts a prefetching exchange below each join, sort and distinct, so that the
+     * * inputs of an operator, and everything below them up to the next exchange,
+     * * run on threads of their own. The two sorts of a sort merge join then
+     * * generate their runs at the same time instead of one after the other
+     **/
+    public static Operator prefetch(Operator node) {
+        if (node.getOpType() == OpType.JOIN) {
+            Join join = (Join) node;
+            join.setLeft(prefetchInput(join.getLeft()));
+            join.setRight(prefetchInput(join.getRight()));
+        } else if (node.getOpType() == OpType.SELECT) {
+            Select select = (Select) node;
+            select.setBase(prefetch(select.getBase()));
+        } else if (node.getOpType() == OpType.PROJECT) {
+            Project project = (Project) node;
+            project.setBase(project.isDistinct() ? prefetchInput(project.getBase()) : prefetch(project.getBase()));
+        } else if (node.getOpType() == OpType.SORT) {
+            Sort sort = (Sort) node;
+            sort.setBase(prefetchInput(sort.getBase()));
+        } else if (node.getOpType() == OpType.EXCHANGE) {
+            ArrayList<Operator> producers = ((Exchange) node).getProducers();
+            for (int i = 0; i < producers.size(); ++i) {
+                producers.set(i, prefetch(producers.get(i)));
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Input of a pipeline breaker; an exchange already runs on its own threads
+     **/
+    private static Operator prefetchInput(Operator node) {
+        node = prefetch(node);
+        if (node.getOpType() == OpType.EXCHANGE) {
+            return node;
+        }
+        return Exchange.prefetch(node);
+    }
+
+    /**
+     * Execution operator of the same join method as node, over the given inputs
+     **/
+    private static Join copyJoin(Join node, Operator left, Operator right, int numbuff) {
+        Join jn = new Join(left, right, node.getConditionList(), OpType.JOIN);
+        jn.setSchema(node.getSchema());
+        jn.setJoinType(node.getJoinType());
+        jn.setNodeIndex(node.getNodeIndex());
+        jn.setNumBuff(numbuff);
+        switch (node.getJoinType()) {
+            case JoinType.NESTEDJOIN:
+                return new NestedJoin(jn);
+            case JoinType.BLOCKNESTED:
+                return new BlockNestedJoin(jn);
+            case JoinType.SORTMERGE:
+                return new SortMergeJoin(jn);
+            case JoinType.HASHJOIN:
+                return new HashJoin(jn);
+            default:
+                return jn;
+        }
+    }
+
+    /**
+     * Estimated number of tuples produced by a subtree
+     **/
+    private static long estimateTuples(Operator node) {
+        PlanCost pc = new PlanCost();
+        pc.getCost(node);
+        return pc.getNumTuples();
+    }
+
     /**
      * Randomly selects a neighbour
      **/
-    protected Operator getNeighbor(Operator root) {
+    protected Operator getNeighbor(Operator root, RandNumb random) {
         // Randomly select a node to be altered to get the neighbour
-        int nodeNum = RandNumb.randInt(0, numJoin - 1);
+        int nodeNum = random.nextInt(0, numJoin - 1);
         // Randomly select type of alteration: Change Method/Associative/Commutative
-        int changeType = RandNumb.randInt(0, NUMCHOICES - 1);
+        int changeType = random.nextInt(0, NUMCHOICES - 1);
         Operator neighbor = null;
         switch (changeType) {
             case METHODCHOICE:   // Select a neighbour by changing the method type
-                neighbor = neighborMeth(root, nodeNum);
+                neighbor = neighborMeth(root, nodeNum, random);
                 break;
             case COMMUTATIVE:
                 neighbor = neighborCommut(root, nodeNum);
                 break;
             case ASSOCIATIVE:
-                neighbor = neighborAssoc(root, nodeNum);
+                neighbor = neighborAssoc(root, nodeNum, random);
+                break;
+            case BUSHY:
+                neighbor = neighborBushy(root, nodeNum, random);
                 break;
         }
         return neighbor;
     }
 
     /**
-     * Implementation of Iterative Improvement Algorithm for Randomized optimization of Query Plan
+     * Implementation of Iterative Improvement Algorithm for Randomized optimization of Query Plan.
+     * * The random restarts run on parallelism threads, each with a generator seeded
+     * * from the seed and its number, so that the same seed gives the same plan
+     * * whatever the number of threads, unless the time budget runs out
      **/
     public Operator getOptimizedPlan() {
+        long start = System.nanoTime();
+        long deadline = timeBudget > 0 ? start + timeBudget * 1000000 : Long.MAX_VALUE;
+        Operator finalPlan = improve(getSeed(), new CostMemo(), start, deadline);
+        System.out.println("---------------------------Final Plan----------------");
+        Debug.PPrint(finalPlan);
+        System.out.println("  " + planCost);
+        return finalPlan;
+    }
+
+    /**
+     * Seed of the restarts of one optimization
+     **/
+    protected static long getSeed() {
+        return seed != null ? seed : new Random().nextLong();
+    }
+
+    /**
+     * Runs the random restarts down to their local minima and returns the
+     * * cheapest of them, leaving its cost in planCost. No restart begins
+     * * after the deadline
+     **/
+    protected Operator improve(long seed, CostMemo memo, long start, long deadline) {
         /** get an initial plan for the given sql query **/
-        RandomInitialPlan rip = new RandomInitialPlan(sqlquery);
+        RandomInitialPlan rip = new RandomInitialPlan(sqlquery, bufferManager);
         numJoin = rip.getNumJoins();
-        long MINCOST = Long.MAX_VALUE;
-        Operator finalPlan = null;
 
         /** NUMITER is number of times random restart **/
         int NUMITER;
@@ -138,81 +492,130 @@ public class RandomOptimizer {
             NUMITER = 1;
         }
 
+        // the trace of the restarts is only readable if they run one after the other
+        int threads = verbose ? 1 : Math.max(1, Math.min(parallelism, NUMITER));
+        Operator[] plans = new Operator[NUMITER];
+        long[] costs = new long[NUMITER];
+
         /** Randomly restart the gradient descent until
          *  the maximum specified number of random restarts (NUMITER)
          *  has satisfied
          **/
+        if (threads == 1) {
+            for (int j = 0; j < NUMITER; ++j) {
+                restart(j, seed, memo, deadline, null, plans, costs);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.submit(() -> IntStream.range(0, NUMITER).parallel()
+                        .forEach(j -> restart(j, seed, memo, deadline, pool, plans, costs))).get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("RandomOptimizer: Error in optimizing the query " + e);
+                System.exit(1);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        long MINCOST = Long.MAX_VALUE;
+        Operator finalPlan = null;
+        int numRestarts = 0;
         for (int j = 0; j < NUMITER; ++j) {
-            Operator initPlan = rip.prepareInitialPlan();
-            modifySchema(initPlan);
+            if (plans[j] == null) {
+                continue;
+            }
+            numRestarts++;
+            // keep the first plan even if infeasible, a later restart may still find a feasible one
+            if (finalPlan == null || costs[j] < MINCOST) {
+                MINCOST = costs[j];
+                finalPlan = plans[j];
+            }
+        }
+        System.out.println("\n\n\n");
+        System.out.println("RandomOptimizer: " + numRestarts + " of " + NUMITER + " restarts on " + threads
+                + " threads, seed " + seed + ", cost " + MINCOST + " after " + elapsedMillis(start) + " ms");
+        planCost = MINCOST;
+        return finalPlan;
+    }
+
+    /**
+     * Milliseconds since start, a System.nanoTime
+     **/
+    protected static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Runs restart number j down to a local minimum and puts the plan and its cost
+     * * at j. Neighbors are costed on the pool if there is one. Once the deadline
+     * * has passed, the restart stops where it is, and later restarts are skipped
+     **/
+    private void restart(int j, long seed, CostMemo memo, long deadline, ForkJoinPool pool,
+                         Operator[] plans, long[] costs) {
+        if (j > 0 && System.nanoTime() > deadline) {
+            return;
+        }
+        RandNumb random = new RandNumb(seed + j);
+        RandomInitialPlan rip = new RandomInitialPlan(sqlquery, bufferManager, random);
+        rip.setVerbose(verbose);
+        Operator initPlan = rip.prepareInitialPlan();
+        modifySchema(initPlan);
+        long initCost = new PlanCost(memo).getCost(initPlan);
+        if (verbose) {
             System.out.println("-----------initial Plan-------------");
             Debug.PPrint(initPlan);
-            PlanCost pc = new PlanCost();
-            long initCost = pc.getCost(initPlan);
             System.out.println(initCost);
+        }
 
-            boolean flag = true;
-            long minNeighborCost = initCost;   //just initialization purpose;
-            Operator minNeighbor = initPlan;  //just initialization purpose;
-            if (numJoin != 0) {
-                while (flag) {  // flag = false when local minimum is reached
-                    System.out.println("---------------while--------");
-                    Operator initPlanCopy = (Operator) initPlan.clone();
-                    minNeighbor = getNeighbor(initPlanCopy);
-
-                    System.out.println("--------------------------neighbor---------------");
-                    Debug.PPrint(minNeighbor);
-                    pc = new PlanCost();
-                    minNeighborCost = pc.getCost(minNeighbor);
-                    System.out.println("  " + minNeighborCost);
-
-                    /** In this loop we consider from the
-                     ** possible neighbors (randomly selected)
-                     ** and take the minimum among for next step
-                     **/
-                    for (int i = 1; i < 2 * numJoin; ++i) {
-                        initPlanCopy = (Operator) initPlan.clone();
-                        Operator neighbor = getNeighbor(initPlanCopy);
-                        System.out.println("------------------neighbor--------------");
-                        Debug.PPrint(neighbor);
-                        pc = new PlanCost();
-                        long neighborCost = 0;
-                        try {
-                            neighborCost = pc.getCost(neighbor);
-                        } catch (Exception e) {
-                            System.out.println("fatal error.");
-                            System.exit(0);
-                        }
-                        System.out.println(neighborCost);
-
-                        if (neighborCost < minNeighborCost) {
-                            minNeighbor = neighbor;
-                            minNeighborCost = neighborCost;
-                        }
-                    }
-                    if (minNeighborCost < initCost) {
-                        initPlan = minNeighbor;
-                        initCost = minNeighborCost;
-                    } else {
-                        minNeighbor = initPlan;
-                        minNeighborCost = initCost;
-                        flag = false;  // local minimum reached
-                    }
+        boolean flag = numJoin != 0;
+        while (flag && System.nanoTime() <= deadline) {  // flag = false when local minimum is reached
+            if (verbose) {
+                System.out.println("---------------while--------");
+            }
+            /** In this loop we consider from the
+             ** possible neighbors (randomly selected)
+             ** and take the minimum among for next step
+             **/
+            Operator[] neighbors = new Operator[2 * numJoin];
+            for (int i = 0; i < neighbors.length; ++i) {
+                neighbors[i] = getNeighbor((Operator) initPlan.clone(), random);
+            }
+            long[] neighborCosts = new long[neighbors.length];
+            if (pool == null) {
+                for (int i = 0; i < neighbors.length; ++i) {
+                    neighborCosts[i] = new PlanCost(memo).getCost(neighbors[i]);
                 }
-                System.out.println("------------------local minimum--------------");
-                Debug.PPrint(minNeighbor);
-                System.out.println(" " + minNeighborCost);
+            } else {
+                IntStream.range(0, neighbors.length).parallel()
+                        .forEach(i -> neighborCosts[i] = new PlanCost(memo).getCost(neighbors[i]));
             }
-            if (minNeighborCost < MINCOST) {
-                MINCOST = minNeighborCost;
-                finalPlan = minNeighbor;
+
+            int minNeighbor = 0;
+            for (int i = 0; i < neighbors.length; ++i) {
+                if (verbose) {
+                    System.out.println("------------------neighbor--------------");
+                    Debug.PPrint(neighbors[i]);
+                    System.out.println("  " + neighborCosts[i]);
+                }
+                if (neighborCosts[i] < neighborCosts[minNeighbor]) {
+                    minNeighbor = i;
+                }
+            }
+            if (neighborCosts[minNeighbor] < initCost) {
+                initPlan = neighbors[minNeighbor];
+                initCost = neighborCosts[minNeighbor];
+            } else {
+                flag = false;  // local minimum reached
             }
         }
-        System.out.println("\n\n\n");
-        System.out.println("---------------------------Final Plan----------------");
-        Debug.PPrint(finalPlan);
-        System.out.println("  " + MINCOST);
-        return finalPlan;
+        if (verbose && numJoin != 0) {
+            System.out.println("------------------local minimum--------------");
+            Debug.PPrint(initPlan);
+            System.out.println(" " + initCost);
+        }
+        plans[j] = initPlan;
+        costs[j] = initCost;
     }
 
     /**
@@ -221,16 +624,18 @@ public class RandomOptimizer {
      * * returns the modified plan
      **/
 
-    protected Operator neighborMeth(Operator root, int joinNum) {
-        System.out.println("------------------neighbor by method change----------------");
+    protected Operator neighborMeth(Operator root, int joinNum, RandNumb random) {
+        if (verbose) {
+            System.out.println("------------------neighbor by method change----------------");
+        }
         int numJMeth = JoinType.numJoinTypes();
         if (numJMeth > 1) {
             /** find the node that is to be altered **/
             Join node = (Join) findNodeAt(root, joinNum);
             int prevJoinMeth = node.getJoinType();
-            int joinMeth = RandNumb.randInt(0, numJMeth - 1);
+            int joinMeth = random.nextInt(0, numJMeth - 1);
             while (joinMeth == prevJoinMeth) {
-                joinMeth = RandNumb.randInt(0, numJMeth - 1);
+                joinMeth = random.nextInt(0, numJMeth - 1);
             }
             node.setJoinType(joinMeth);
         }
@@ -243,7 +648,9 @@ public class RandomOptimizer {
      * * returns the modifies plan
      **/
     protected Operator neighborCommut(Operator root, int joinNum) {
-        System.out.println("------------------neighbor by commutative---------------");
+        if (verbose) {
+            System.out.println("------------------neighbor by commutative---------------");
+        }
         /** find the node to be altered**/
         Join node = (Join) findNodeAt(root, joinNum);
         Operator left = node.getLeft();
@@ -260,7 +667,7 @@ public class RandomOptimizer {
      * *  e.g., (A X B) X C is changed to A X (B X C)
      * *  returns the modifies plan
      **/
-    protected Operator neighborAssoc(Operator root, int joinNum) {
+    protected Operator neighborAssoc(Operator root, int joinNum, RandNumb random) {
         /** find the node to be altered**/
         Join op = (Join) findNodeAt(root, joinNum);
         Operator left = op.getLeft();
@@ -271,7 +678,7 @@ public class RandomOptimizer {
         } else if (left.getOpType() != OpType.JOIN && right.getOpType() == OpType.JOIN) {
             transformRighttoLeft(op, (Join) right);
         } else if (left.getOpType() == OpType.JOIN && right.getOpType() == OpType.JOIN) {
-            if (RandNumb.flipCoin())
+            if (random.nextCoin())
                 transformLefttoRight(op, (Join) left);
             else
                 transformRighttoLeft(op, (Join) right);
@@ -288,7 +695,9 @@ public class RandomOptimizer {
      * This is given plan (A X B) X C
      **/
     protected void transformLefttoRight(Join op, Join left) {
-        System.out.println("------------------Left to Right neighbor--------------");
+        if (verbose) {
+            System.out.println("------------------Left to Right neighbor--------------");
+        }
         Operator right = op.getRight();
         Operator leftleft = left.getLeft();
         Operator leftright = left.getRight();
@@ -296,13 +705,16 @@ public class RandomOptimizer {
         Join temp;
 
         if (leftright.getSchema().contains(leftAttr)) {
-            System.out.println("----------------CASE 1-----------------");
+            if (verbose) {
+                System.out.println("----------------CASE 1-----------------");
+            }
             /** CASE 1 :  ( A X a1b1 B) X b4c4  C     =  A X a1b1 (B X b4c4 C)
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
             temp = new Join(leftright, right, op.getCondition(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
+            temp.setNumBuff(op.getNumBuff());
             op.setLeft(leftleft);
             op.setJoinType(left.getJoinType());
             op.setNodeIndex(left.getNodeIndex());
@@ -310,13 +722,16 @@ public class RandomOptimizer {
             op.setCondition(left.getCondition());
 
         } else {
-            System.out.println("--------------------CASE 2---------------");
+            if (verbose) {
+                System.out.println("--------------------CASE 2---------------");
+            }
             /**CASE 2:   ( A X a1b1 B) X a4c4  C     =  B X b1a1 (A X a4c4 C)
              ** a1b1,  a4c4 are the join conditions at that join operator
              **/
             temp = new Join(leftleft, right, op.getCondition(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
+            temp.setNumBuff(op.getNumBuff());
             op.setLeft(leftright);
             op.setRight(temp);
             op.setJoinType(left.getJoinType());
@@ -328,7 +743,9 @@ public class RandomOptimizer {
     }
 
     protected void transformRighttoLeft(Join op, Join right) {
-        System.out.println("------------------Right to Left Neighbor------------------");
+        if (verbose) {
+            System.out.println("------------------Right to Left Neighbor------------------");
+        }
         Operator left = op.getLeft();
         Operator rightleft = right.getLeft();
         Operator rightright = right.getRight();
@@ -336,26 +753,32 @@ public class RandomOptimizer {
         Join temp;
 
         if (rightleft.getSchema().contains(rightAttr)) {
-            System.out.println("----------------------CASE 3-----------------------");
+            if (verbose) {
+                System.out.println("----------------------CASE 3-----------------------");
+            }
             /** CASE 3 :  A X a1b1 (B X b4c4  C)     =  (A X a1b1 B ) X b4c4 C
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
             temp = new Join(left, rightleft, op.getCondition(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
+            temp.setNumBuff(op.getNumBuff());
             op.setLeft(temp);
             op.setRight(rightright);
             op.setJoinType(right.getJoinType());
             op.setNodeIndex(right.getNodeIndex());
             op.setCondition(right.getCondition());
         } else {
-            System.out.println("-----------------------------CASE 4-----------------");
+            if (verbose) {
+                System.out.println("-----------------------------CASE 4-----------------");
+            }
             /** CASE 4 :  A X a1c1 (B X b4c4  C)     =  (A X a1c1 C ) X c4b4 B
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
             temp = new Join(left, rightright, op.getCondition(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
+            temp.setNumBuff(op.getNumBuff());
             op.setLeft(temp);
             op.setRight(rightleft);
             op.setJoinType(right.getJoinType());
@@ -366,6 +789,168 @@ public class RandomOptimizer {
         }
     }
 
+    /**
+     * Moves between deep and bushy subtrees at the join numbered with joinNum
+     * *  e.g., (A X (B X C)) X D is changed to (A X B) X (C X D), and back
+     * *  returns the modified plan
+     **/
+    protected Operator neighborBushy(Operator root, int joinNum, RandNumb random) {
+        /** find the node to be altered**/
+        Join op = (Join) findNodeAt(root, joinNum);
+        Operator left = op.getLeft();
+        Operator right = op.getRight();
+
+        if (left.getOpType() == OpType.JOIN && right.getOpType() == OpType.JOIN) {
+            transformBushytoDeep(op, (Join) left, (Join) right, random.nextCoin());
+        } else {
+            /** the join child, if it has a join child holding the attribute of the condition **/
+            Join child = null;
+            if (left.getOpType() == OpType.JOIN) {
+                child = (Join) left;
+            } else if (right.getOpType() == OpType.JOIN) {
+                child = (Join) right;
+            }
+            if (child != null) {
+                transformDeeptoBushy(op, child, child == left ? right : left);
+            }
+            // Otherwise the join is just A X B, or its join child joins two tables
+        }
+
+        /** modify the schema before returning the root **/
+        modifySchema(root);
+        return root;
+    }
+
+    /**
+     * This is given plan (A X a1b1 B) X b4c4 (C X c1d1 D), the attributes of
+     * * the condition of the root may be on either side of its children
+     **/
+    protected void transformBushytoDeep(Join op, Join left, Join right, boolean keepLeft) {
+        Condition cond = op.getCondition();
+        Operator x = childWith(left, cond);
+        Operator xother = x == left.getLeft() ? left.getRight() : left.getLeft();
+        Operator y = childWith(right, cond);
+        Operator yother = y == right.getLeft() ? right.getRight() : right.getLeft();
+        Schema inner = x.getSchema().joinWith(y.getSchema());
+
+        if (keepLeft) {
+            /** (A X a1b1 B) X b4c4 (C X c1d1 D)  =  (A X a1b1 (B X b4c4 C)) X c1d1 D **/
+            Schema middle = xother.getSchema().joinWith(inner);
+            if (!canJoin(cond, x.getSchema(), y.getSchema()) || !canJoin(left.getCondition(), xother.getSchema(), inner)
+                    || !canJoin(right.getCondition(), middle, yother.getSchema())) {
+                return;
+            }
+            if (verbose) {
+                System.out.println("------------------Bushy to deep neighbor--------------");
+            }
+            swapJoin(op, right);
+            setInputs(right, x, y);
+            setInputs(left, xother, right);
+            setInputs(op, left, yother);
+        } else {
+            /** (A X a1b1 B) X b4c4 (C X c1d1 D)  =  A X a1b1 ((B X b4c4 C) X c1d1 D) **/
+            Schema middle = inner.joinWith(yother.getSchema());
+            if (!canJoin(cond, x.getSchema(), y.getSchema()) || !canJoin(right.getCondition(), inner, yother.getSchema())
+                    || !canJoin(left.getCondition(), xother.getSchema(), middle)) {
+                return;
+            }
+            if (verbose) {
+                System.out.println("------------------Bushy to deep neighbor--------------");
+            }
+            swapJoin(op, left);
+            setInputs(left, x, y);
+            setInputs(right, left, yother);
+            setInputs(op, xother, right);
+        }
+    }
+
+    /**
+     * This is given plan (A X a1b1 (B X b4c4 C)) X c1d1 D, with the join of
+     * * A and its sibling as child, D as other and the joins in any order.
+     * * Nothing is changed unless the attribute of the condition of the root
+     * * is in C and that of the condition of the child is in B
+     **/
+    protected void transformDeeptoBushy(Join op, Join child, Operator other) {
+        Condition cond = op.getCondition();
+        Operator inner = childWith(child, cond);
+        if (inner.getOpType() != OpType.JOIN) {
+            return;
+        }
+        Join grandchild = (Join) inner;
+        Operator a = inner == child.getLeft() ? child.getRight() : child.getLeft();
+        Operator c = childWith(grandchild, cond);
+        Operator b = c == grandchild.getLeft() ? grandchild.getRight() : grandchild.getLeft();
+        if (!canJoin(child.getCondition(), a.getSchema(), b.getSchema()) || !canJoin(cond, c.getSchema(), other.getSchema())
+                || !canJoin(grandchild.getCondition(), a.getSchema().joinWith(b.getSchema()),
+                c.getSchema().joinWith(other.getSchema()))) {
+            return;
+        }
+        if (verbose) {
+            System.out.println("------------------Deep to bushy neighbor--------------");
+        }
+        /** (A X a1b1 (B X b4c4 C)) X c1d1 D  =  (A X a1b1 B) X b4c4 (C X c1d1 D) **/
+        swapJoin(op, grandchild);
+        setInputs(child, a, b);
+        setInputs(grandchild, c, other);
+        setInputs(op, child, grandchild);
+    }
+
+    /**
+     * The child of the join that holds an attribute of the condition
+     **/
+    private static Operator childWith(Join join, Condition cond) {
+        return isIn(join.getLeft(), cond) ? join.getLeft() : join.getRight();
+    }
+
+    /**
+     * Whether the subtree holds an attribute of the condition
+     **/
+    private static boolean isIn(Operator node, Condition cond) {
+        return node.getSchema().contains(cond.getLhs()) || node.getSchema().contains((Attribute) cond.getRhs());
+    }
+
+    /**
+     * Whether the condition joins the two schemas, one attribute on each side
+     **/
+    private static boolean canJoin(Condition cond, Schema left, Schema right) {
+        Attribute rhs = (Attribute) cond.getRhs();
+        return (left.contains(cond.getLhs()) && right.contains(rhs)) || (left.contains(rhs) && right.contains(cond.getLhs()));
+    }
+
+    /**
+     * Swaps the conditions, methods, numbers and buffers of two joins,
+     * * which keep their place in the plan
+     **/
+    private static void swapJoin(Join a, Join b) {
+        ArrayList<Condition> conditions = a.getConditionList();
+        int joinType = a.getJoinType();
+        int nodeIndex = a.getNodeIndex();
+        int numBuff = a.getNumBuff();
+        a.setConditionList(b.getConditionList());
+        a.setJoinType(b.getJoinType());
+        a.setNodeIndex(b.getNodeIndex());
+        a.setNumBuff(b.getNumBuff());
+        b.setConditionList(conditions);
+        b.setJoinType(joinType);
+        b.setNodeIndex(nodeIndex);
+        b.setNumBuff(numBuff);
+    }
+
+    /**
+     * Makes the join join left with right, with its condition
+     * * turned so that the left attribute is in left
+     **/
+    private static void setInputs(Join join, Operator left, Operator right) {
+        join.setLeft(left);
+        join.setRight(right);
+        for (Condition cond : join.getConditionList()) {
+            if (!left.getSchema().contains(cond.getLhs()) || !right.getSchema().contains((Attribute) cond.getRhs())) {
+                cond.flip();
+            }
+        }
+        join.setSchema(left.getSchema().joinWith(right.getSchema()));
+    }
+
     /**
      * This method traverses through the query plan and
      * * returns the node mentioned by joinNum
@@ -0,0 +1,229 @@
+/**
+ * Mid-query re-optimization. The query runs in stages, one for each input
+ * a join materializes before producing output: the right input of a
+ * nested loops, block nested loops or hash join, and both sorted inputs of
+ * a sort merge join. Each stage is run on its own and its result written to
+ * a temporary table, with its statistics: the exact number of tuples and
+ * the number of distinct values of every column, estimated by a HyperLogLog
+ * sketch so that the memory taken does not grow with the stage.
+ *
+ * If the number of tuples differs from the estimate of PlanCost by more
+ * than the given factor, the rest of the query is optimized again by the
+ * given optimizer, with the temporary table in place of the tables, selects
+ * and joins of the stage. Otherwise the plan is kept, reading the stage from
+ * the temporary table. The temporary tables are removed when the query
+ * context is closed
+ **/
+
+package qp.optimizer;
+
+import qp.operators.*;
+import qp.utils.*;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.function.Function;
+
+public class Reoptimizer {
+
+    SQLQuery sqlquery;            // What is left of the query
+    BufferManager bufferManager;  // Buffers of the joins and sorts of this query
+    int factor;                   // How far off an estimate has to be to optimize again
+    QueryContext context;         // Query the stages run in
+    Function<SQLQuery, Operator> optimizer;  // Plans the query and each rewritten rest of it
+
+    public Reoptimizer(SQLQuery sqlquery, BufferManager bufferManager, int factor, QueryContext context,
+                       Function<SQLQuery, Operator> optimizer) {
+        this.sqlquery = sqlquery;
+        this.bufferManager = bufferManager;
+        this.factor = factor;
+        this.context = context;
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * Runs the stages of the query and returns the plan of the rest of it,
+     * * which reads the results of the stages from temporary tables
+     **/
+    public Operator getOptimizedPlan() {
+        Operator plan = optimizer.apply(sqlquery);
+        Operator stage;
+        while (plan != null && (stage = findStage(plan)) != null) {
+            PlanCost pc = new PlanCost();
+            pc.getCost(stage);
+            long estimate = pc.getNumTuples();
+
+            String tabname = context.newTempFileName("QPTEMP");
+            long actual = materialize(stage, tabname);
+            Scan scan = new Scan(tabname, OpType.SCAN);
+            scan.setSchema(stage.getSchema());
+            sqlquery = rewrite(sqlquery, stage, tabname);
+
+            if (actual > estimate * factor || actual * factor < estimate) {
+                System.out.println("Reoptimizer: stage estimated at " + estimate + " tuples produced "
+                        + actual + ", optimizing the rest of the query again");
+                plan = optimizer.apply(sqlquery);
+            } else {
+                plan = replace(plan, stage, scan);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Next stage to run: the first input materialized by a join that is not a
+     * * plain table and has no stage of its own inside. Null if there is none left
+     **/
+    static Operator findStage(Operator node) {
+        if (node.getOpType() == OpType.JOIN) {
+            Join join = (Join) node;
+            Operator stage = findStage(join.getRight());
+            if (stage == null) {
+                stage = findStage(join.getLeft());
+            }
+            if (stage == null && join.getRight().getOpType() != OpType.SCAN) {
+                stage = join.getRight();
+            }
+            if (stage == null && join.getJoinType() == JoinType.SORTMERGE
+                    && join.getLeft().getOpType() != OpType.SCAN) {
+                stage = join.getLeft();
+            }
+            return stage;
+        } else if (node.getOpType() == OpType.SELECT) {
+            return findStage(((Select) node).getBase());
+        } else if (node.getOpType() == OpType.PROJECT) {
+            return findStage(((Project) node).getBase());
+        } else if (node.getOpType() == OpType.SORT) {
+            return findStage(((Sort) node).getBase());
+        }
+        return null;
+    }
+
+    /**
+     * Runs the stage and writes its result into the table tabname, together with
+     * * its schema and statistics. Returns the number of tuples written
+     **/
+    long materialize(Operator stage, String tabname) {
+        Schema schema = stage.getSchema();
+        int numCols = schema.getNumCols();
+        ArrayList<HyperLogLog> distinct = new ArrayList<>(numCols);
+        for (int i = 0; i < numCols; ++i) {
+            distinct.add(new HyperLogLog());
+        }
+        context.deleteOnClose(tabname + ".tbl");
+        context.deleteOnClose(tabname + ".md");
+        context.deleteOnClose(tabname + ".stat");
+
+        long[] numTuples = new long[1];
+        try {
+            TableFile.Writer out = new TableFile.Writer(tabname + ".tbl",
+                    Math.max(1, TableFile.PAGE_BYTES / schema.getTupleSize()));
+            Operator root = RandomOptimizer.makeExecPlan((Operator) stage.clone());
+            root.setContext(context);
+            IOException[] error = new IOException[1];
+            boolean opened = root.pushTo(tuple -> {
+                for (int i = 0; i < numCols; ++i) {
+                    distinct.get(i).add(tuple.dataAt(i));
+                }
+                numTuples[0]++;
+                try {
+                    out.add(tuple);
+                } catch (IOException io) {
+                    error[0] = io;
+                }
+            });
+            out.close();
+            if (!opened || error[0] != null) {
+                System.out.println("Reoptimizer: Error in running a stage of the query");
+                System.exit(1);
+            }
+
+            ObjectOutputStream md = new ObjectOutputStream(new FileOutputStream(tabname + ".md"));
+            md.writeObject(schema);
+            md.close();
+            PrintWriter stat = new PrintWriter(tabname + ".stat");
+            stat.println(numTuples[0]);
+            for (int i = 0; i < numCols; ++i) {
+                stat.print((i == 0 ? "" : "\t") + Math.max(1, Math.min(distinct.get(i).estimate(), numTuples[0])));
+            }
+            stat.println();
+            stat.close();
+        } catch (IOException io) {
+            System.out.println("Reoptimizer: Error in writing the temporary table " + tabname);
+            System.exit(1);
+        }
+        return numTuples[0];
+    }
+
+    /**
+     * The query with the tables of the stage replaced by tabname, and
+     * * without the conditions the stage has applied
+     **/
+    static SQLQuery rewrite(SQLQuery query, Operator stage, String tabname) {
+        Schema schema = stage.getSchema();
+        ArrayList<String> stageTables = new ArrayList<>();
+        collectTables(stage, stageTables);
+        ArrayList<String> fromlist = new ArrayList<>();
+        for (String table : query.getFromList()) {
+            if (!stageTables.contains(table)) {
+                fromlist.add(table);
+            }
+        }
+        fromlist.add(tabname);
+
+        /** every condition on the columns of the stage alone has been applied by it **/
+        ArrayList<Condition> conditions = new ArrayList<>();
+        for (Condition con : query.getConditionList()) {
+            boolean applied = schema.contains(con.getLhs())
+                    && (!(con.getRhs() instanceof Attribute) || schema.contains((Attribute) con.getRhs()));
+            if (!applied) {
+                conditions.add(con);
+            }
+        }
+
+        SQLQuery rewritten = new SQLQuery(query.getProjectList(), fromlist, conditions);
+        rewritten.setGroupByList(query.getGroupByList());
+        rewritten.setOrderByList(query.getOrderByList());
+        rewritten.setIsDistinct(query.isDistinct());
+        rewritten.setIsDesc(query.isDesc());
+        return rewritten;
+    }
+
+    private static void collectTables(Operator node, ArrayList<String> tables) {
+        if (node.getOpType() == OpType.JOIN) {
+            collectTables(((Join) node).getLeft(), tables);
+            collectTables(((Join) node).getRight(), tables);
+        } else if (node.getOpType() == OpType.SELECT) {
+            collectTables(((Select) node).getBase(), tables);
+        } else if (node.getOpType() == OpType.SCAN) {
+            tables.add(((Scan) node).getTabName());
+        }
+    }
+
+    /**
+     * Puts replacement in the place of target in the plan
+     **/
+    static Operator replace(Operator node, Operator target, Operator replacement) {
+        if (node == target) {
+            return replacement;
+        }
+        if (node.getOpType() == OpType.JOIN) {
+            Join join = (Join) node;
+            join.setLeft(replace(join.getLeft(), target, replacement));
+            join.setRight(replace(join.getRight(), target, replacement));
+        } else if (node.getOpType() == OpType.SELECT) {
+            Select select = (Select) node;
+            select.setBase(replace(select.getBase(), target, replacement));
+        } else if (node.getOpType() == OpType.PROJECT) {
+            Project project = (Project) node;
+            project.setBase(replace(project.getBase(), target, replacement));
+        } else if (node.getOpType() == OpType.SORT) {
+            Sort sort = (Sort) node;
+            sort.setBase(replace(sort.getBase(), target, replacement));
+        }
+        return node;
+    }
+}
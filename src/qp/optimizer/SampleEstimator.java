@@ -0,0 +1,317 @@
+/**
+ * Estimates the number of tuples of a subtree by evaluating its predicates
+ * on the samples of its tables, written by Analyze to <tablename>.sample.
+ * The selections of each table filter its sample, the join conditions join
+ * the filtered samples, and the rows that survive are scaled up by the ratio
+ * of the size of each table to the size of its sample. Correlated and
+ * skewed join keys are then estimated from the data they hold rather than
+ * from the distinct counts alone.
+ *
+ * A subtree is identified by its PredicateSet, the names of its tables and
+ * its conditions, whatever the order and the methods of its joins, so each
+ * set is evaluated once for all the plans an optimization considers. The
+ * estimates are kept until a sample file changes. A subtree whose tables
+ * have no samples, that reads partitions of its tables, or whose sample
+ * join keeps no rows or grows beyond MAXROWS rows, is left to the
+ * estimates of PlanCost
+ **/
+
+package qp.optimizer;
+
+import qp.operators.*;
+import qp.utils.Attribute;
+import qp.utils.Condition;
+import qp.utils.Schema;
+import qp.utils.TableSample;
+import qp.utils.Tuple;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class SampleEstimator {
+
+    static final int MAXROWS = 100000;  // Rows of a sample join beyond which it is not evaluated
+
+    static boolean enabled = false;
+
+    /**
+     * Samples already read, by table name
+     **/
+    static final ConcurrentHashMap<String, CachedSample> samples = new ConcurrentHashMap<>();
+
+    /**
+     * Estimated tuples by predicate set, -1 for a set the samples cannot estimate
+     **/
+    static final ConcurrentHashMap<String, Long> estimates = new ConcurrentHashMap<>();
+
+    static final AtomicLong generation = new AtomicLong();  // Sample file changes seen; an estimate made across one is not kept
+
+    static final LongAdder hits = new LongAdder();
+    static final LongAdder misses = new LongAdder();
+
+    public static void setEnabled(boolean enabled) {
+        SampleEstimator.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Estimated number of tuples produced by the subtree, -1 if the samples
+     * * cannot estimate it
+     **/
+    public static long estimate(Operator node) {
+        PredicateSet set = PredicateSet.of(node);
+        if (set == null || set.isPartitioned()) {
+            return -1;
+        }
+        /** a sample file written since the estimate was made drops it, as well as one cached as -1 **/
+        for (String tabname : set.getTableNames()) {
+            getSample(tabname);
+        }
+        Long cached = estimates.get(set.getKey());
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long seen = generation.get();
+        long estimate = evaluate(set.getTableNames(), set.tables, set.conditions);
+        if (generation.get() == seen) {
+            estimates.put(set.getKey(), estimate);
+        }
+        return estimate;
+    }
+
+    /**
+     * Joins the filtered samples of the tables one at a time, each with a
+     * * table it has a join condition with where there is one, and scales the
+     * * rows that survive up to the sizes of the tables
+     **/
+    private static long evaluate(ArrayList<String> names, HashMap<String, Schema> tables,
+                                 ArrayList<Condition> conditions) {
+        ArrayList<Condition> pending = new ArrayList<>(conditions);
+        double scale = 1;
+        Schema schema = null;
+        List<Tuple> rows = null;
+        ArrayList<String> remaining = new ArrayList<>(names);
+        while (!remaining.isEmpty()) {
+            String tabname = remaining.get(0);
+            if (schema != null) {
+                for (String name : remaining) {
+                    if (findJoin(pending, schema, tables.get(name)) != null) {
+                        tabname = name;
+                        break;
+                    }
+                }
+            }
+            remaining.remove(tabname);
+            TableSample sample = getSample(tabname);
+            if (sample == null || sample.getRows().isEmpty()) {
+                return -1;
+            }
+            scale *= (double) sample.getNumTuples() / sample.getRows().size();
+            Schema tableschema = tables.get(tabname);
+            List<Tuple> tablerows = filter(sample.getRows(), tableschema, pending);
+
+            if (schema == null) {
+                schema = tableschema;
+                rows = tablerows;
+            } else {
+                rows = join(rows, schema, tablerows, tableschema, pending);
+                if (rows == null) {
+                    return -1;
+                }
+                schema = schema.joinWith(tableschema);
+                rows = filter(rows, schema, pending);
+            }
+            if (rows.isEmpty()) {
+                return -1;
+            }
+        }
+        return (long) Math.ceil(rows.size() * scale);
+    }
+
+    /**
+     * The rows that satisfy the pending conditions whose attributes are all
+     * * in the schema, which are then no longer pending
+     **/
+    private static List<Tuple> filter(List<Tuple> rows, Schema schema, ArrayList<Condition> pending) {
+        ArrayList<Condition> applicable = new ArrayList<>();
+        for (Condition con : pending) {
+            if (schema.contains(con.getLhs())
+                    && (!(con.getRhs() instanceof Attribute) || schema.contains((Attribute) con.getRhs()))) {
+                applicable.add(con);
+            }
+        }
+        if (applicable.isEmpty()) {
+            return rows;
+        }
+        pending.removeAll(applicable);
+        ArrayList<Tuple> result = new ArrayList<>();
+        for (Tuple row : rows) {
+            boolean satisfied = true;
+            for (Condition con : applicable) {
+                if (!satisfies(row, schema, con)) {
+                    satisfied = false;
+                    break;
+                }
+            }
+            if (satisfied) {
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether the row satisfies the condition. Join conditions are equalities,
+     * * the values of selections are compared as in Select
+     **/
+    private static boolean satisfies(Tuple row, Schema schema, Condition con) {
+        Object value = row.dataAt(schema.indexOf(con.getLhs()));
+        Object other;
+        if (con.getRhs() instanceof Attribute) {
+            other = row.dataAt(schema.indexOf((Attribute) con.getRhs()));
+            if (con.getOpType() == Condition.JOIN) {
+                return Tuple.equalValues(value, other);
+            }
+        } else {
+            String constant = (String) con.getRhs();
+            int type = schema.typeOf(con.getLhs());
+            if (type == Attribute.INT) {
+                other = Integer.valueOf(constant);
+            } else if (type == Attribute.REAL) {
+                other = Float.valueOf(constant);
+            } else {
+                other = constant;
+            }
+        }
+        int flag = Tuple.compareValues(value, other);
+        switch (con.getExprType()) {
+            case Condition.LESSTHAN:
+                return flag < 0;
+            case Condition.GREATERTHAN:
+                return flag > 0;
+            case Condition.LTOE:
+                return flag <= 0;
+            case Condition.GTOE:
+                return flag >= 0;
+            case Condition.EQUAL:
+                return flag == 0;
+            case Condition.NOTEQUAL:
+                return flag != 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * A pending join condition between the two schemas, null if there is none
+     **/
+    private static Condition findJoin(ArrayList<Condition> pending, Schema left, Schema right) {
+        for (Condition con : pending) {
+            if (con.getOpType() == Condition.JOIN && con.getRhs() instanceof Attribute) {
+                Attribute rhs = (Attribute) con.getRhs();
+                if (left.contains(con.getLhs()) && right.contains(rhs)
+                        || right.contains(con.getLhs()) && left.contains(rhs)) {
+                    return con;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hash join of the rows on the pending join conditions between the two
+     * * schemas, or their cross product if there are none. Null if the result
+     * * would hold more than MAXROWS rows
+     **/
+    private static List<Tuple> join(List<Tuple> leftrows, Schema left, List<Tuple> rightrows, Schema right,
+                                    ArrayList<Condition> pending) {
+        ArrayList<Integer> leftindex = new ArrayList<>();
+        ArrayList<Integer> rightindex = new ArrayList<>();
+        Condition con;
+        while ((con = findJoin(pending, left, right)) != null) {
+            Attribute rhs = (Attribute) con.getRhs();
+            if (left.contains(con.getLhs())) {
+                leftindex.add(left.indexOf(con.getLhs()));
+                rightindex.add(right.indexOf(rhs));
+            } else {
+                leftindex.add(left.indexOf(rhs));
+                rightindex.add(right.indexOf(con.getLhs()));
+            }
+            pending.remove(con);
+        }
+        HashMap<List<Object>, ArrayList<Tuple>> table = new HashMap<>();
+        for (Tuple row : rightrows) {
+            table.computeIfAbsent(keyOf(row, rightindex), k -> new ArrayList<>()).add(row);
+        }
+        ArrayList<Tuple> result = new ArrayList<>();
+        for (Tuple row : leftrows) {
+            ArrayList<Tuple> matches = table.get(keyOf(row, leftindex));
+            if (matches == null) {
+                continue;
+            }
+            if (result.size() + matches.size() > MAXROWS) {
+                return null;
+            }
+            for (Tuple match : matches) {
+                result.add(row.joinWith(match));
+            }
+        }
+        return result;
+    }
+
+    private static List<Object> keyOf(Tuple row, ArrayList<Integer> index) {
+        ArrayList<Object> key = new ArrayList<>(index.size());
+        for (int i : index) {
+            key.add(row.dataAt(i));
+        }
+        return key;
+    }
+
+    /**
+     * The sample of a table, read again if its file has changed since it was
+     * * last read, when the estimates from the old sample are dropped
+     **/
+    private static TableSample getSample(String tabname) {
+        File file = new File(tabname + ".sample");
+        CachedSample cached = samples.get(tabname);
+        if (cached != null && cached.lastModified == file.lastModified() && cached.length == file.length()) {
+            return cached.sample;
+        }
+        cached = new CachedSample(file.lastModified(), file.length(), TableSample.read(tabname));
+        if (samples.put(tabname, cached) != null) {
+            generation.incrementAndGet();
+            estimates.clear();
+        }
+        return cached.sample;
+    }
+
+    static class CachedSample {
+        final long lastModified;
+        final long length;
+        final TableSample sample;   // Null if the table has no sample
+
+        CachedSample(long lastModified, long length, TableSample sample) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.sample = sample;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Two phase optimization: the iterative improvement of the RandomOptimizer
+ * finds the local minima of its restarts, then simulated annealing starts
+ * from the cheapest of them. Annealing takes a random neighbor at each move,
+ * with the moves of the RandomOptimizer including the bushy ones, and
+ * accepts a more expensive one with probability exp(-increase / temperature),
+ * so that it can leave a local minimum. The temperature starts at a fraction
+ * of the cost of the plan found by the first phase and is multiplied by the
+ * cooling factor after each stage of equilibrium * number of joins moves.
+ * The search is frozen once the temperature is below 1 and the best plan has
+ * not changed for FROZENSTAGES stages.
+ *
+ * With a time budget the first phase begins no restart after half of it, and
+ * annealing stops when it is spent. The cost of the best plan is printed
+ * with the time taken when each phase ends and whenever annealing improves it
+ **/
+
+package qp.optimizer;
+
+import qp.operators.Debug;
+import qp.operators.Operator;
+import qp.utils.RandNumb;
+import qp.utils.SQLQuery;
+
+public class TwoPhaseOptimizer extends RandomOptimizer {
+
+    static final int FROZENSTAGES = 4;  // Stages without a better plan before the search is frozen
+
+    static double temperature = 0.1;   // Starting temperature, as a fraction of the cost of the first phase's plan
+    static double cooling = 0.95;      // Factor by which the temperature falls after each stage
+    static int equilibrium = 16;       // Moves per stage, per join
+
+    public TwoPhaseOptimizer(SQLQuery sqlquery, BufferManager bufferManager) {
+        super(sqlquery, bufferManager);
+    }
+
+    public static void setSchedule(double temperature, double cooling, int equilibrium) {
+        TwoPhaseOptimizer.temperature = temperature;
+        TwoPhaseOptimizer.cooling = cooling;
+        TwoPhaseOptimizer.equilibrium = equilibrium;
+    }
+
+    public Operator getOptimizedPlan() {
+        long start = System.nanoTime();
+        long seed = getSeed();
+        long deadline = timeBudget > 0 ? start + timeBudget * 1000000 : Long.MAX_VALUE;
+        long improveDeadline = timeBudget > 0 ? start + timeBudget * 500000 : Long.MAX_VALUE;
+        CostMemo memo = new CostMemo();
+
+        Operator plan = improve(seed, memo, start, improveDeadline);
+        Operator finalPlan = anneal(plan, planCost, new RandNumb(seed - 1), memo, start, deadline);
+        System.out.println("---------------------------Final Plan----------------");
+        Debug.PPrint(finalPlan);
+        System.out.println("  " + planCost);
+        return finalPlan;
+    }
+
+    /**
+     * Simulated annealing from the plan with the given cost. Returns the best
+     * * plan seen, leaving its cost in planCost
+     **/
+    protected Operator anneal(Operator plan, long cost, RandNumb random, CostMemo memo, long start, long deadline) {
+        if (numJoin == 0) {
+            return plan;
+        } else if (cost == Long.MAX_VALUE) {
+            System.out.println("TwoPhaseOptimizer: no feasible plan to set the temperature by");
+            return plan;
+        }
+        Operator best = plan;
+        long bestCost = cost;
+        double temp = temperature * cost;
+        int stageMoves = equilibrium * numJoin;
+        int numStages = 0;
+        int stagesUnchanged = 0;
+        long numMoves = 0;
+
+        while ((temp >= 1 || stagesUnchanged < FROZENSTAGES) && System.nanoTime() <= deadline) {
+            boolean improved = false;
+            for (int i = 0; i < stageMoves && System.nanoTime() <= deadline; ++i) {
+                Operator neighbor = getNeighbor((Operator) plan.clone(), random);
+                long neighborCost = new PlanCost(memo).getCost(neighbor);
+                numMoves++;
+                if (neighborCost == Long.MAX_VALUE) {
+                    continue;
+                }
+                long increase = neighborCost - cost;
+                if (increase <= 0 || random.nextDouble() < Math.exp(-increase / temp)) {
+                    plan = neighbor;
+                    cost = neighborCost;
+                    if (cost < bestCost) {
+                        best = plan;
+                        bestCost = cost;
+                        improved = true;
+                        System.out.println("TwoPhaseOptimizer: cost " + bestCost + " after "
+                                + elapsedMillis(start) + " ms");
+                    }
+                }
+            }
+            if (verbose) {
+                System.out.println("---------------stage " + numStages + " at temperature " + temp
+                        + ", cost " + cost + "--------");
+            }
+            stagesUnchanged = improved ? 0 : stagesUnchanged + 1;
+            temp *= cooling;
+            numStages++;
+        }
+        System.out.println("TwoPhaseOptimizer: " + numMoves + " moves in " + numStages + " stages, cost "
+                + bestCost + " after " + elapsedMillis(start) + " ms");
+        planCost = bestCost;
+        return best;
+    }
+}
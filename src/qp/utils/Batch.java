@@ -12,6 +12,7 @@ public class Batch implements Serializable {
 
     int MAX_SIZE;             // Number of tuples per page
     static int PageSize;      // Number of bytes per page
+    static int ExecBatchSize = 1024;  // Number of tuples per batch passed between operators
     ArrayList<Tuple> tuples;  // The tuples in the page
 
     /** Set number of bytes per page **/
@@ -24,6 +25,30 @@ public class Batch implements Serializable {
         return PageSize;
     }
 
+    /** Set number of tuples per batch passed between operators **/
+    public static void setExecBatchSize(int size) {
+        ExecBatchSize = size;
+    }
+
+    /**
+     * Get number of tuples per batch passed between operators. This is
+     * * independent of the page size, which only governs what is written
+     * * to disk and what the optimizer counts as I/O
+     **/
+    public static int getExecBatchSize() {
+        return ExecBatchSize;
+    }
+
+    /** Number of tuples of the given size that fit in a page **/
+    public static int getPageCapacity(int tuplesize) {
+        int capacity = PageSize / tuplesize;
+        if (capacity < 1) {
+            System.err.println("Error: Page size too small, cannot fit single tuple");
+            System.exit(1);
+        }
+        return capacity;
+    }
+
     /** Number of tuples per page **/
     public Batch(int numtuple) {
         if (numtuple < 1) {
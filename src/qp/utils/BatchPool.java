@@ -0,0 +1,66 @@
+/**
+ * Per-query pool of Batch objects. Operators take their output pages from the pool
+ * and consumers hand them back once they are done, so that in steady state no new
+ * Batch has to be allocated for every page that flows through the plan
+ **/
+
+package qp.utils;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+public class BatchPool {
+
+    static final int MAX_FREE = 64;  // Maximum number of idle batches kept per capacity
+
+    HashMap<Integer, ArrayDeque<Batch>> free;  // Idle batches, keyed by capacity
+    long numAcquired;                          // Number of batches handed out
+    long numAllocated;                         // Number of batches that had to be newly allocated
+    long numReleased;                          // Number of batches given back
+
+    public BatchPool() {
+        free = new HashMap<>();
+    }
+
+    /**
+     * Returns an empty batch of the given capacity, reusing an idle one if possible
+     **/
+    public synchronized Batch acquire(int capacity) {
+        numAcquired++;
+        ArrayDeque<Batch> idle = free.get(capacity);
+        if (idle != null && !idle.isEmpty()) {
+            return idle.pop();
+        }
+        numAllocated++;
+        return new Batch(capacity);
+    }
+
+    /**
+     * Gives a batch back to the pool. The caller must not touch the batch afterwards,
+     * although the tuples it held remain valid
+     **/
+    public synchronized void release(Batch batch) {
+        numReleased++;
+        ArrayDeque<Batch> idle = free.get(batch.capacity());
+        if (idle == null) {
+            idle = new ArrayDeque<>();
+            free.put(batch.capacity(), idle);
+        }
+        if (idle.size() < MAX_FREE) {
+            batch.clear();
+            idle.push(batch);
+        }
+    }
+
+    public synchronized long getNumAcquired() {
+        return numAcquired;
+    }
+
+    public synchronized long getNumAllocated() {
+        return numAllocated;
+    }
+
+    public synchronized long getNumReleased() {
+        return numReleased;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Bloom filter over column values. A value that was added is always
+ * reported as possibly present; a value that was not is reported absent
+ * with a probability set by the size of the filter. Values are hashed with
+ * Tuple.hashValue, so a plain string probes the bits of its encoded twin
+ **/
+
+package qp.utils;
+
+import java.util.Arrays;
+
+public class BloomFilter {
+
+    static final double FALSE_POSITIVE_RATE = 0.01;  // Target rate at the expected number of values
+
+    final long[] bits;
+    final int numBits;
+    final int numHashes;
+
+    /**
+     * Filter sized for the expected number of distinct values
+     **/
+    public BloomFilter(long expectedValues) {
+        long n = Math.max(1, expectedValues);
+        double m = -n * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2));
+        numBits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, (long) Math.ceil(m)));
+        numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+        bits = new long[(numBits + 63) / 64];
+    }
+
+    public int getNumBits() {
+        return numBits;
+    }
+
+    public void add(Object value) {
+        long h = Tuple.hashValue(value);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < numHashes; ++i) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(Object value) {
+        long h = Tuple.hashValue(value);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < numHashes; ++i) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(bits, 0);
+    }
+}
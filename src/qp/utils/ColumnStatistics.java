@@ -0,0 +1,87 @@
+/**
+ * Statistics of one column, gathered in a single pass over its values in
+ * memory that does not grow with the table: the number of values and of
+ * nulls, the smallest and largest value, a HyperLogLog sketch of the
+ * distinct values and a uniform random sample of SAMPLESIZE values kept by
+ * reservoir sampling, from which the histogram of the column is built
+ **/
+
+package qp.utils;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+public class ColumnStatistics {
+
+    public static final int SAMPLESIZE = 10000;
+
+    final int type;
+    final HyperLogLog sketch = new HyperLogLog();
+    final ArrayList<Object> sample = new ArrayList<>();
+    final Random random;   // Chooses the values kept in the sample
+    long count;            // Values that are not null
+    long nulls;
+    Object min;
+    Object max;
+
+    /**
+     * Statistics of a column of the given type, sampled with the given seed
+     **/
+    public ColumnStatistics(int type, long seed) {
+        this.type = type;
+        this.random = new Random(seed);
+    }
+
+    public void add(Object value) {
+        if (value == null) {
+            nulls++;
+            return;
+        }
+        count++;
+        sketch.add(value);
+        if (min == null || Tuple.compareValues(value, min) < 0) {
+            min = value;
+        }
+        if (max == null || Tuple.compareValues(value, max) > 0) {
+            max = value;
+        }
+        if (sample.size() < SAMPLESIZE) {
+            sample.add(value);
+        } else {
+            long slot = (long) (random.nextDouble() * count);
+            if (slot < SAMPLESIZE) {
+                sample.set((int) slot, value);
+            }
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getNulls() {
+        return nulls;
+    }
+
+    /**
+     * Estimated number of distinct values, at least 1 and at most the number of values
+     **/
+    public long getDistinct() {
+        return Math.max(1, Math.min(sketch.estimate(), count));
+    }
+
+    public Object getMin() {
+        return min;
+    }
+
+    public Object getMax() {
+        return max;
+    }
+
+    /**
+     * Histogram of the sample, null if the column has no values
+     **/
+    public Histogram getHistogram(int numBuckets) {
+        return Histogram.build(type, sample, numBuckets);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * A dictionary-encoded string value. The tables written by ConvertTxtToTbl
+ * store their STRING columns as DictStrings carrying the code the value has
+ * in the dictionary of the table. Codes follow the order of the strings, so
+ * two values of the same dictionary are compared and tested for equality on
+ * their codes alone, without looking at the characters
+ **/
+
+package qp.utils;
+
+import java.io.Serializable;
+
+public class DictString implements Serializable, Comparable<DictString> {
+
+    private static final long serialVersionUID = 1L;
+
+    final long dictId;   // Identifies the dictionary the code belongs to
+    final int code;      // Position of the value in the sorted dictionary
+    final String value;  // The decoded string
+
+    public DictString(long dictId, int code, String value) {
+        this.dictId = dictId;
+        this.code = code;
+        this.value = value;
+    }
+
+    public long getDictId() {
+        return dictId;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Whether the codes of the two values can be compared directly
+     **/
+    public boolean sameDictionary(DictString other) {
+        return dictId == other.dictId;
+    }
+
+    @Override
+    public int compareTo(DictString other) {
+        if (sameDictionary(other)) {
+            return Integer.compare(code, other.code);
+        }
+        return value.compareTo(other.value);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof DictString)) {
+            return false;
+        }
+        DictString o = (DictString) other;
+        if (sameDictionary(o)) {
+            return code == o.code;
+        }
+        return value.equals(o.value);
+    }
+
+    /**
+     * Same as the hash of the plain string, so that encoded and plain values can be mixed
+     **/
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
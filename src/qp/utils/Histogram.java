@@ -0,0 +1,199 @@
+/**
+ * Equi-depth histogram of the values of a column. The sorted values are cut
+ * into buckets holding the same number of values, and the bounds of the
+ * buckets are kept: the smallest value, then the largest value of each
+ * bucket. A value that fills several buckets shows up as a bucket whose
+ * bounds are equal, so skewed columns are described as well as uniform ones.
+ *
+ * The histograms of a table are stored in <tablename>.hist, one line per
+ * column with the name of the column followed by its bounds
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+
+public class Histogram {
+
+    public static final int NUMBUCKETS = 20;  // Buckets of the histograms written by the loader and Analyze
+
+    final int type;
+    final double[] bounds;    // Bounds of an INT or REAL column
+    final String[] strings;   // Bounds of a STRING column
+
+    Histogram(int type, double[] bounds, String[] strings) {
+        this.type = type;
+        this.bounds = bounds;
+        this.strings = strings;
+    }
+
+    /**
+     * Histogram of the given values of a column of the given type, which are
+     * * Integers, Floats, or Strings or DictStrings for STRING columns.
+     * * Null if there are no values
+     **/
+    public static Histogram build(int type, ArrayList<Object> values, int numBuckets) {
+        if (values.isEmpty()) {
+            return null;
+        }
+        int n = values.size();
+        int k = Math.min(numBuckets, n);
+        if (type == Attribute.STRING) {
+            ArrayList<String> sorted = new ArrayList<>();
+            for (Object value : values) {
+                sorted.add(value.toString());
+            }
+            Collections.sort(sorted);
+            String[] strings = new String[k + 1];
+            strings[0] = sorted.get(0);
+            for (int i = 1; i <= k; ++i) {
+                strings[i] = sorted.get((int) ((long) n * i / k) - 1);
+            }
+            return new Histogram(type, null, strings);
+        }
+        double[] sorted = new double[n];
+        for (int i = 0; i < n; ++i) {
+            sorted[i] = ((Number) values.get(i)).doubleValue();
+        }
+        Arrays.sort(sorted);
+        double[] bounds = new double[k + 1];
+        bounds[0] = sorted[0];
+        for (int i = 1; i <= k; ++i) {
+            bounds[i] = sorted[(int) ((long) n * i / k) - 1];
+        }
+        return new Histogram(type, bounds, null);
+    }
+
+    public int getNumBuckets() {
+        return type == Attribute.STRING ? strings.length - 1 : bounds.length - 1;
+    }
+
+    /**
+     * Estimated fraction of the values of the column that are less than the
+     * * constant, or at most the constant if inclusive. Within a bucket the
+     * * values of a numeric column are taken as uniform, and a STRING bucket is
+     * * taken as half below the constant. Returns -1 if the constant cannot be
+     * * read as a value of the column
+     **/
+    public double fractionBelow(String constant, boolean inclusive) {
+        int k = getNumBuckets();
+        if (type == Attribute.STRING) {
+            double buckets = 0;
+            for (int i = 1; i <= k; ++i) {
+                int hi = constant.compareTo(strings[i]);
+                if (hi > 0 || (hi == 0 && inclusive)) {
+                    buckets += 1;
+                } else if (constant.compareTo(strings[i - 1]) > 0) {
+                    buckets += 0.5;
+                }
+            }
+            return buckets / k;
+        }
+        double value;
+        try {
+            value = Double.parseDouble(constant);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        double buckets = 0;
+        for (int i = 1; i <= k; ++i) {
+            double lo = bounds[i - 1];
+            double hi = bounds[i];
+            if (value > hi || (value == hi && inclusive)) {
+                buckets += 1;
+            } else if (value > lo) {
+                buckets += (value - lo) / (hi - lo);
+            }
+        }
+        return buckets / k;
+    }
+
+    /**
+     * Writes the histogram as a line of a .hist file
+     **/
+    public void write(PrintWriter out, String colname) {
+        out.print(colname);
+        int k = getNumBuckets();
+        for (int i = 0; i <= k; ++i) {
+            out.print("\t");
+            if (type == Attribute.STRING) {
+                out.print(strings[i]);
+            } else if (type == Attribute.INT) {
+                out.print((long) bounds[i]);
+            } else {
+                out.print(bounds[i]);
+            }
+        }
+        out.println();
+    }
+
+    /**
+     * Writes <tablename>.hist with the histograms of the columns of the
+     * * table, skipping the columns whose histogram is null
+     **/
+    public static void writeTable(String tabname, Schema schema, Histogram[] histograms) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(tabname + ".hist")));
+        for (int i = 0; i < schema.getNumCols(); ++i) {
+            if (histograms[i] != null) {
+                histograms[i].write(out, schema.getAttribute(i).getColName());
+            }
+        }
+        out.close();
+    }
+
+    /**
+     * Reads the histograms of a table from <tablename>.hist by the names of
+     * * their columns, taking the types of the columns from the attributes of
+     * * the table in the schema. A table without a .hist file has no histograms
+     **/
+    public static HashMap<String, Histogram> read(String tabname, Schema schema) {
+        HashMap<String, Histogram> histograms = new HashMap<>();
+        String filename = tabname + ".hist";
+        if (!new File(filename).exists()) {
+            return histograms;
+        }
+        HashMap<String, Integer> types = new HashMap<>();
+        for (Attribute attr : schema.getAttList()) {
+            if (tabname.equals(attr.getTabName())) {
+                types.put(attr.getColName(), attr.getType());
+            }
+        }
+        try (BufferedReader in = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                StringTokenizer tokenizer = new StringTokenizer(line);
+                if (tokenizer.countTokens() < 3) {
+                    continue;  // a histogram has at least one bucket, with two bounds
+                }
+                String colname = tokenizer.nextToken();
+                Integer type = types.get(colname);
+                if (type == null) {
+                    continue;  // not a column of the schema
+                }
+                int numBounds = tokenizer.countTokens();
+                if (type == Attribute.STRING) {
+                    String[] strings = new String[numBounds];
+                    for (int i = 0; i < numBounds; ++i) {
+                        strings[i] = tokenizer.nextToken();
+                    }
+                    histograms.put(colname, new Histogram(type, null, strings));
+                } else {
+                    double[] bounds = new double[numBounds];
+                    for (int i = 0; i < numBounds; ++i) {
+                        bounds[i] = Double.parseDouble(tokenizer.nextToken());
+                    }
+                    histograms.put(colname, new Histogram(type, bounds, null));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("incorrect format of histogram file " + filename);
+            System.exit(1);
+        }
+        return histograms;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * HyperLogLog sketch of the number of distinct values of a column. Each
+ * value is hashed to 64 bits by Tuple.hashValue; the first PRECISION bits
+ * choose a register, which keeps the longest run of leading zeros seen in
+ * the remaining bits.
+ * The sketch takes 2^PRECISION bytes whatever the number of values, and its
+ * estimate is within about 1% of the true count. Small counts are estimated
+ * from the number of registers still empty
+ **/
+
+package qp.utils;
+
+public class HyperLogLog {
+
+    static final int PRECISION = 14;
+    static final int NUMREGISTERS = 1 << PRECISION;
+
+    final byte[] registers = new byte[NUMREGISTERS];
+
+    public void add(Object value) {
+        long h = Tuple.hashValue(value);
+        int register = (int) (h >>> (64 - PRECISION));
+        // the sentinel bit bounds the run of zeros when the remaining bits are all zero
+        int rank = Long.numberOfLeadingZeros((h << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    /**
+     * Adds the values of another sketch to this one
+     **/
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < NUMREGISTERS; ++i) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Estimated number of distinct values added
+     **/
+    public long estimate() {
+        double sum = 0;
+        int empty = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                empty++;
+            }
+        }
+        double m = NUMREGISTERS;
+        double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        if (estimate <= 2.5 * m && empty > 0) {
+            estimate = m * Math.log(m / empty);
+        }
+        return Math.round(estimate);
+    }
+}
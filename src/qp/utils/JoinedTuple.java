@@ -0,0 +1,64 @@
+/**
+ * Result of joining two tuples. Instead of copying the columns of both
+ * inputs it refers to the left and right source tuples, and columns are
+ * only looked up when an operator reads them. The columns are copied into
+ * a flat Tuple when the whole row is asked for or when it is written to disk
+ **/
+
+package qp.utils;
+
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+
+public class JoinedTuple extends Tuple {
+
+    private static final long serialVersionUID = 4002744518929262895L;  // Written as a flat Tuple, see writeReplace
+
+    final Tuple left;     // Tuple supplying the first leftCols columns
+    final Tuple right;    // Tuple supplying the remaining columns
+    final int leftCols;   // Number of columns in the left tuple
+    final int numCols;    // Total number of columns
+
+    public JoinedTuple(Tuple left, Tuple right) {
+        super(null);
+        this.left = left;
+        this.right = right;
+        this.leftCols = left.getNumCols();
+        this.numCols = leftCols + right.getNumCols();
+    }
+
+    /**
+     * Materializes the columns, done at most once per tuple
+     **/
+    @Override
+    public ArrayList<Object> data() {
+        if (_data == null) {
+            ArrayList<Object> newData = new ArrayList<>(numCols);
+            for (int i = 0; i < numCols; ++i) {
+                newData.add(dataAt(i));
+            }
+            _data = newData;
+        }
+        return _data;
+    }
+
+    @Override
+    public Object dataAt(int index) {
+        if (index < leftCols) {
+            return left.dataAt(index);
+        }
+        return right.dataAt(index - leftCols);
+    }
+
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * Tuples are spilled as flat rows, so readers never see a JoinedTuple
+     **/
+    private Object writeReplace() throws ObjectStreamException {
+        return new Tuple(data());
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * State of one running query that is shared by all of its operators: the
+ * batch pool, the names of the temporary files and the files to remove once
+ * the query has finished. Every query gets a context
+ * of its own, so queries running at the same time share no mutable state and
+ * never write to the same temporary file
+ **/
+
+package qp.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class QueryContext {
+
+    final String id;          // Random part of the temporary file names of this query
+    final BatchPool pool;     // Pool the output batches are taken from, null if not pooled
+    final AtomicInteger numFiles = new AtomicInteger();  // Temporary files named so far
+    final ArrayList<String> filesToDelete = new ArrayList<>();  // Files that outlive the operators writing them
+
+    public QueryContext(BatchPool pool) {
+        this.pool = pool;
+        id = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    }
+
+    public BatchPool getBatchPool() {
+        return pool;
+    }
+
+    /**
+     * Returns a name for a new temporary file, unique among the files of
+     * * this query and, with high probability, among those of other queries
+     **/
+    public String newTempFileName(String prefix) {
+        return prefix + "-" + id + "-" + numFiles.incrementAndGet();
+    }
+
+    /**
+     * Marks a file to be removed when the query is closed, for files read by
+     * * a later part of the query than the one that wrote them
+     **/
+    public synchronized void deleteOnClose(String filename) {
+        filesToDelete.add(filename);
+    }
+
+    /**
+     * Removes the files marked with deleteOnClose, called once the query has finished
+     **/
+    public synchronized void close() {
+        for (String filename : filesToDelete) {
+            new File(filename).delete();
+        }
+        filesToDelete.clear();
+    }
+}
@@ -6,9 +6,37 @@
 package qp.utils;
 
 import java.lang.Math;
+import java.util.Random;
 
 public class RandNumb {
 
+    Random random;  // Generator of this instance
+
+    /** Generator with a seed of its own **/
+    public RandNumb() {
+        random = new Random();
+    }
+
+    /** Generator that gives the same numbers for the same seed **/
+    public RandNumb(long seed) {
+        random = new Random(seed);
+    }
+
+    /** Get a random number between a and b from this generator **/
+    public int nextInt(int a, int b) {
+        return a + random.nextInt(b - a + 1);
+    }
+
+    /** Get a random number between 0 and 1 from this generator **/
+    public double nextDouble() {
+        return random.nextDouble();
+    }
+
+    /** Coin flip from this generator **/
+    public boolean nextCoin() {
+        return random.nextBoolean();
+    }
+
     /** Get a random number between a and b **/
     public static int randInt(int a, int b) {
         return ((int) (Math.floor(Math.random() * (b - a + 1)) + a));
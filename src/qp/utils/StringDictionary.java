@@ -0,0 +1,51 @@
+/**
+ * Order preserving dictionary of string values, built when tables are loaded.
+ * Every distinct string is given its rank among all the strings of the
+ * dictionary as code, and values are encoded into DictStrings that share the
+ * identity of the dictionary. Tables loaded together use the same dictionary,
+ * so their string columns can be joined on codes
+ **/
+
+package qp.utils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class StringDictionary {
+
+    final long id;                        // Identity given to the encoded values
+    final String[] values;                // Distinct strings in sorted order, indexed by code
+    final HashMap<String, DictString> index;  // Encoded value of each string
+
+    public StringDictionary(Collection<String> strings) {
+        id = new Random().nextLong();
+        TreeSet<String> sorted = new TreeSet<>(strings);
+        values = sorted.toArray(new String[0]);
+        index = new HashMap<>();
+        for (int code = 0; code < values.length; ++code) {
+            index.put(values[code], new DictString(id, code, values[code]));
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * The encoded value of a string of the dictionary, null if the string is unknown.
+     * * The same DictString object is returned for every occurrence of a string
+     **/
+    public DictString encode(String value) {
+        return index.get(value);
+    }
+
+    public String decode(int code) {
+        return values[code];
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Paged layout of a table file, which can be read one page at a time from
+ * any position. Each page is serialized on its own, so reading it does not
+ * depend on the pages before it, and an index at the end of the file gives
+ * the offset of every page.
+ *
+ * Layout: MAGIC, VERSION, tuples per page, the pages (each a 4 byte length
+ * followed by the serialized tuple count and tuples), the page index (one
+ * 8 byte offset per page) and a trailer with the index position, the number
+ * of pages and MAGIC again.
+ *
+ * Table files written before this layout are plain streams of serialized
+ * tuples; isPaged tells the two apart
+ **/
+
+package qp.utils;
+
+import java.io.*;
+
+public class TableFile {
+
+    public static final int MAGIC = 0x51505442;  // "QPTB", a Java object stream starts with 0xACED
+    static final int VERSION = 1;
+    static final int TRAILER_SIZE = 16;
+    public static final int PAGE_BYTES = 4096;   // Default page size of the tables written by ConvertTxtToTbl
+
+    String filename;
+    RandomAccessFile file;
+    int tuplesPerPage;
+    long[] offsets;  // Start of each page
+
+    /**
+     * Whether the file uses the paged layout
+     **/
+    public static boolean isPaged(String filename) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException io) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a paged table file and reads its page index
+     **/
+    public TableFile(String filename) throws IOException {
+        this.filename = filename;
+        file = new RandomAccessFile(filename, "r");
+        if (file.length() < 12 + TRAILER_SIZE || file.readInt() != MAGIC) {
+            file.close();
+            throw new IOException(filename + " is not a paged table file");
+        }
+        if (file.readInt() != VERSION) {
+            file.close();
+            throw new IOException(filename + ": unknown table file version");
+        }
+        tuplesPerPage = file.readInt();
+        file.seek(file.length() - TRAILER_SIZE);
+        long indexPos = file.readLong();
+        int numPages = file.readInt();
+        file.seek(indexPos);
+        offsets = new long[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            offsets[i] = file.readLong();
+        }
+    }
+
+    public int getNumPages() {
+        return offsets.length;
+    }
+
+    public int getTuplesPerPage() {
+        return tuplesPerPage;
+    }
+
+    /**
+     * Reads and deserializes one page into the given batch
+     **/
+    public void readPage(int page, Batch batch) throws IOException {
+        file.seek(offsets[page]);
+        byte[] bytes = new byte[file.readInt()];
+        file.readFully(bytes);
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        int numTuples = in.readInt();
+        try {
+            for (int i = 0; i < numTuples; ++i) {
+                batch.add((Tuple) in.readObject());
+            }
+        } catch (ClassNotFoundException cnf) {
+            throw new IOException(filename + ": class not found while reading page " + page);
+        }
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Writes tuples into a new paged table file
+     **/
+    public static class Writer {
+
+        final int tuplesPerPage;
+        DataOutputStream out;
+        long position;            // Bytes written so far
+        long[] offsets = new long[16];
+        int numPages = 0;
+        Tuple[] page;             // Tuples of the page being filled
+        int pageSize = 0;
+
+        public Writer(String filename, int tuplesPerPage) throws IOException {
+            this.tuplesPerPage = tuplesPerPage;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tuplesPerPage);
+            position = 12;
+            page = new Tuple[tuplesPerPage];
+        }
+
+        public void add(Tuple tuple) throws IOException {
+            page[pageSize++] = tuple;
+            if (pageSize == tuplesPerPage) {
+                writePage();
+            }
+        }
+
+        private void writePage() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream pageOut = new ObjectOutputStream(bytes);
+            pageOut.writeInt(pageSize);
+            for (int i = 0; i < pageSize; ++i) {
+                pageOut.writeObject(page[i]);
+                page[i] = null;
+            }
+            pageOut.close();
+            if (numPages == offsets.length) {
+                long[] newOffsets = new long[offsets.length * 2];
+                System.arraycopy(offsets, 0, newOffsets, 0, numPages);
+                offsets = newOffsets;
+            }
+            offsets[numPages++] = position;
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            position += 4 + bytes.size();
+            pageSize = 0;
+        }
+
+        /**
+         * Flushes the last page and writes the page index
+         **/
+        public void close() throws IOException {
+            if (pageSize > 0) {
+                writePage();
+            }
+            long indexPos = position;
+            for (int i = 0; i < numPages; ++i) {
+                out.writeLong(offsets[i]);
+            }
+            out.writeLong(indexPos);
+            out.writeInt(numPages);
+            out.writeInt(MAGIC);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Uniform random sample of the rows of a table, kept by reservoir sampling
+ * while the table is read once, so that it takes SAMPLESIZE rows whatever
+ * the size of the table. Strings are kept decoded, so the rows of samples of
+ * different tables compare on their characters.
+ *
+ * A sample is stored in <tablename>.sample: the number of tuples of the
+ * table, the number of rows kept, then the rows
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
+
+public class TableSample {
+
+    public static final int SAMPLESIZE = 1000;
+
+    long numtuples;                                 // Tuples of the table
+    final ArrayList<Tuple> rows = new ArrayList<>();
+    final Random random;                            // Chooses the rows kept
+
+    public TableSample(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public void add(Tuple tuple) {
+        numtuples++;
+        if (rows.size() < SAMPLESIZE) {
+            rows.add(decode(tuple));
+        } else {
+            long slot = (long) (random.nextDouble() * numtuples);
+            if (slot < SAMPLESIZE) {
+                rows.set((int) slot, decode(tuple));
+            }
+        }
+    }
+
+    public long getNumTuples() {
+        return numtuples;
+    }
+
+    public ArrayList<Tuple> getRows() {
+        return rows;
+    }
+
+    private static Tuple decode(Tuple tuple) {
+        ArrayList<Object> data = new ArrayList<>(tuple.getNumCols());
+        for (int i = 0; i < tuple.getNumCols(); ++i) {
+            Object value = tuple.dataAt(i);
+            data.add(value instanceof DictString ? value.toString() : value);
+        }
+        return new Tuple(data);
+    }
+
+    /**
+     * Writes the sample to <tablename>.sample
+     **/
+    public void write(String tabname) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tabname + ".sample")))) {
+            out.writeLong(numtuples);
+            out.writeInt(rows.size());
+            for (Tuple row : rows) {
+                out.writeObject(row);
+            }
+        }
+    }
+
+    /**
+     * Reads the sample of a table from <tablename>.sample, null if the table has none
+     **/
+    public static TableSample read(String tabname) {
+        String filename = tabname + ".sample";
+        if (!new File(filename).exists()) {
+            return null;
+        }
+        TableSample sample = new TableSample(0);
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+            sample.numtuples = in.readLong();
+            int numrows = in.readInt();
+            for (int i = 0; i < numrows; ++i) {
+                sample.rows.add((Tuple) in.readObject());
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            System.out.println("incorrect format of sample file " + filename);
+            System.exit(1);
+        }
+        return sample;
+    }
+}
@@ -12,7 +12,10 @@ import java.io.*;
  */
 public class Tuple implements Serializable, Comparable<Tuple> {
 
+    private static final long serialVersionUID = 7403003568579746697L;  // Keeps existing .tbl files readable
+
     public ArrayList<Object> _data;
+    private transient int hash;  // Cached hash code, 0 until computed
 
     public Tuple(ArrayList<Object> d) {
         _data = d;
@@ -29,17 +32,19 @@ public class Tuple implements Serializable, Comparable<Tuple> {
         return _data.get(index);
     }
 
+    /**
+     * Number of columns in this tuple
+     **/
+    public int getNumCols() {
+        return _data.size();
+    }
+
     /**
      * Checks whether the join condition is satisfied or not with one condition
      * * before performing actual join operation
      **/
     public boolean checkJoin(Tuple right, int leftindex, int rightindex) {
-        Object leftData = dataAt(leftindex);
-        Object rightData = right.dataAt(rightindex);
-        if (leftData.equals(rightData))
-            return true;
-        else
-            return false;
+        return equalValues(dataAt(leftindex), right.dataAt(rightindex));
     }
 
     /**
@@ -50,9 +55,7 @@ public class Tuple implements Serializable, Comparable<Tuple> {
         if (leftindex.size() != rightindex.size())
             return false;
         for (int i = 0; i < leftindex.size(); ++i) {
-            Object leftData = dataAt(leftindex.get(i));
-            Object rightData = right.dataAt(rightindex.get(i));
-            if (!leftData.equals(rightData)) {
+            if (!equalValues(dataAt(leftindex.get(i)), right.dataAt(rightindex.get(i)))) {
                 return false;
             }
         }
@@ -60,12 +63,11 @@ public class Tuple implements Serializable, Comparable<Tuple> {
     }
 
     /**
-     * Joining two tuples without duplicate column elimination
+     * Joining two tuples without duplicate column elimination.
+     * * The columns are not copied, the result refers to both tuples
      **/
     public Tuple joinWith(Tuple right) {
-        ArrayList<Object> newData = new ArrayList<>(this.data());
-        newData.addAll(right.data());
-        return new Tuple(newData);
+        return new JoinedTuple(this, right);
     }
 
     /**
@@ -79,19 +81,7 @@ public class Tuple implements Serializable, Comparable<Tuple> {
      * Comparing tuples in different tables, used for join condition checking
      **/
     public static int compareTuples(Tuple left, Tuple right, int leftIndex, int rightIndex) {
-        Object leftdata = left.dataAt(leftIndex);
-        Object rightdata = right.dataAt(rightIndex);
-        if (leftdata instanceof Integer) {
-            return ((Integer) leftdata).compareTo((Integer) rightdata);
-        } else if (leftdata instanceof String) {
-            return ((String) leftdata).compareTo((String) rightdata);
-        } else if (leftdata instanceof Float) {
-            return ((Float) leftdata).compareTo((Float) rightdata);
-        } else {
-            System.out.println("Tuple: Unknown comparision of the tuples");
-            System.exit(1);
-            return 0;
-        }
+        return compareValues(left.dataAt(leftIndex), right.dataAt(rightIndex));
     }
 
     /**
@@ -104,41 +94,65 @@ public class Tuple implements Serializable, Comparable<Tuple> {
             return 0;
         }
         for (int i = 0; i < leftIndex.size(); ++i) {
-            Object leftdata = left.dataAt(leftIndex.get(i));
-            Object rightdata = right.dataAt(rightIndex.get(i));
-            if (leftdata.equals(rightdata)) continue;
-            if (leftdata instanceof Integer) {
-                return ((Integer) leftdata).compareTo((Integer) rightdata);
-            } else if (leftdata instanceof String) {
-                return ((String) leftdata).compareTo((String) rightdata);
-            } else if (leftdata instanceof Float) {
-                return ((Float) leftdata).compareTo((Float) rightdata);
-            } else {
-                System.out.println("Tuple: Unknown comparision of the tuples");
-                System.exit(1);
-                return 0;
+            int compRes = compareValues(left.dataAt(leftIndex.get(i)), right.dataAt(rightIndex.get(i)));
+            if (compRes != 0) {
+                return compRes;
             }
         }
         return 0;
     }
 
+    /**
+     * Compare two values of the same attribute type. Dictionary-encoded strings
+     * * of the same dictionary are compared on their codes, other strings on their characters
+     **/
+    public static int compareValues(Object leftdata, Object rightdata) {
+        if (leftdata instanceof Integer) {
+            return ((Integer) leftdata).compareTo((Integer) rightdata);
+        } else if (leftdata instanceof DictString && rightdata instanceof DictString) {
+            return ((DictString) leftdata).compareTo((DictString) rightdata);
+        } else if (leftdata instanceof String || leftdata instanceof DictString) {
+            return leftdata.toString().compareTo(rightdata.toString());
+        } else if (leftdata instanceof Float) {
+            return ((Float) leftdata).compareTo((Float) rightdata);
+        } else {
+            System.out.println("Tuple: Unknown comparision of the tuples");
+            System.exit(1);
+            return 0;
+        }
+    }
+
+    /**
+     * Whether two values of the same attribute type are equal. An encoded string
+     * * equals a plain string with the same characters
+     **/
+    public static boolean equalValues(Object leftdata, Object rightdata) {
+        if (leftdata instanceof DictString && rightdata instanceof String
+                || leftdata instanceof String && rightdata instanceof DictString) {
+            return leftdata.toString().equals(rightdata.toString());
+        }
+        return leftdata.equals(rightdata);
+    }
+
+    /**
+     * 64 bit hash of a value, its hashCode spread over all the bits. Values
+     * * that equalValues finds equal hash the same, as an encoded string has
+     * * the hashCode of its characters
+     **/
+    public static long hashValue(Object value) {
+        long h = value == null ? 0 : value.hashCode();
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
     @Override
     public int compareTo(Tuple t2) {
-        for (int i = 0; i < this.data().size(); i++) {
-            Object t1data = this.dataAt(i);
-            Object t2data = t2.dataAt(i);
-            int compRes;
-            if (t1data instanceof Integer) {
-                compRes = ((Integer) t1data).compareTo((Integer) t2data);
-            } else if (t1data instanceof String) {
-                compRes = ((String) t1data).compareTo((String) t2data);
-            } else if (t1data instanceof Float) {
-                compRes = ((Float) t1data).compareTo((Float) t2data);
-            } else {
-                System.out.println("Tuple: Unknown comparision of the tuples");
-                System.exit(1);
-                return 0;
-            }
+        for (int i = 0; i < this.getNumCols(); i++) {
+            int compRes = compareValues(this.dataAt(i), t2.dataAt(i));
             if (compRes != 0) {
                 return compRes;
             }
@@ -151,6 +165,32 @@ public class Tuple implements Serializable, Comparable<Tuple> {
         if (!(other instanceof Tuple)) {
             return false;
         }
-        return this.data().equals(((Tuple)other).data());
+        Tuple t2 = (Tuple) other;
+        if (this.getNumCols() != t2.getNumCols()) {
+            return false;
+        }
+        for (int i = 0; i < this.getNumCols(); i++) {
+            if (!equalValues(this.dataAt(i), t2.dataAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computed once per tuple, tuples are not modified after they are built
+     **/
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = 1;
+            for (int i = 0; i < this.getNumCols(); i++) {
+                Object data = this.dataAt(i);
+                h = 31 * h + (data == null ? 0 : data.hashCode());
+            }
+            hash = h;
+        }
+        return h;
     }
 }
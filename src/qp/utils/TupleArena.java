@@ -0,0 +1,358 @@
+/**
+ * Off-heap storage for the tuples an operator keeps in memory (a block of the
+ * outer relation, the input of a sorted run, a join partition). Tuples are
+ * encoded into a direct ByteBuffer, so they do not add to the heap that the
+ * garbage collector has to scan. Rows are addressed by their position in the
+ * arena and decoded back into Tuples only when they are needed.
+ *
+ * The arena holds at most the bytes of the buffers its operator is given,
+ * reserved when it is made: it never grows, and add refuses a tuple that
+ * does not fit, which the operator takes as the end of its block or run.
+ *
+ * Each column is stored as a one byte type tag followed by the value:
+ * INT and REAL take 4 bytes, STRING a 4 byte length followed by its chars,
+ * and a dictionary-encoded string its dictionary id and code before the
+ * length and chars.
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+public class TupleArena {
+
+    static final byte NULL = 0;  // Type tag of a missing value, the others are the Attribute types
+    static final byte DICT = 4;  // Type tag of a DictString
+
+    ByteBuffer buf;   // Encoded tuples
+    int[] offsets;    // Start of each row in buf
+    int numTuples;    // Number of rows stored
+
+    /**
+     * Compares two rows of the arena by position
+     **/
+    public interface RowComparator {
+        int compare(int row1, int row2);
+    }
+
+    /**
+     * capacity is the number of bytes the arena may hold, normally pagesToBytes
+     * * of the buffers given to the operator
+     **/
+    public TupleArena(int capacity) {
+        buf = ByteBuffer.allocateDirect(Math.max(capacity, 64));
+        offsets = new int[64];
+        numTuples = 0;
+    }
+
+    /**
+     * Bytes of the given number of pages, and at least those of one tuple of the
+     * * schema, as a page always holds a tuple. At most the largest arena there can be
+     **/
+    public static int pagesToBytes(int numPages, Schema schema) {
+        long tupleBytes = 2;
+        for (Attribute attr : schema.getAttList()) {
+            tupleBytes += attr.getType() == Attribute.STRING ? 17 + attr.getAttrSize() : 5;  // the size of a string holds its chars
+        }
+        long bytes = Math.max((long) Math.max(numPages, 1) * Batch.getPageSize(), tupleBytes);
+        return (int) Math.min(bytes, Integer.MAX_VALUE - 8);
+    }
+
+    public int size() {
+        return numTuples;
+    }
+
+    public boolean isEmpty() {
+        return numTuples == 0;
+    }
+
+    /**
+     * Forget all rows, the memory is kept for reuse
+     **/
+    public void clear() {
+        buf.clear();
+        numTuples = 0;
+    }
+
+    /**
+     * Number of bytes currently used by encoded rows
+     **/
+    public int getNumBytes() {
+        return buf.position();
+    }
+
+    /**
+     * Append a tuple at the end of the arena. Returns false, and leaves the
+     * * arena as it was, if the tuple does not fit in the bytes left
+     **/
+    public boolean add(Tuple t) {
+        int numCols = t.getNumCols();
+        int bytes = 2;
+        for (int i = 0; i < numCols; ++i) {
+            bytes += valueSize(t.dataAt(i));
+        }
+        if (buf.remaining() < bytes) {
+            return false;
+        }
+        if (numTuples == offsets.length) {
+            int[] newOffsets = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, newOffsets, 0, numTuples);
+            offsets = newOffsets;
+        }
+        offsets[numTuples] = buf.position();
+        buf.putShort((short) numCols);
+        for (int i = 0; i < numCols; ++i) {
+            putValue(t.dataAt(i));
+        }
+        numTuples++;
+        return true;
+    }
+
+    /**
+     * Decode the row at the given position into a Tuple
+     **/
+    public Tuple get(int row) {
+        int pos = offsets[row];
+        int numCols = buf.getShort(pos);
+        pos += 2;
+        ArrayList<Object> data = new ArrayList<>(numCols);
+        for (int i = 0; i < numCols; ++i) {
+            data.add(getValue(pos));
+            pos = skipValue(pos);
+        }
+        return new Tuple(data);
+    }
+
+    /**
+     * The columns of the tuple followed by those of the row, decoded straight
+     * * into one flat Tuple, the equivalent of left.joinWith(get(row))
+     **/
+    public Tuple joinWith(Tuple left, int row) {
+        int pos = offsets[row];
+        int numCols = buf.getShort(pos);
+        pos += 2;
+        ArrayList<Object> data = new ArrayList<>(left.getNumCols() + numCols);
+        for (int i = 0; i < left.getNumCols(); ++i) {
+            data.add(left.dataAt(i));
+        }
+        for (int i = 0; i < numCols; ++i) {
+            data.add(getValue(pos));
+            pos = skipValue(pos);
+        }
+        return new Tuple(data);
+    }
+
+    /**
+     * Decode a single column of a row
+     **/
+    public Object dataAt(int row, int col) {
+        return getValue(columnOffset(row, col));
+    }
+
+    /**
+     * Compare a column of two rows, ordering values the same way as Tuple.compareTuples
+     **/
+    public int compareColumns(int row1, int row2, int col) {
+        return compareAt(columnOffset(row1, col), columnOffset(row2, col));
+    }
+
+    /**
+     * Whether the given columns of a row are equal to the given columns of
+     * * a tuple, the equivalent of Tuple.checkJoin, without decoding the row
+     **/
+    public boolean checkJoin(int row, Tuple right, ArrayList<Integer> leftindex, ArrayList<Integer> rightindex) {
+        if (leftindex.size() != rightindex.size())
+            return false;
+        for (int i = 0; i < leftindex.size(); ++i) {
+            if (!equalsAt(columnOffset(row, leftindex.get(i)), right.dataAt(rightindex.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorts row positions with the given comparator. The rows themselves are not moved
+     **/
+    public static void sort(int[] rows, RowComparator order) {
+        int[] scratch = new int[rows.length];
+        mergeSort(rows, scratch, 0, rows.length, order);
+    }
+
+    private static void mergeSort(int[] rows, int[] scratch, int from, int to, RowComparator order) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(rows, scratch, from, mid, order);
+        mergeSort(rows, scratch, mid, to, order);
+        if (order.compare(rows[mid - 1], rows[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(rows, from, scratch, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; ++k) {
+            if (j >= to || (i < mid && order.compare(scratch[i], scratch[j]) <= 0)) {
+                rows[k] = scratch[i++];
+            } else {
+                rows[k] = scratch[j++];
+            }
+        }
+    }
+
+    private int columnOffset(int row, int col) {
+        int pos = offsets[row] + 2;
+        for (int i = 0; i < col; ++i) {
+            pos = skipValue(pos);
+        }
+        return pos;
+    }
+
+    /**
+     * Bytes putValue takes for the value
+     **/
+    private static int valueSize(Object value) {
+        if (value instanceof String) {
+            return 5 + 2 * ((String) value).length();
+        } else if (value instanceof DictString) {
+            return 17 + 2 * ((DictString) value).getValue().length();
+        } else if (value == null) {
+            return 1;
+        }
+        return 5;
+    }
+
+    private void putValue(Object value) {
+        if (value instanceof Integer) {
+            buf.put((byte) Attribute.INT);
+            buf.putInt((Integer) value);
+        } else if (value instanceof Float) {
+            buf.put((byte) Attribute.REAL);
+            buf.putFloat((Float) value);
+        } else if (value instanceof String) {
+            String s = (String) value;
+            buf.put((byte) Attribute.STRING);
+            buf.putInt(s.length());
+            for (int i = 0; i < s.length(); ++i) {
+                buf.putChar(s.charAt(i));
+            }
+        } else if (value instanceof DictString) {
+            DictString d = (DictString) value;
+            String s = d.getValue();
+            buf.put(DICT);
+            buf.putLong(d.getDictId());
+            buf.putInt(d.getCode());
+            buf.putInt(s.length());
+            for (int i = 0; i < s.length(); ++i) {
+                buf.putChar(s.charAt(i));
+            }
+        } else if (value == null) {
+            buf.put(NULL);
+        } else {
+            System.out.println("TupleArena: Unknown data type " + value.getClass());
+            System.exit(1);
+        }
+    }
+
+    private Object getValue(int pos) {
+        byte type = buf.get(pos);
+        if (type == Attribute.INT) {
+            return buf.getInt(pos + 1);
+        } else if (type == Attribute.REAL) {
+            return buf.getFloat(pos + 1);
+        } else if (type == Attribute.STRING) {
+            return getString(pos + 1);
+        } else if (type == DICT) {
+            return new DictString(buf.getLong(pos + 1), buf.getInt(pos + 9), getString(pos + 13));
+        }
+        return null;
+    }
+
+    /**
+     * Decode the chars of a string whose length is stored at the given position
+     **/
+    private String getString(int lengthPos) {
+        int length = buf.getInt(lengthPos);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            chars[i] = buf.getChar(lengthPos + 4 + 2 * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Position of the length of a STRING or DICT value
+     **/
+    private int lengthPos(int pos) {
+        return buf.get(pos) == DICT ? pos + 13 : pos + 1;
+    }
+
+    private int skipValue(int pos) {
+        byte type = buf.get(pos);
+        if (type == Attribute.STRING || type == DICT) {
+            int lengthPos = lengthPos(pos);
+            return lengthPos + 4 + 2 * buf.getInt(lengthPos);
+        } else if (type == NULL) {
+            return pos + 1;
+        }
+        return pos + 5;
+    }
+
+    private int compareAt(int pos1, int pos2) {
+        byte type = buf.get(pos1);
+        if (type == Attribute.INT) {
+            return Integer.compare(buf.getInt(pos1 + 1), buf.getInt(pos2 + 1));
+        } else if (type == Attribute.REAL) {
+            return Float.compare(buf.getFloat(pos1 + 1), buf.getFloat(pos2 + 1));
+        } else if (type == DICT && buf.get(pos2) == DICT && buf.getLong(pos1 + 1) == buf.getLong(pos2 + 1)) {
+            return Integer.compare(buf.getInt(pos1 + 9), buf.getInt(pos2 + 9));
+        } else if (type == Attribute.STRING || type == DICT) {
+            int lengthPos1 = lengthPos(pos1);
+            int lengthPos2 = lengthPos(pos2);
+            int len1 = buf.getInt(lengthPos1);
+            int len2 = buf.getInt(lengthPos2);
+            for (int i = 0; i < Math.min(len1, len2); ++i) {
+                char c1 = buf.getChar(lengthPos1 + 4 + 2 * i);
+                char c2 = buf.getChar(lengthPos2 + 4 + 2 * i);
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+            return len1 - len2;
+        }
+        System.out.println("TupleArena: Unknown comparision of the tuples");
+        System.exit(1);
+        return 0;
+    }
+
+    private boolean equalsAt(int pos, Object value) {
+        byte type = buf.get(pos);
+        if (type == Attribute.INT) {
+            return value instanceof Integer && buf.getInt(pos + 1) == (Integer) value;
+        } else if (type == Attribute.REAL) {
+            return value instanceof Float && Float.compare(buf.getFloat(pos + 1), (Float) value) == 0;
+        } else if (type == DICT && value instanceof DictString
+                && buf.getLong(pos + 1) == ((DictString) value).getDictId()) {
+            return buf.getInt(pos + 9) == ((DictString) value).getCode();
+        } else if (type == Attribute.STRING || type == DICT) {
+            if (!(value instanceof String || value instanceof DictString)) {
+                return false;
+            }
+            String s = value.toString();
+            int lengthPos = lengthPos(pos);
+            int length = buf.getInt(lengthPos);
+            if (length != s.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; ++i) {
+                if (buf.getChar(lengthPos + 4 + 2 * i) != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return value == null;
+    }
+}
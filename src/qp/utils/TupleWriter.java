@@ -14,7 +14,7 @@ public class TupleWriter {
     final String filename;    // Filename to write to
     final int batchsize;        // Number of tuples per out batch
 
-    Batch outBatch;
+    Batch outBatch;                          // Output buffer, reused for every page written
     int numBatch = 0;                        // Number of batch written
     int numTuple = 0;                        // Number of tuples added
     ObjectOutputStream out;            // Output file stream
@@ -73,7 +73,8 @@ public class TupleWriter {
     private void writeBatch() {
         try {
             out.writeObject(outBatch);
-            outBatch = null;        // deallocate output buffer --> saves memory
+            out.reset();            // the buffer is reused, so the stream must not refer back to it
+            outBatch.clear();
             ++numBatch;
         } catch (IOException io) {
             System.out.printf("%s:writing the temporary file error", filename);
@@ -84,7 +85,8 @@ public class TupleWriter {
 
     // Signals the TupleWriter to finish writing all the tuples to the file
     public boolean close() {
-        if (outBatch != null) writeBatch();  // Unfilled batch (if any) will be flushed to the file
+        if (outBatch != null && !outBatch.isEmpty()) writeBatch();  // Unfilled batch (if any) will be flushed to the file
+        outBatch = null;
         if (out != null) {
             try {
                 out.close();
@@ -0,0 +1,70 @@
+/**
+ * Starts the threads that run queries and the producers of exchanges. Where
+ * the JVM has virtual threads (Java 21 and later) these are virtual threads,
+ * so a query blocked on a table or spill file read does not hold on to an
+ * operating system thread and many queries can share a small carrier pool.
+ * Older JVMs get daemon platform threads.
+ *
+ * Virtual threads are looked up by reflection so that the code still
+ * compiles and runs on older JVMs
+ **/
+
+package qp.utils;
+
+import java.lang.reflect.Method;
+
+public class Workers {
+
+    static final Object BUILDER;       // Thread.ofVirtual(), null if there are no virtual threads
+    static final Method NAME;          // Thread.Builder.name(String)
+    static final Method UNSTARTED;     // Thread.Builder.unstarted(Runnable)
+
+    static {
+        Object builder = null;
+        Method name = null;
+        Method unstarted = null;
+        if (!Boolean.getBoolean("qp.platformthreads")) {
+            try {
+                builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                name = builderClass.getMethod("name", String.class);
+                unstarted = builderClass.getMethod("unstarted", Runnable.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                builder = null;
+            }
+        }
+        BUILDER = builder;
+        NAME = name;
+        UNSTARTED = unstarted;
+    }
+
+    /**
+     * Whether the threads started are virtual threads
+     **/
+    public static boolean isVirtual() {
+        return BUILDER != null;
+    }
+
+    /**
+     * Starts a thread running the task. The thread does not keep the JVM alive
+     **/
+    public static Thread start(String name, Runnable task) {
+        Thread thread = null;
+        if (BUILDER != null) {
+            try {
+                // a builder is not thread safe, name() returns the same builder
+                synchronized (BUILDER) {
+                    thread = (Thread) UNSTARTED.invoke(NAME.invoke(BUILDER, name), task);
+                }
+            } catch (ReflectiveOperationException e) {
+                thread = null;
+            }
+        }
+        if (thread == null) {
+            thread = new Thread(task, name);
+            thread.setDaemon(true);
+        }
+        thread.start();
+        return thread;
+    }
+}